@@ -0,0 +1,56 @@
+package com.hisona.facedetection;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+
+/**
+ * {@link BatchDetector.Loader} decoding image files with BitmapFactory and letterboxing them
+ * like the camera frames. Each loader thread keeps its own {@link PreprocessContext}.
+ */
+public class BitmapFileLoader implements BatchDetector.Loader<File> {
+
+    private final float[] normMeanRGB;
+    private final float[] normStdRGB;
+
+    private final ThreadLocal<PreprocessContext> contexts = new ThreadLocal<PreprocessContext>() {
+        @Override
+        protected PreprocessContext initialValue() {
+            PreprocessContext context = new PreprocessContext();
+            context.setNormalization(normMeanRGB, normStdRGB);
+            return context;
+        }
+    };
+
+    /** Normalizes with FaceUtils.FACE_MEAN and FaceUtils.FACE_STD. */
+    public BitmapFileLoader() {
+        this(FaceUtils.FACE_MEAN, FaceUtils.FACE_STD);
+    }
+
+    public BitmapFileLoader(float[] normMeanRGB, float[] normStdRGB) {
+        this.normMeanRGB = normMeanRGB.clone();
+        this.normStdRGB = normStdRGB.clone();
+    }
+
+    @Override
+    public void load(File file, int width, int height, FloatBuffer out, Letterbox letterbox)
+            throws IOException {
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+        if (bitmap == null) {
+            throw new IOException("Cannot decode " + file);
+        }
+        try {
+            PreprocessContext context = contexts.get();
+            Bitmap input = FaceUtils.preProcessing(bitmap, 0, false,
+                    0, 0, bitmap.getWidth(), bitmap.getHeight(), width, height, context);
+            FaceUtils.bitmapToFloatBuffer(input, 0, 0, width, height, context.getNormalizer(),
+                    PixelNormalizer.Layout.NCHW, out, 0, context.getPixels(width * height));
+            letterbox.set(context.getLetterbox());
+        } finally {
+            bitmap.recycle();
+        }
+    }
+}
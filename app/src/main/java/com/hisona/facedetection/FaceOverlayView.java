@@ -0,0 +1,177 @@
+package com.hisona.facedetection;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.Choreographer;
+import android.view.View;
+
+/**
+ * Draws the boxes, landmarks and track ids of every face over the camera preview.
+ *
+ * Results can be handed in from any thread with {@link #setResult}; they are copied into a back
+ * buffer and swapped to the front at the next vsync, so however many results arrive between two
+ * frames, the UI thread invalidates once and draws the latest. Drawing goes straight to the
+ * canvas from the front buffer, nothing is allocated once the buffers have grown to the largest
+ * face count.
+ *
+ * Source pixels are mapped to the view as the preview shows them, centre cropped to fill it
+ * (PreviewView.ScaleType.FILL_CENTER).
+ */
+public class FaceOverlayView extends View implements Choreographer.FrameCallback {
+
+    /** Called on the UI thread when a new result is swapped in, before it is drawn. */
+    public interface Listener {
+        void onResultShown(DetectionResult result, long frameTimeNanos);
+    }
+
+    private static final int[] TRACK_COLORS = {
+            Color.WHITE, Color.GREEN, Color.CYAN, Color.YELLOW, Color.MAGENTA, 0xFFFF8000,
+    };
+
+    private static final DetectionResult EMPTY = new DetectionResult();
+
+    private final Choreographer choreographer = Choreographer.getInstance();
+
+    // guarded by lock
+    private final Object lock = new Object();
+    private DetectionResult back = new DetectionResult(16);
+    private boolean dirty;
+    private boolean scheduled;
+
+    // UI thread only
+    private DetectionResult front = new DetectionResult(16);
+    private float[] points = new float[2 * LandMark.COUNT * 16];
+    private final char[] label = new char[11];
+    private Listener listener;
+
+    private final Paint boxPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint landmarkPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint labelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    public FaceOverlayView(Context context) {
+        this(context, null);
+    }
+
+    public FaceOverlayView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        boxPaint.setStyle(Paint.Style.STROKE);
+        boxPaint.setStrokeWidth(dp(3));
+        landmarkPaint.setStrokeWidth(dp(4));
+        landmarkPaint.setStrokeCap(Paint.Cap.ROUND);
+        landmarkPaint.setColor(Color.RED);
+        labelPaint.setTextSize(dp(14));
+        labelPaint.setFakeBoldText(true);
+    }
+
+    private float dp(float value) {
+        return TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, value, getResources().getDisplayMetrics());
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Shows result from the next vsync on. result is copied and can be recycled on return. */
+    public void setResult(DetectionResult result) {
+        synchronized (lock) {
+            back.set(result);
+            dirty = true;
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        choreographer.postFrameCallback(this);
+    }
+
+    /** Removes every face from the overlay. */
+    public void clear() {
+        setResult(EMPTY);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        synchronized (lock) {
+            scheduled = false;
+            if (!dirty) {
+                return;
+            }
+            DetectionResult swap = front;
+            front = back;
+            back = swap;
+            dirty = false;
+        }
+        if (listener != null) {
+            listener.onResultShown(front, frameTimeNanos);
+        }
+        invalidate();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        choreographer.removeFrameCallback(this);
+        synchronized (lock) {
+            scheduled = false;
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        final DetectionResult result = front;
+        if (result.count == 0 || result.sourceWidth == 0 || result.sourceHeight == 0) {
+            return;
+        }
+
+        final float scale = Math.max((float) getWidth() / result.sourceWidth,
+                (float) getHeight() / result.sourceHeight);
+        final float offsetX = (getWidth() - result.sourceWidth * scale) / 2;
+        final float offsetY = (getHeight() - result.sourceHeight * scale) / 2;
+        final float[] boxes = result.sourceBoxes;
+
+        for (int i = 0; i < result.count; i++) {
+            final float left = boxes[4 * i] * scale + offsetX;
+            final float top = boxes[4 * i + 1] * scale + offsetY;
+            final float right = boxes[4 * i + 2] * scale + offsetX;
+            final float bottom = boxes[4 * i + 3] * scale + offsetY;
+            final int trackId = result.trackIds[i];
+            final int color = TRACK_COLORS[trackId < 0 ? 0 : trackId % TRACK_COLORS.length];
+            boxPaint.setColor(color);
+            canvas.drawRect(left, top, right, bottom, boxPaint);
+            if (trackId >= 0) {
+                labelPaint.setColor(color);
+                final int start = formatId(trackId);
+                canvas.drawText(label, start, label.length - start, left, top - boxPaint.getStrokeWidth(), labelPaint);
+            }
+        }
+
+        if (result.hasLandmarks) {
+            final int n = 2 * LandMark.COUNT * result.count;
+            if (points.length < n) {
+                points = new float[Math.max(n, 2 * points.length)];
+            }
+            final float[] landmarks = result.sourceLandmarks;
+            for (int i = 0; i < n; i += 2) {
+                points[i] = landmarks[i] * scale + offsetX;
+                points[i + 1] = landmarks[i + 1] * scale + offsetY;
+            }
+            canvas.drawPoints(points, 0, n, landmarkPaint);
+        }
+    }
+
+    /** Writes "#id" right aligned into label and returns its first index. */
+    private int formatId(int id) {
+        int i = label.length;
+        do {
+            label[--i] = (char) ('0' + id % 10);
+            id /= 10;
+        } while (id > 0);
+        label[--i] = '#';
+        return i;
+    }
+}
@@ -1,7 +0,0 @@
-package com.hisona.facedetection;
-
-public class LandMark {
-    int x1;
-    int y1;
-}
-
@@ -0,0 +1,18 @@
+package com.hisona.facedetection;
+
+import android.util.Log;
+
+/** Writes the metrics to logcat. */
+public class LogMetricsExporter implements MetricsExporter {
+    private static final String TAG = "PipelineMetrics";
+
+    private final StringBuilder builder = new StringBuilder();
+
+    @Override
+    public void export(PipelineMetrics metrics) {
+        builder.setLength(0);
+        for (String line : metrics.format(builder).toString().split("\n")) {
+            Log.i(TAG, line);
+        }
+    }
+}
@@ -30,7 +30,6 @@ import android.util.Log;
 import android.util.Size;
 import android.view.Surface;
 import android.view.View;
-import android.view.ViewGroup;
 import android.widget.ImageButton;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -39,10 +38,12 @@ import com.google.common.util.concurrent.ListenableFuture;
 
 import org.pytorch.Module;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Locale;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -53,14 +54,87 @@ public class MainActivity extends AppCompatActivity {
 
     ConstraintLayout mContainer;
     TextView mTextView;
+    TextView mMetricsView;
     PreviewView mViewFinder;
     ImageButton mCameraCaptureButton;
-    View mBoxPrediction;
+    FaceOverlayView mOverlay;
 
-    Executor mExecutor;
-    Module mModule;
+    // analyzer, metrics and inference threads, kept across camera switches
+    private ExecutionManager mExecution;
+    volatile Module mModule;
+    private ModelLoader mModelLoader;
     private boolean isFront;
 
+    private final DetectionResult.Pool mResultPool = new DetectionResult.Pool(4, 16);
+
+    // null until the model is loaded and warmed up, the analyzer drops frames until then
+    private volatile FramePipeline mPipeline;
+
+    // run the detector on some frames only and track the faces in between
+    private static final boolean TRACKING = true;
+    private final FaceTracker mTracker = new FaceTracker();
+
+    // forward time a frame may take before the input size is lowered
+    private static final long FORWARD_BUDGET_NANOS = 50 * 1000000L;
+    private final ResolutionController mResolution = new ResolutionController(FORWARD_BUDGET_NANOS);
+
+    // run the detector on a crop around the known faces
+    private static final boolean ROI = true;
+    private final RoiPlanner mRoi = new RoiPlanner();
+
+    // reuse the last result while the scene does not move
+    private static final boolean GATING = true;
+    private final MotionGate mGate = new MotionGate();
+    private final DetectionResult mLastResult = new DetectionResult();
+
+    // frames to record into frames.yuv for FrameReplay, 0 to record none; the outputs of the
+    // model for them are then saved into outputs.bin
+    private static final int RECORD_FRAMES = 0;
+    private volatile YuvFrameFile.Writer mRecorder;
+
+    private final FramePipeline.Listener mPipelineListener = new FramePipeline.Listener() {
+        @Override
+        public void onResult(DetectionResult result) {
+            mMetrics.recordResult(result);
+            if (ROI) {
+                mRoi.update(result);
+            }
+            if (!result.cropped) {
+                mResolution.record(result.modelWidth, result.forwardNanos);
+            }
+            mGate.recordDetection(result.totalNanos);
+            if (TRACKING) {
+                // the overlay shows the tracks, corrected here and drawn on the next frame
+                mTracker.update(result);
+                mResultPool.recycle(result);
+            } else {
+                deliverResult(result);
+            }
+        }
+    };
+
+    private final PipelineMetrics mMetrics = new PipelineMetrics();
+    private static final long METRICS_EXPORT_PERIOD_MS = 2000;
+    // also append the metrics to metrics.txt, rotated into metrics.txt.1 past METRICS_FILE_BYTES
+    private static final boolean EXPORT_METRICS_FILE = false;
+    private static final long METRICS_FILE_BYTES = 1 << 20;
+
+    // the status line is formatted a few times per second, not on every shown frame
+    private static final long STATUS_PERIOD_NANOS = 250 * 1000000L;
+    private long mStatusNanos;
+
+    private final FaceOverlayView.Listener mOverlayListener = new FaceOverlayView.Listener() {
+        @Override
+        public void onResultShown(DetectionResult result, long frameTimeNanos) {
+            long now = System.nanoTime();
+            mMetrics.onResultShown(result, now);
+            if (now - mStatusNanos >= STATUS_PERIOD_NANOS) {
+                mStatusNanos = now;
+                showStatus(result);
+            }
+        }
+    };
+
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -69,13 +143,13 @@ public class MainActivity extends AppCompatActivity {
 
         mContainer = findViewById(R.id.camera_container);
         mTextView = findViewById(R.id.text_prediction);
+        mMetricsView = findViewById(R.id.text_metrics);
         mCameraCaptureButton = findViewById(R.id.camera_capture_button);
         mViewFinder = findViewById(R.id.view_finder);
-        mBoxPrediction = findViewById(R.id.box_prediction);
-
-        mBoxPrediction.setVisibility(View.VISIBLE);
+        mOverlay = findViewById(R.id.face_overlay);
+        mOverlay.setListener(mOverlayListener);
 
-        mExecutor = Executors.newSingleThreadExecutor();
+        mExecution = new ExecutionManager("FaceDetection");
 
         isFront = false;
 
@@ -91,8 +165,57 @@ public class MainActivity extends AppCompatActivity {
             startCamera(isFront);
         }
 
-        mModule = Module.load(FaceUtils.assetFilePath(this, "mbv2.pt"));
+        startMetricsExport();
 
+        mTextView.setText("Loading model...");
+        mModelLoader = new ModelLoader(this, "mbv2.pt");
+        mModelLoader.load(new ModelLoader.Listener() {
+            @Override
+            public void onModelReady(Module module, ModelLoader.Timings timings) {
+                mModule = module;
+                mPipeline = new FramePipeline(new FaceDetector(new PyTorchBackend(module)),
+                        2, mResultPool, mPipelineListener);
+                mExecution.setPipeline(mPipeline);
+                mMetrics.attach(mPipeline);
+                mMetrics.attach(mGate);
+                mMetrics.setInferenceThreads(timings.threads);
+                mTextView.setText(timings.toString());
+            }
+
+            @Override
+            public void onModelFailed(Throwable error) {
+                mTextView.setText("Failed to load the model");
+            }
+        });
+    }
+
+    private void startMetricsExport() {
+        final MetricsExporter[] exporters = EXPORT_METRICS_FILE
+                ? new MetricsExporter[]{
+                        new OverlayMetricsExporter(mMetricsView),
+                        new LogMetricsExporter(),
+                        new FileMetricsExporter(new File(getFilesDir(), "metrics.txt"), METRICS_FILE_BYTES),
+                }
+                : new MetricsExporter[]{
+                        new OverlayMetricsExporter(mMetricsView),
+                        new LogMetricsExporter(),
+                };
+        mExecution.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                for (MetricsExporter exporter : exporters) {
+                    exporter.export(mMetrics);
+                }
+            }
+        }, METRICS_EXPORT_PERIOD_MS);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mModelLoader.cancel();
+        // the analyzer, the metrics export and the pipeline stop after their current work
+        mExecution.shutdown();
     }
 
     private boolean checkPermission() {
@@ -142,6 +265,91 @@ public class MainActivity extends AppCompatActivity {
         }, ContextCompat.getMainExecutor(this));
     }
 
+    private void deliverResult(DetectionResult result) {
+        if (GATING) {
+            synchronized (mLastResult) {
+                mLastResult.set(result);
+            }
+        }
+        result.postedNanos = System.nanoTime();
+        // the overlay keeps a copy and draws the latest one at the next vsync
+        mOverlay.setResult(result);
+        mResultPool.recycle(result);
+    }
+
+    private void startRecording() {
+        if (RECORD_FRAMES <= 0) {
+            return;
+        }
+        stopRecording();
+        try {
+            mRecorder = new YuvFrameFile.Writer(new File(getFilesDir(), "frames.yuv"));
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot record frames", e);
+        }
+    }
+
+    // analyzer thread
+    private void record(Image image, int rotationDegrees, long timestampNanos) {
+        if (mRecorder == null) {
+            return;
+        }
+        try {
+            FaceUtils.recordFrame(mRecorder, image, rotationDegrees, isFront, timestampNanos);
+            if (mRecorder.getFrameCount() >= RECORD_FRAMES) {
+                stopRecording();
+                recordOutputs(new File(getFilesDir(), "frames.yuv"));
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot record frames", e);
+            stopRecording();
+        }
+    }
+
+    /** Runs the model on the recorded frames in the background and saves its outputs. */
+    private void recordOutputs(final File frames) {
+        final Module module = mModule;
+        if (module == null) {
+            Log.w(TAG, "Model not loaded, outputs.bin not recorded");
+            return;
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                File outputs = new File(getFilesDir(), "outputs.bin");
+                try (OutputStream out = new FileOutputStream(outputs)) {
+                    int count = FrameReplay.recordOutputs(YuvFrameFile.open(frames),
+                            new PyTorchBackend(module), FaceUtils.IMAGE_WIDTH, out);
+                    Log.i(TAG, "Recorded " + count + " model outputs into " + outputs);
+                } catch (IOException e) {
+                    Log.e(TAG, "Cannot record model outputs", e);
+                }
+            }
+        }, "outputs-recorder").start();
+    }
+
+    private void stopRecording() {
+        if (mRecorder != null) {
+            try {
+                mRecorder.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot close the frame recording", e);
+            }
+            mRecorder = null;
+        }
+    }
+
+    private void showStatus(DetectionResult result) {
+        // results actually shown per second, not the inverse of one frame's latency
+        float fps = mMetrics.getThroughput();
+
+        String str = String.format(Locale.US, "%1.3f, %3.1f fps, %d ms @ %d, det %2.0f%%",
+                result.getTopScore(), fps, result.forwardNanos / 1000000, mResolution.getSize(),
+                100 * mTracker.getDetectionRate());
+
+        mTextView.setText(str);
+    }
+
     void bindPreview(@NonNull ProcessCameraProvider cameraProvider, boolean isFront) {
 
         Preview preview = new Preview.Builder()
@@ -152,69 +360,103 @@ public class MainActivity extends AppCompatActivity {
                 .requireLensFacing(isFront ? CameraSelector.LENS_FACING_FRONT : CameraSelector.LENS_FACING_BACK)
                 .build();
 
-        mExecutor = Executors.newSingleThreadExecutor();
-
         ImageAnalysis imageAnalysis = new ImageAnalysis.Builder()
-                .setTargetResolution(new Size(480, 480))
+                // frames as large as the largest model input, smaller inputs are scaled down
+                .setTargetResolution(new Size(FaceUtils.IMAGE_WIDTH, FaceUtils.IMAGE_HEIGHT))
                 .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
                 .build();
 
-        FaceBox[] mAnchors = FaceUtils.getAnchors();
+        mTracker.reset();
+        mRoi.reset();
+        mOverlay.clear();
+        mGate.invalidate();
+        startRecording();
 
-        imageAnalysis.setAnalyzer(mExecutor, new ImageAnalysis.Analyzer() {
+        YuvConverter converter = new YuvConverter();
+        // crops get their own converter, so neither rebuilds its tables on every frame
+        YuvConverter roiConverter = new YuvConverter();
+        Letterbox letterbox = new Letterbox();
+        LumaPlane luma = new LumaPlane();
+
+        imageAnalysis.setAnalyzer(mExecution.getAnalyzerExecutor(), new ImageAnalysis.Analyzer() {
             @Override
             public void analyze(@NonNull ImageProxy image) {
+                mMetrics.onCameraFrame(image.getImageInfo().getTimestamp());
+                FramePipeline pipeline = mPipeline;
+                if (pipeline == null) {
+                    image.close();
+                    return;
+                }
+
+                long startTime = System.nanoTime();
                 int rotationDegrees = image.getImageInfo().getRotationDegrees();
 
                 @SuppressLint("UnsafeExperimentalUsageError")
-                Bitmap bitmap = FaceUtils.preProcessing(FaceUtils.imageToBitmap(image.getImage()),
-                        rotationDegrees, isFront);
-                Prediction predict = FaceUtils.runningModel(mModule, mAnchors, bitmap);
-
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-
-                        float fps;
-                        if(predict.elapse > 0)
-                            fps = 1000.f / predict.elapse;
-                        else
-                            fps = 1000.f;
-
-                        String str = String.format(Locale.US, "%1.3f, %3.1f fps, %d ms",
-                                predict.score, fps, predict.elapse);
-
-                        mTextView.setText(str);
-
-                        ViewGroup.MarginLayoutParams params = (ViewGroup.MarginLayoutParams)mBoxPrediction.getLayoutParams();
-
-                        int max_h = mViewFinder.getHeight();
-                        int margin_x = (max_h - mViewFinder.getWidth()) / 2;
-
-                        params.leftMargin = (predict.x1 * max_h) / FaceUtils.IMAGE_WIDTH - margin_x;
-                        params.topMargin = (predict.y1 * max_h) / FaceUtils.IMAGE_HEIGHT;
-                        params.width = (predict.x2 - predict.x1) * max_h / FaceUtils.IMAGE_WIDTH;
-                        params.height = (predict.y2 - predict.y1) * max_h / FaceUtils.IMAGE_HEIGHT;
-
-                        mBoxPrediction.setLayoutParams(params);
-                        mBoxPrediction.setVisibility(View.VISIBLE);
-
-                        /*
-                        Canvas canvas = new Canvas(bitmap);
-                        Paint paint = new Paint();
-                        paint.setColor(Color.RED);
-                        paint.setStyle(Paint.Style.STROKE);
-                        paint.setStrokeWidth(3);
+                Image mediaImage = image.getImage();
+                record(mediaImage, rotationDegrees, image.getImageInfo().getTimestamp());
+                if (GATING) {
+                    Image.Plane yPlane = mediaImage.getPlanes()[0];
+                    boolean moved = mGate.check(yPlane.getBuffer(), mediaImage.getWidth(), mediaImage.getHeight(),
+                            yPlane.getRowStride(), image.getImageInfo().getTimestamp());
+                    mMetrics.record(PipelineMetrics.Stage.GATE, System.nanoTime() - startTime);
+                    if (!moved) {
+                        image.close();
+                        DetectionResult reused = mResultPool.acquire();
+                        synchronized (mLastResult) {
+                            reused.set(mLastResult);
+                        }
+                        reused.totalNanos = System.nanoTime() - startTime;
+                        deliverResult(reused);
+                        return;
+                    }
+                }
 
-                        canvas.drawRect(predict.x1, predict.y1, predict.x2, predict.y2, paint);
-                        canvas.drawRect(2, 2, 638, 638, paint);
+                int size = mResolution.getSize();
+                Image.Plane[] planes = FaceUtils.configureConverter(mediaImage, converter, rotationDegrees, isFront,
+                        size, size);
+                converter.getLetterbox(letterbox);
+
+                boolean detect = true;
+                if (TRACKING) {
+                    detect = mTracker.startFrame();
+
+                    luma.set(planes[0].getBuffer(), mediaImage.getWidth(), mediaImage.getHeight(),
+                            planes[0].getRowStride(), rotationDegrees, isFront);
+                    DetectionResult tracked = mResultPool.acquire();
+                    mTracker.track(luma, letterbox, size, size, tracked);
+                    tracked.totalNanos = System.nanoTime() - startTime;
+                    mMetrics.record(PipelineMetrics.Stage.TRACK, tracked.totalNanos);
+                    deliverResult(tracked);
+                }
 
-                        mCameraCaptureButton.setImageBitmap(bitmap);
-                        */
+                FramePipeline.Frame frame = detect ? pipeline.acquireFrame() : null;
+                if (frame != null) {
+                    if (ROI && mRoi.plan(letterbox.sourceWidth, letterbox.sourceHeight)) {
+                        int roiSize = mRoi.getInputSize();
+                        FaceUtils.imageToFloatBuffer(mediaImage, roiConverter, rotationDegrees, isFront,
+                                mRoi.getX(), mRoi.getY(), mRoi.getWidth(), mRoi.getHeight(),
+                                roiSize, roiSize, FaceUtils.FACE_MEAN, FaceUtils.FACE_STD,
+                                frame.ensureInput(roiSize, roiSize), 0);
+                        roiConverter.getLetterbox(frame.letterbox);
+                    } else {
+                        FaceUtils.imageToFloatBuffer(mediaImage, converter, rotationDegrees, isFront,
+                                size, size, FaceUtils.FACE_MEAN, FaceUtils.FACE_STD,
+                                frame.ensureInput(size, size), 0);
+                        frame.letterbox.set(letterbox);
                     }
-                });
-
+                    frame.convertNanos = System.nanoTime() - frame.startNanos;
+                }
                 image.close();
+
+                if (frame != null) {
+                    pipeline.submit(frame);
+                    if (TRACKING) {
+                        mTracker.submitted(frame.sequence);
+                    }
+                } else if (GATING && detect) {
+                    // compare the next frames with one that will be detected
+                    mGate.invalidate();
+                }
             }
         });
 
@@ -0,0 +1,114 @@
+package com.hisona.facedetection;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Copies a model out of the APK into a file PyTorch can load, skipping the copy when the file
+ * is already up to date.
+ *
+ * A copy is current when its length matches the asset and the stamp file next to it holds the
+ * stamp of the asset, for example its length and the APK update time. Hashing the asset would
+ * read it in full, which costs about as much as the copy it is meant to avoid.
+ *
+ * The copy goes to a temporary file renamed into place at the end, so an interrupted copy is
+ * never taken for a current one.
+ */
+public class ModelFile {
+
+    private static final String STAMP_SUFFIX = ".stamp";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private ModelFile() {
+    }
+
+    /** True if target holds length bytes written with the given stamp. */
+    public static boolean isCurrent(File target, long length, String stamp) {
+        if (!target.isFile() || target.length() != length) {
+            return false;
+        }
+        File stampFile = stampFile(target);
+        if (!stampFile.isFile() || stampFile.length() > 1024) {
+            return false;
+        }
+        try (InputStream is = new FileInputStream(stampFile)) {
+            byte[] bytes = new byte[(int) stampFile.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                int n = is.read(bytes, read, bytes.length - read);
+                if (n < 0) {
+                    return false;
+                }
+                read += n;
+            }
+            return stamp.equals(new String(bytes, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Copies length bytes of source starting at offset into target, in the kernel when the
+     * platform supports it, then records stamp.
+     */
+    public static void copy(FileChannel source, long offset, long length, File target, String stamp)
+            throws IOException {
+        File temp = new File(target.getPath() + TEMP_SUFFIX);
+        try (FileOutputStream os = new FileOutputStream(temp)) {
+            FileChannel out = os.getChannel();
+            long done = 0;
+            while (done < length) {
+                long n = source.transferTo(offset + done, length - done, out);
+                if (n <= 0) {
+                    throw new IOException("Unexpected end of " + target.getName());
+                }
+                done += n;
+            }
+            os.getFD().sync();
+        }
+        commit(temp, target, stamp);
+    }
+
+    /** Copies a stream, for assets the APK stores compressed. Returns the number of bytes copied. */
+    public static long copy(InputStream source, File target, String stamp) throws IOException {
+        File temp = new File(target.getPath() + TEMP_SUFFIX);
+        long done = 0;
+        try (ReadableByteChannel in = Channels.newChannel(source);
+             FileOutputStream os = new FileOutputStream(temp)) {
+            FileChannel out = os.getChannel();
+            long n;
+            while ((n = out.transferFrom(in, done, 1 << 20)) > 0) {
+                done += n;
+            }
+            os.getFD().sync();
+        }
+        commit(temp, target, stamp);
+        return done;
+    }
+
+    private static void commit(File temp, File target, String stamp) throws IOException {
+        File stampFile = stampFile(target);
+        // drop the old stamp first, a failure below leaves the copy stale rather than trusted
+        if (stampFile.exists() && !stampFile.delete()) {
+            throw new IOException("Cannot delete " + stampFile);
+        }
+        if (!temp.renameTo(target)) {
+            throw new IOException("Cannot rename " + temp + " to " + target);
+        }
+        try (OutputStream os = new FileOutputStream(stampFile)) {
+            os.write(stamp.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static File stampFile(File target) {
+        return new File(target.getPath() + STAMP_SUFFIX);
+    }
+}
@@ -0,0 +1,283 @@
+package com.hisona.facedetection;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.pytorch.IValue;
+import org.pytorch.Module;
+import org.pytorch.PyTorchAndroid;
+import org.pytorch.Tensor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Locale;
+
+/**
+ * Loads a TorchScript model from the assets on a background thread.
+ *
+ * The asset is copied to the files directory only when the copy there is missing or stale,
+ * see {@link ModelFile}. Once loaded, the module runs a few forward passes on a blank input so
+ * the allocators and kernels are warm before the first camera frame. The listener is called
+ * on the main thread, and only if the loader was not cancelled.
+ *
+ * The intra-op thread count of PyTorch is set explicitly. On the first launch of an install it
+ * is tuned with {@link ThreadTuner} on warm-up passes and saved per device model, later
+ * launches reuse the saved count.
+ */
+public class ModelLoader {
+    private static final String TAG = ModelLoader.class.getSimpleName();
+
+    public static final int DEFAULT_WARM_UP_RUNS = 3;
+    /** Largest intra-op thread count tried when tuning. */
+    public static final int MAX_TUNED_THREADS = 8;
+
+    private static final String PREFERENCES = "model_loader";
+
+    public interface Listener {
+        void onModelReady(Module module, Timings timings);
+
+        void onModelFailed(Throwable error);
+    }
+
+    /** Durations of the startup phases, in nanoseconds. */
+    public static class Timings {
+        public boolean copySkipped;
+        public long copyNanos;
+        public long loadNanos;
+        public long tuneNanos;
+        public long warmUpNanos;
+        public long totalNanos;
+        /** Intra-op thread count PyTorch runs with. */
+        public int threads;
+        /** The thread count was tuned on this launch rather than read from the preferences. */
+        public boolean threadsTuned;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "copy %d ms%s, load %d ms, %d threads%s, warm-up %d ms, total %d ms",
+                    copyNanos / 1000000, copySkipped ? " (skipped)" : "", loadNanos / 1000000,
+                    threads, threadsTuned ? String.format(Locale.US, " (tuned in %d ms)", tuneNanos / 1000000) : "",
+                    warmUpNanos / 1000000, totalNanos / 1000000);
+        }
+    }
+
+    private final Context context;
+    private final String assetName;
+    private final int warmUpRuns;
+    private final int warmUpWidth;
+    private final int warmUpHeight;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private volatile boolean cancelled;
+    private volatile Module module;
+
+    public ModelLoader(Context context, String assetName) {
+        this(context, assetName, DEFAULT_WARM_UP_RUNS, FaceUtils.IMAGE_WIDTH, FaceUtils.IMAGE_HEIGHT);
+    }
+
+    /**
+     * @param warmUpRuns forward passes to run before the model is reported ready, 0 for none
+     *                   besides those tuning the thread count
+     * @param warmUpWidth input width of the warm-up passes
+     * @param warmUpHeight input height of the warm-up passes
+     */
+    public ModelLoader(Context context, String assetName, int warmUpRuns, int warmUpWidth, int warmUpHeight) {
+        this.context = context.getApplicationContext();
+        this.assetName = assetName;
+        this.warmUpRuns = warmUpRuns;
+        this.warmUpWidth = warmUpWidth;
+        this.warmUpHeight = warmUpHeight;
+    }
+
+    /** Starts loading on a new thread. */
+    public void load(final Listener listener) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final Timings timings = new Timings();
+                try {
+                    final Module loaded = loadModule(timings);
+                    module = loaded;
+                    Log.i(TAG, assetName + ": " + timings);
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (cancelled) {
+                                loaded.destroy();
+                                module = null;
+                            } else {
+                                listener.onModelReady(loaded, timings);
+                            }
+                        }
+                    });
+                } catch (final Throwable e) {
+                    Log.e(TAG, "Failed to load " + assetName, e);
+                    post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onModelFailed(e);
+                        }
+                    });
+                }
+            }
+        }, "ModelLoader").start();
+    }
+
+    private void post(final Runnable callback) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!cancelled) {
+                    callback.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops the pending callback, call from the main thread. A model loaded but not delivered
+     * yet is destroyed.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /** The loaded module, null until the model is ready. */
+    public Module getModule() {
+        return module;
+    }
+
+    private Module loadModule(Timings timings) throws IOException {
+        final long start = System.nanoTime();
+
+        File file = new File(context.getFilesDir(), assetName);
+        timings.copySkipped = !copyAsset(context, assetName, file);
+        final long copied = System.nanoTime();
+        timings.copyNanos = copied - start;
+
+        Module module = Module.load(file.getAbsolutePath());
+        final long loaded = System.nanoTime();
+        timings.loadNanos = loaded - copied;
+
+        Tensor tensor = blankInput();
+        configureThreads(module, tensor, timings);
+        final long tuned = System.nanoTime();
+        timings.tuneNanos = tuned - loaded;
+
+        for (int i = 0; i < warmUpRuns; i++) {
+            module.forward(IValue.from(tensor));
+        }
+        final long end = System.nanoTime();
+        timings.warmUpNanos = end - tuned;
+        timings.totalNanos = end - start;
+        return module;
+    }
+
+    private Tensor blankInput() {
+        FloatBuffer input = ByteBuffer.allocateDirect(3 * warmUpWidth * warmUpHeight * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        return Tensor.fromBlob(input, new long[]{1, 3, warmUpHeight, warmUpWidth});
+    }
+
+    /** Sets the PyTorch thread count saved for this device, tuning it first if there is none. */
+    private void configureThreads(final Module module, final Tensor input, Timings timings) {
+        SharedPreferences preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        // a new install or another device, through a restored backup, tunes again
+        String key = "threads:" + assetName + ":" + warmUpWidth + "x" + warmUpHeight
+                + ":" + Build.MANUFACTURER + " " + Build.MODEL + ":" + stamp(context);
+        int threads = preferences.getInt(key, 0);
+        if (threads <= 0) {
+            int maxThreads = Math.min(MAX_TUNED_THREADS, Runtime.getRuntime().availableProcessors());
+            ThreadTuner.Result result = new ThreadTuner(maxThreads).tune(new ThreadTuner.Trial() {
+                @Override
+                public long run(int threads) {
+                    PyTorchAndroid.setNumThreads(threads);
+                    final long start = System.nanoTime();
+                    module.forward(IValue.from(input));
+                    return System.nanoTime() - start;
+                }
+            });
+            Log.i(TAG, assetName + ": " + result);
+            threads = result.threads;
+            // the settings of this model from older installs or other inputs are stale, those
+            // of other models are kept
+            String prefix = "threads:" + assetName + ":";
+            SharedPreferences.Editor editor = preferences.edit();
+            for (String stale : preferences.getAll().keySet()) {
+                if (stale.startsWith(prefix)) {
+                    editor.remove(stale);
+                }
+            }
+            editor.putInt(key, threads).apply();
+            timings.threadsTuned = true;
+        }
+        PyTorchAndroid.setNumThreads(threads);
+        timings.threads = threads;
+    }
+
+    /**
+     * Copies an asset to target unless the copy there is current.
+     *
+     * @return true if the asset was copied, false if target was up to date
+     */
+    public static boolean copyAsset(Context context, String assetName, File target) throws IOException {
+        String stamp = stamp(context);
+
+        AssetFileDescriptor descriptor;
+        try {
+            descriptor = context.getAssets().openFd(assetName);
+        } catch (FileNotFoundException e) {
+            // compressed in the APK, openFd() is not supported
+            descriptor = null;
+        }
+
+        if (descriptor != null) {
+            try (AssetFileDescriptor afd = descriptor) {
+                long length = afd.getLength();
+                String assetStamp = length + "@" + stamp;
+                if (ModelFile.isCurrent(target, length, assetStamp)) {
+                    return false;
+                }
+                // copy the asset's range of the APK directly
+                try (FileInputStream is = afd.createInputStream()) {
+                    ModelFile.copy(is.getChannel(), afd.getStartOffset(), length, target, assetStamp);
+                }
+                return true;
+            }
+        }
+
+        String assetStamp = "stream@" + stamp;
+        if (target.isFile() && ModelFile.isCurrent(target, target.length(), assetStamp)) {
+            return false;
+        }
+        try (InputStream is = context.getAssets().open(assetName)) {
+            ModelFile.copy(is, target, assetStamp);
+        }
+        return true;
+    }
+
+    private static String stamp(Context context) {
+        try {
+            PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            return Long.toString(info.lastUpdateTime);
+        } catch (PackageManager.NameNotFoundException e) {
+            // our own package, should never happen; never trust an old copy then
+            return Long.toString(System.nanoTime());
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.hisona.facedetection;
+
+import android.widget.TextView;
+
+/** Shows the metrics in a text view over the preview. */
+public class OverlayMetricsExporter implements MetricsExporter {
+
+    private final TextView view;
+    private final StringBuilder builder = new StringBuilder();
+
+    public OverlayMetricsExporter(TextView view) {
+        this.view = view;
+    }
+
+    @Override
+    public void export(PipelineMetrics metrics) {
+        builder.setLength(0);
+        final String text = metrics.format(builder).toString();
+        view.post(new Runnable() {
+            @Override
+            public void run() {
+                view.setText(text);
+            }
+        });
+    }
+}
@@ -0,0 +1,183 @@
+package com.hisona.facedetection;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+
+import org.pytorch.MemoryFormat;
+import org.pytorch.Tensor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Buffers reused by the preprocessing path from one frame to the next.
+ *
+ * Every buffer is allocated on first use and only replaced when the requested geometry changes,
+ * so a stream of same sized frames runs without allocating. The counters record each
+ * allocation so tests can check the steady state.
+ *
+ * Not thread safe, use one context per analyzer thread.
+ */
+public class PreprocessContext {
+
+    private final YuvConverter converter = new YuvConverter();
+    private final PixelNormalizer normalizer = new PixelNormalizer();
+    private PixelNormalizer.Layout layout = PixelNormalizer.Layout.NCHW;
+    private final Letterbox letterbox = new Letterbox();
+
+    private Bitmap letterboxBitmap;
+    private Canvas letterboxCanvas;
+    private final Matrix matrix = new Matrix();
+    private final RectF bounds = new RectF();
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private int[] pixels;
+
+    private FloatBuffer inputBuffer;
+    private Tensor inputTensor;
+    private int inputWidth;
+    private int inputHeight;
+
+    private int bitmapAllocations;
+    private int pixelAllocations;
+    private int bufferAllocations;
+    private int tensorAllocations;
+
+    public YuvConverter getConverter() {
+        return converter;
+    }
+
+    /** Normalizer of Bitmap pixels, FACE_MEAN and FACE_STD unless changed. */
+    public PixelNormalizer getNormalizer() {
+        return normalizer;
+    }
+
+    public void setNormalization(float[] normMeanRGB, float[] normStdRGB) {
+        normalizer.setNormalization(normMeanRGB, normStdRGB);
+    }
+
+    public PixelNormalizer.Layout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Sets the memory layout of the Bitmap input tensor. NHWC lets the interleaved pixels be
+     * written in order; the tensor keeps its [1, 3, height, width] shape in channels last
+     * memory format.
+     */
+    public void setLayout(PixelNormalizer.Layout layout) {
+        if (this.layout != layout) {
+            this.layout = layout;
+            inputTensor = null;
+        }
+    }
+
+    /** Mapping of the last preprocessed frame into the model input. */
+    public Letterbox getLetterbox() {
+        return letterbox;
+    }
+
+    /** Returns a cleared ARGB_8888 bitmap of the given size with a canvas drawing into it. */
+    Canvas getLetterboxCanvas(int width, int height) {
+        if (letterboxBitmap == null
+                || letterboxBitmap.getWidth() != width || letterboxBitmap.getHeight() != height) {
+            if (letterboxBitmap != null) {
+                letterboxBitmap.recycle();
+            }
+            letterboxBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            letterboxCanvas = new Canvas(letterboxBitmap);
+            bitmapAllocations++;
+        }
+        letterboxBitmap.eraseColor(0);
+        return letterboxCanvas;
+    }
+
+    Bitmap getLetterboxBitmap() {
+        return letterboxBitmap;
+    }
+
+    Matrix getMatrix() {
+        return matrix;
+    }
+
+    RectF getBounds() {
+        return bounds;
+    }
+
+    Paint getPaint() {
+        return paint;
+    }
+
+    /** Returns a pixel array holding at least count entries. */
+    public int[] getPixels(int count) {
+        if (pixels == null || pixels.length < count) {
+            pixels = new int[count];
+            pixelAllocations++;
+        }
+        return pixels;
+    }
+
+    /** Returns the direct input buffer for a width x height model input. */
+    public FloatBuffer getInputBuffer(int width, int height) {
+        if (inputBuffer == null || inputWidth != width || inputHeight != height) {
+            inputBuffer = ByteBuffer.allocateDirect(3 * width * height * 4)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+            inputTensor = null;
+            inputWidth = width;
+            inputHeight = height;
+            bufferAllocations++;
+        }
+        return inputBuffer;
+    }
+
+    /**
+     * Returns a [1, 3, height, width] tensor backed by {@link #getInputBuffer(int, int)}, in the
+     * memory format of the layout.
+     */
+    public Tensor getInputTensor(int width, int height) {
+        FloatBuffer buffer = getInputBuffer(width, height);
+        if (inputTensor == null) {
+            inputTensor = Tensor.fromBlob(buffer, new long[]{1, 3, height, width},
+                    layout == PixelNormalizer.Layout.NHWC ? MemoryFormat.CHANNELS_LAST : MemoryFormat.CONTIGUOUS);
+            tensorAllocations++;
+        }
+        return inputTensor;
+    }
+
+    public int getBitmapAllocations() {
+        return bitmapAllocations;
+    }
+
+    public int getPixelAllocations() {
+        return pixelAllocations;
+    }
+
+    public int getBufferAllocations() {
+        return bufferAllocations;
+    }
+
+    public int getTensorAllocations() {
+        return tensorAllocations;
+    }
+
+    public int getAllocationCount() {
+        return bitmapAllocations + pixelAllocations + bufferAllocations + tensorAllocations;
+    }
+
+    /** Drops every pooled buffer, the next frame allocates again. */
+    public void release() {
+        if (letterboxBitmap != null) {
+            letterboxBitmap.recycle();
+            letterboxBitmap = null;
+            letterboxCanvas = null;
+        }
+        pixels = null;
+        inputBuffer = null;
+        inputTensor = null;
+    }
+}
@@ -0,0 +1,82 @@
+package com.hisona.facedetection;
+
+import org.pytorch.IValue;
+import org.pytorch.Module;
+import org.pytorch.Tensor;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * {@link InferenceBackend} running a TorchScript module with PyTorch Mobile. Batches run as a
+ * single forward pass over a [batchSize, 3, height, width] tensor.
+ *
+ * Input tensors wrap the caller's direct buffers and are cached per buffer, so a fixed set of
+ * frame buffers does not create new tensors, including one buffer per input size for each frame.
+ * A buffer must keep its size once used; use another buffer to change the input size.
+ * Not thread safe.
+ */
+public class PyTorchBackend implements BatchInferenceBackend {
+
+    private static final int MAX_CACHED_TENSORS = 32;
+
+    private final Module module;
+    private final Map<FloatBuffer, Tensor> tensors = new IdentityHashMap<>();
+
+    public PyTorchBackend(Module module) {
+        this.module = module;
+    }
+
+    public Module getModule() {
+        return module;
+    }
+
+    @Override
+    public void forward(FloatBuffer input, int width, int height, ModelOutputs outputs) {
+        Tensor tensor = tensors.get(input);
+        if (tensor == null) {
+            if (tensors.size() >= MAX_CACHED_TENSORS) {
+                tensors.clear();
+            }
+            tensor = Tensor.fromBlob(input, new long[]{1, 3, height, width});
+            tensors.put(input, tensor);
+        }
+
+        final IValue[] outputTensor = module.forward(IValue.from(tensor)).toTuple();
+        outputs.loc = outputTensor[0].toTensor().getDataAsFloatArray();
+        outputs.cls = outputTensor[1].toTensor().getDataAsFloatArray();
+        outputs.ldm = outputTensor[2].toTensor().getDataAsFloatArray();
+    }
+
+    @Override
+    public void forwardBatch(FloatBuffer input, int batchSize, int width, int height, ModelOutputs[] outputs) {
+        // the tensor has to cover the buffer exactly
+        final int length = batchSize * 3 * width * height;
+        FloatBuffer data = input;
+        if (input.capacity() != length) {
+            data = input.duplicate();
+            data.limit(length);
+            data.position(0);
+            data = data.slice();
+        }
+        Tensor tensor = Tensor.fromBlob(data, new long[]{batchSize, 3, height, width});
+
+        final IValue[] outputTensor = module.forward(IValue.from(tensor)).toTuple();
+        final float[] loc = outputTensor[0].toTensor().getDataAsFloatArray();
+        final float[] cls = outputTensor[1].toTensor().getDataAsFloatArray();
+        final float[] ldm = outputTensor[2].toTensor().getDataAsFloatArray();
+        for (int i = 0; i < batchSize; i++) {
+            outputs[i].loc = split(loc, batchSize, i);
+            outputs[i].cls = split(cls, batchSize, i);
+            outputs[i].ldm = split(ldm, batchSize, i);
+        }
+    }
+
+    /** Part of a batched output belonging to image index. */
+    private static float[] split(float[] batch, int batchSize, int index) {
+        final int length = batch.length / batchSize;
+        return Arrays.copyOfRange(batch, index * length, (index + 1) * length);
+    }
+}
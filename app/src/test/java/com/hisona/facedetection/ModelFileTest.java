@@ -0,0 +1,86 @@
+package com.hisona.facedetection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ModelFileTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("model", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    @Test
+    public void copy_copiesTheRangeAndRecordsTheStamp() throws IOException {
+        // an "APK" with the asset stored at offset 100
+        File apk = new File(dir, "apk");
+        try (FileOutputStream os = new FileOutputStream(apk)) {
+            os.write(bytes(1000));
+        }
+        File target = new File(dir, "model.pt");
+        assertFalse(ModelFile.isCurrent(target, 500, "500@1"));
+
+        try (FileInputStream is = new FileInputStream(apk)) {
+            ModelFile.copy(is.getChannel(), 100, 500, target, "500@1");
+        }
+
+        assertEquals(500, target.length());
+        try (FileInputStream is = new FileInputStream(target)) {
+            assertEquals(100, is.read());
+        }
+        assertTrue(ModelFile.isCurrent(target, 500, "500@1"));
+        assertFalse(new File(dir, "model.pt.tmp").exists());
+    }
+
+    @Test
+    public void isCurrent_rejectsAnotherStampOrLength() throws IOException {
+        File target = new File(dir, "model.pt");
+        ModelFile.copy(new ByteArrayInputStream(bytes(300)), target, "stream@1");
+
+        assertTrue(ModelFile.isCurrent(target, 300, "stream@1"));
+        assertFalse(ModelFile.isCurrent(target, 300, "stream@2"));
+        assertFalse(ModelFile.isCurrent(target, 301, "stream@1"));
+    }
+
+    @Test
+    public void copy_replacesAStaleCopy() throws IOException {
+        File target = new File(dir, "model.pt");
+        ModelFile.copy(new ByteArrayInputStream(bytes(3000000)), target, "stream@1");
+        ModelFile.copy(new ByteArrayInputStream(bytes(10)), target, "stream@2");
+
+        assertEquals(10, target.length());
+        assertTrue(ModelFile.isCurrent(target, 10, "stream@2"));
+    }
+}
@@ -0,0 +1,61 @@
+package com.hisona.facedetection;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+public class PreprocessContextTest {
+
+    @Test
+    public void inputBuffer_isReusedWhileGeometryIsUnchanged() {
+        PreprocessContext context = new PreprocessContext();
+
+        FloatBuffer first = context.getInputBuffer(640, 640);
+        int[] pixels = context.getPixels(640 * 640);
+        int allocations = context.getAllocationCount();
+
+        for (int i = 0; i < 100; i++) {
+            assertSame(first, context.getInputBuffer(640, 640));
+            assertSame(pixels, context.getPixels(640 * 640));
+        }
+        assertEquals(allocations, context.getAllocationCount());
+        assertEquals(3 * 640 * 640, first.capacity());
+    }
+
+    @Test
+    public void inputBuffer_isReplacedWhenGeometryChanges() {
+        PreprocessContext context = new PreprocessContext();
+
+        FloatBuffer large = context.getInputBuffer(640, 640);
+        FloatBuffer small = context.getInputBuffer(320, 320);
+
+        assertNotSame(large, small);
+        assertEquals(2, context.getBufferAllocations());
+        assertEquals(3 * 320 * 320, small.capacity());
+    }
+
+    @Test
+    public void pixels_onlyGrow() {
+        PreprocessContext context = new PreprocessContext();
+
+        int[] large = context.getPixels(640 * 640);
+        assertSame(large, context.getPixels(320 * 320));
+        assertEquals(1, context.getPixelAllocations());
+    }
+
+    @Test
+    public void normalization_defaultsToFaceMean() {
+        PreprocessContext context = new PreprocessContext();
+
+        assertEquals(PixelNormalizer.Layout.NCHW, context.getLayout());
+        assertArrayEquals(FaceUtils.FACE_MEAN, context.getNormalizer().getMean(), 0.0f);
+
+        float[] mean = new float[]{104.0f, 117.0f, 123.0f};
+        context.setNormalization(mean, FaceUtils.FACE_STD);
+        context.setLayout(PixelNormalizer.Layout.NHWC);
+        assertArrayEquals(mean, context.getNormalizer().getMean(), 0.0f);
+        assertEquals(PixelNormalizer.Layout.NHWC, context.getLayout());
+    }
+}
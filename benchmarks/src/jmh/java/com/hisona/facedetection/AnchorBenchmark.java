@@ -0,0 +1,27 @@
+package com.hisona.facedetection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Prior box generation, paid on every input size change, and the cached lookup paid on every
+ * frame.
+ */
+@State(Scope.Thread)
+public class AnchorBenchmark {
+
+    @Param({"320", "640"})
+    public int size;
+
+    @Benchmark
+    public AnchorTable build() {
+        return AnchorTable.build(size, size, AnchorConfig.DEFAULT);
+    }
+
+    @Benchmark
+    public AnchorTable cached() {
+        return AnchorTable.get(size, size, AnchorConfig.DEFAULT);
+    }
+}
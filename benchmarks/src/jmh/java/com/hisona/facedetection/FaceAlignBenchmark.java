@@ -0,0 +1,65 @@
+package com.hisona.facedetection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Alignment of 8 faces of a rotated 640x480 camera frame into 112x112 float chips, on the
+ * calling thread alone and split across threads.
+ */
+@State(Scope.Thread)
+public class FaceAlignBenchmark {
+
+    private static final int FACES = 8;
+
+    @Param({"1", "2", "4"})
+    public int parallelism;
+
+    private ExecutorService executor;
+    private FaceAligner aligner;
+    private final FaceAligner.YuvSource source = new FaceAligner.YuvSource();
+    private final DetectionResult result = new DetectionResult(FACES);
+    private final FaceChips chips = new FaceChips(FaceAligner.DEFAULT_SIZE, FaceChips.Format.FLOAT, FACES);
+
+    @Setup
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(Math.max(1, parallelism - 1));
+        aligner = new FaceAligner(executor, parallelism);
+        ByteBuffer[] planes = SyntheticFrame.yuv(640, 480);
+        source.set(planes[0], planes[1], planes[2], 640, 480, 640, 640, 2, 90, false);
+
+        // faces of about 100 pixels on a grid of the upright 480x640 frame, slightly rotated
+        result.count = FACES;
+        result.hasLandmarks = true;
+        for (int f = 0; f < FACES; f++) {
+            final float a = 0.9f;
+            final float b = 0.1f * (f % 3 - 1);
+            final float tx = 40 + (f % 4) * 100;
+            final float ty = 60 + (f / 4) * 250;
+            for (int i = 0; i < LandMark.COUNT; i++) {
+                final float x = FaceAligner.REFERENCE_112[2 * i];
+                final float y = FaceAligner.REFERENCE_112[2 * i + 1];
+                result.sourceLandmarks[2 * LandMark.COUNT * f + 2 * i] = a * x - b * y + tx;
+                result.sourceLandmarks[2 * LandMark.COUNT * f + 2 * i + 1] = b * x + a * y + ty;
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public FaceChips align() {
+        return aligner.align(result, source, chips);
+    }
+}
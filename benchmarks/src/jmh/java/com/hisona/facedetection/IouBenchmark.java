@@ -0,0 +1,41 @@
+package com.hisona.facedetection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/** The pairwise overlap test at the heart of NMS and tracking, on overlapping and disjoint boxes. */
+@State(Scope.Thread)
+public class IouBenchmark {
+
+    private static final int COUNT = 1024;
+
+    private final float[] boxes = new float[4 * COUNT];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < COUNT; i++) {
+            float size = 16 + random.nextFloat() * 200;
+            float x = random.nextFloat() * (SyntheticFrame.SIZE - size);
+            float y = random.nextFloat() * (SyntheticFrame.SIZE - size);
+            boxes[4 * i] = x;
+            boxes[4 * i + 1] = y;
+            boxes[4 * i + 2] = x + size;
+            boxes[4 * i + 3] = y + size;
+        }
+    }
+
+    @Benchmark
+    public float iou() {
+        final int a = 4 * (next & (COUNT - 1));
+        final int b = 4 * ((next + 1) & (COUNT - 1));
+        next++;
+        return NonMaxSuppression.iou(boxes[a], boxes[a + 1], boxes[a + 2], boxes[a + 3],
+                boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3]);
+    }
+}
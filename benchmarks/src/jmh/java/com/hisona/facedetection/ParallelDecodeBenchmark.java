@@ -0,0 +1,47 @@
+package com.hisona.facedetection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Candidate selection and box decoding of a 1280x1280 input, 16,800 anchors, on the calling
+ * thread alone and split across threads.
+ */
+@State(Scope.Thread)
+public class ParallelDecodeBenchmark {
+
+    @Param({"1", "2", "4"})
+    public int parallelism;
+
+    private ExecutorService executor;
+    private ParallelDecoder decoder;
+    private AnchorTable anchors;
+    private ModelOutputs outputs;
+    private final FaceBoxes candidates = new FaceBoxes();
+
+    @Setup
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(Math.max(1, parallelism - 1));
+        decoder = new ParallelDecoder(executor, parallelism, 0);
+        anchors = AnchorTable.build(1280, 1280, AnchorConfig.DEFAULT);
+        outputs = SyntheticFrame.outputs(anchors, 20);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public int decode() {
+        return decoder.decode(outputs.loc, outputs.cls, anchors, PostProcessor.DEFAULT_SCORE_THRESHOLD,
+                PostProcessor.DEFAULT_TOP_K, candidates);
+    }
+}
@@ -0,0 +1,73 @@
+package com.hisona.facedetection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The stages between the forward pass and the final boxes, on the 4,200 anchor outputs of a
+ * 640x640 input with faces faces in view.
+ */
+@State(Scope.Thread)
+public class PostProcessBenchmark {
+
+    @Param({"1", "20"})
+    public int faces;
+
+    @Param({"GREEDY", "GRID"})
+    public NonMaxSuppression.Method method;
+
+    private AnchorTable anchors;
+    private ModelOutputs outputs;
+    private TopKSelector selector;
+    private NonMaxSuppression nms;
+    private PostProcessor postProcessor;
+    private final FaceBoxes filtered = new FaceBoxes();
+    private final FaceBoxes candidates = new FaceBoxes();
+    private final FaceBoxes decoded = new FaceBoxes();
+    private final FaceBoxes detections = new FaceBoxes();
+
+    @Setup
+    public void setUp() {
+        anchors = AnchorTable.build(SyntheticFrame.SIZE, SyntheticFrame.SIZE, AnchorConfig.DEFAULT);
+        outputs = SyntheticFrame.outputs(anchors, faces);
+        selector = new TopKSelector(PostProcessor.DEFAULT_TOP_K);
+        nms = new NonMaxSuppression(method, NonMaxSuppression.DEFAULT_IOU_THRESHOLD,
+                NonMaxSuppression.DEFAULT_MAX_DETECTIONS);
+        postProcessor = new PostProcessor(PostProcessor.DEFAULT_SCORE_THRESHOLD, PostProcessor.DEFAULT_TOP_K,
+                new NonMaxSuppression(method, NonMaxSuppression.DEFAULT_IOU_THRESHOLD,
+                        NonMaxSuppression.DEFAULT_MAX_DETECTIONS));
+
+        // decoded candidates for the NMS only benchmark
+        selector.select(outputs.cls, anchors.size, PostProcessor.DEFAULT_SCORE_THRESHOLD, decoded);
+        BoxDecoder.decode(outputs.loc, anchors, decoded);
+    }
+
+    @Benchmark
+    public int filterScores() {
+        return BoxDecoder.filter(outputs.cls, anchors.size, PostProcessor.DEFAULT_SCORE_THRESHOLD, filtered);
+    }
+
+    @Benchmark
+    public int selectTopK() {
+        return selector.select(outputs.cls, anchors.size, PostProcessor.DEFAULT_SCORE_THRESHOLD, candidates);
+    }
+
+    @Benchmark
+    public FaceBoxes decodeBoxes() {
+        BoxDecoder.decode(outputs.loc, anchors, decoded);
+        return decoded;
+    }
+
+    @Benchmark
+    public int suppress() {
+        return nms.apply(decoded, detections);
+    }
+
+    @Benchmark
+    public FaceBoxes process() {
+        return postProcessor.process(outputs.loc, outputs.cls, outputs.ldm, anchors);
+    }
+}
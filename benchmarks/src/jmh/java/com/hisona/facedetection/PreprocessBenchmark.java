@@ -0,0 +1,67 @@
+package com.hisona.facedetection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Turning a frame into the model input: the normalization of Bitmap pixels, planar, channels
+ * last and as bytes, and the direct YUV_420_888 conversion.
+ */
+@State(Scope.Thread)
+public class PreprocessBenchmark {
+
+    /** Clockwise rotation of the 640x480 camera frame. */
+    @Param({"0", "90"})
+    public int rotation;
+
+    private int[] pixels;
+    private ByteBuffer[] planes;
+    private YuvConverter converter;
+    private final PixelNormalizer normalizer = new PixelNormalizer(SyntheticFrame.MEAN, SyntheticFrame.STD);
+    private FloatBuffer input;
+    private ByteBuffer byteInput;
+
+    @Setup
+    public void setUp() {
+        final int size = SyntheticFrame.SIZE;
+        pixels = SyntheticFrame.pixels(size, size);
+        planes = SyntheticFrame.yuv(640, 480);
+        converter = new YuvConverter();
+        converter.configure(640, 480, 640, 640, 2, rotation, false, size, size);
+        input = ByteBuffer.allocateDirect(4 * 3 * size * size)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        byteInput = ByteBuffer.allocateDirect(3 * size * size);
+    }
+
+    @Benchmark
+    public FloatBuffer normalizePixels() {
+        normalizer.normalize(pixels, pixels.length, PixelNormalizer.Layout.NCHW, input, 0);
+        return input;
+    }
+
+    @Benchmark
+    public FloatBuffer normalizePixelsChannelsLast() {
+        normalizer.normalize(pixels, pixels.length, PixelNormalizer.Layout.NHWC, input, 0);
+        return input;
+    }
+
+    @Benchmark
+    public ByteBuffer pixelsToBytes() {
+        normalizer.toBytes(pixels, pixels.length, PixelNormalizer.Layout.NHWC, byteInput, 0);
+        return byteInput;
+    }
+
+    @Benchmark
+    public FloatBuffer convertYuv() {
+        converter.convert(planes[0], planes[1], planes[2], SyntheticFrame.MEAN, SyntheticFrame.STD, input, 0);
+        return input;
+    }
+}
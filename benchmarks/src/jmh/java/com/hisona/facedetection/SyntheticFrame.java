@@ -0,0 +1,118 @@
+package com.hisona.facedetection;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Seeded stand-ins for the camera frames and model outputs the benchmarks run on, sized like
+ * the real 640x640 input and its 4,200 anchors.
+ */
+final class SyntheticFrame {
+
+    static final int SIZE = 640;
+
+    static final float[] MEAN = PixelNormalizer.FACE_MEAN;
+    static final float[] STD = PixelNormalizer.FACE_STD;
+
+    private static final long SEED = 42;
+
+    private SyntheticFrame() {
+    }
+
+    /** Packed ARGB pixels of a noisy width x height frame. */
+    static int[] pixels(int width, int height) {
+        Random random = new Random(SEED);
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xff000000 | random.nextInt(0x1000000);
+        }
+        return pixels;
+    }
+
+    /**
+     * Y, U and V planes of a width x height YUV_420_888 frame with interleaved chroma, the
+     * layout most devices deliver. U and V share one buffer like NV21.
+     */
+    static ByteBuffer[] yuv(int width, int height) {
+        Random random = new Random(SEED);
+        byte[] bytes = new byte[width * height];
+        random.nextBytes(bytes);
+        ByteBuffer y = ByteBuffer.allocateDirect(bytes.length);
+        y.put(bytes).rewind();
+
+        bytes = new byte[width * height / 2];
+        random.nextBytes(bytes);
+        ByteBuffer uv = ByteBuffer.allocateDirect(bytes.length);
+        uv.put(bytes).rewind();
+        return new ByteBuffer[]{y, uv.duplicate(), uv.duplicate()};
+    }
+
+    /**
+     * Class output of n anchors where percent of them, spread at random, score above
+     * threshold and the others below it.
+     */
+    static float[] scores(int n, int percent, float threshold) {
+        Random random = new Random(SEED);
+        float[] cls = new float[2 * n];
+        for (int i = 0; i < n; i++) {
+            float score = random.nextInt(100) < percent
+                    ? threshold + 0.001f + random.nextFloat() * (0.999f - threshold)
+                    : random.nextFloat() * threshold * 0.99f;
+            cls[2 * i] = 1.0f - score;
+            cls[2 * i + 1] = score;
+        }
+        return cls;
+    }
+
+    /**
+     * Box, class and landmark outputs of the model for the given anchors with faces faces in the
+     * frame. Every anchor whose centre falls inside a face and whose size is within a factor two
+     * of it scores above the default threshold and regresses to a jittered copy of the face, so
+     * NMS sees the clusters of overlapping boxes the real model produces. The other anchors get
+     * background scores.
+     */
+    static ModelOutputs outputs(AnchorTable anchors, int faces) {
+        Random random = new Random(SEED);
+        int n = anchors.size;
+        float[] loc = new float[4 * n];
+        float[] cls = new float[2 * n];
+        float[] ldm = new float[2 * LandMark.COUNT * n];
+
+        float[][] boxes = new float[faces][];
+        for (int f = 0; f < faces; f++) {
+            float size = 24 + random.nextFloat() * 200;
+            float cx = size / 2 + random.nextFloat() * (anchors.width - size);
+            float cy = size / 2 + random.nextFloat() * (anchors.height - size);
+            boxes[f] = new float[]{cx / anchors.width, cy / anchors.height,
+                    size / anchors.width, size / anchors.height};
+        }
+
+        for (int i = 0; i < n; i++) {
+            float score = random.nextFloat() * 0.1f;
+            for (float[] face : boxes) {
+                float ratio = face[2] / anchors.w[i];
+                if (Math.abs(anchors.cx[i] - face[0]) < face[2] / 2
+                        && Math.abs(anchors.cy[i] - face[1]) < face[3] / 2
+                        && ratio > 0.5f && ratio < 2.0f) {
+                    score = 0.5f + random.nextFloat() * 0.49f;
+                    float jitter = 1.0f + (random.nextFloat() - 0.5f) * 0.1f;
+                    loc[4 * i] = (face[0] - anchors.cx[i]) / (BoxDecoder.CENTER_VARIANCE * anchors.w[i]);
+                    loc[4 * i + 1] = (face[1] - anchors.cy[i]) / (BoxDecoder.CENTER_VARIANCE * anchors.h[i]);
+                    loc[4 * i + 2] = (float) Math.log(jitter * face[2] / anchors.w[i]) / BoxDecoder.SIZE_VARIANCE;
+                    loc[4 * i + 3] = (float) Math.log(jitter * face[3] / anchors.h[i]) / BoxDecoder.SIZE_VARIANCE;
+                    break;
+                }
+            }
+            cls[2 * i] = 1.0f - score;
+            cls[2 * i + 1] = score;
+        }
+        for (int i = 0; i < ldm.length; i++) {
+            ldm[i] = (random.nextFloat() - 0.5f) * 4.0f;
+        }
+        ModelOutputs outputs = new ModelOutputs();
+        outputs.loc = loc;
+        outputs.cls = cls;
+        outputs.ldm = ldm;
+        return outputs;
+    }
+}
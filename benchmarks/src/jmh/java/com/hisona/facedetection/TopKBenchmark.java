@@ -0,0 +1,59 @@
+package com.hisona.facedetection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Candidate selection over the 4,200 anchor scores of a 640x640 input with aboveThreshold
+ * percent of them above the score threshold: the bounded top-K heap against the bubble sort
+ * of every candidate it replaced.
+ */
+@State(Scope.Thread)
+public class TopKBenchmark {
+
+    @Param({"5", "50", "100"})
+    public int aboveThreshold;
+
+    private int anchors;
+    private float[] cls;
+    private TopKSelector selector;
+    private final FaceBoxes candidates = new FaceBoxes();
+
+    @Setup
+    public void setUp() {
+        anchors = AnchorTable.build(SyntheticFrame.SIZE, SyntheticFrame.SIZE, AnchorConfig.DEFAULT).size;
+        cls = SyntheticFrame.scores(anchors, aboveThreshold, PostProcessor.DEFAULT_SCORE_THRESHOLD);
+        selector = new TopKSelector(PostProcessor.DEFAULT_TOP_K);
+    }
+
+    @Benchmark
+    public int selectTopK() {
+        return selector.select(cls, anchors, PostProcessor.DEFAULT_SCORE_THRESHOLD, candidates);
+    }
+
+    /** The filter and bubble sort the post processing ran before TopKSelector. */
+    @Benchmark
+    public int bubbleSort() {
+        int clsnum = BoxDecoder.filter(cls, anchors, PostProcessor.DEFAULT_SCORE_THRESHOLD, candidates);
+
+        float[] faceconf = candidates.score;
+        int[] faceidx = candidates.anchor;
+
+        for (int k = 0; k < clsnum; k++) {
+            for (int j = 0; j < clsnum - k - 1; j++) {
+                if (faceconf[j] < faceconf[j + 1]) {
+                    float tmp = faceconf[j];
+                    faceconf[j] = faceconf[j + 1];
+                    faceconf[j + 1] = tmp;
+                    int idxtmp = faceidx[j];
+                    faceidx[j] = faceidx[j + 1];
+                    faceidx[j + 1] = idxtmp;
+                }
+            }
+        }
+        return clsnum;
+    }
+}
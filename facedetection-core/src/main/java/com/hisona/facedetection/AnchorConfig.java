@@ -0,0 +1,72 @@
+package com.hisona.facedetection;
+
+import java.util.Arrays;
+
+/**
+ * Prior box layout of the detector: one feature map level per stride, with a set of square
+ * anchor sizes in input pixels for every cell of that level.
+ */
+public final class AnchorConfig {
+
+    /** Layout mbv2.pt was trained with. */
+    public static final AnchorConfig DEFAULT = new AnchorConfig(
+            new int[]{16, 32, 64},
+            new int[][]{{16, 32}, {64, 128}, {256, 512}});
+
+    private final int[] strides;
+    private final int[][] minSizes;
+
+    public AnchorConfig(int[] strides, int[][] minSizes) {
+        if (strides.length != minSizes.length) {
+            throw new IllegalArgumentException("Expected one min size list per stride");
+        }
+        this.strides = strides.clone();
+        this.minSizes = new int[minSizes.length][];
+        for (int i = 0; i < minSizes.length; i++) {
+            this.minSizes[i] = minSizes[i].clone();
+        }
+    }
+
+    public int getLevelCount() {
+        return strides.length;
+    }
+
+    public int getStride(int level) {
+        return strides[level];
+    }
+
+    public int getAnchorsPerCell(int level) {
+        return minSizes[level].length;
+    }
+
+    public int getMinSize(int level, int index) {
+        return minSizes[level][index];
+    }
+
+    /** Number of anchors for a width x height input. */
+    public int getAnchorCount(int width, int height) {
+        int count = 0;
+        for (int level = 0; level < strides.length; level++) {
+            count += featureMapSize(width, strides[level]) * featureMapSize(height, strides[level])
+                    * minSizes[level].length;
+        }
+        return count;
+    }
+
+    static int featureMapSize(int size, int stride) {
+        return (size + stride - 1) / stride;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof AnchorConfig)) return false;
+        AnchorConfig other = (AnchorConfig) o;
+        return Arrays.equals(strides, other.strides) && Arrays.deepEquals(minSizes, other.minSizes);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(strides) + Arrays.deepHashCode(minSizes);
+    }
+}
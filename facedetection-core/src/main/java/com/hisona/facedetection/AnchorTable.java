@@ -0,0 +1,142 @@
+package com.hisona.facedetection;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable prior boxes for one input size, stored as parallel arrays of normalized centre and
+ * size. Anchor i matches row i of the model's box, score and landmark outputs.
+ *
+ * Tables are cached and shared by every detector of the same input size, so the arrays stay
+ * package-private and are only read, by the decoders of this package; other code reads single
+ * anchors through the getters.
+ */
+public final class AnchorTable {
+
+    private static final int CACHE_SIZE = 8;
+
+    private static final Map<Key, AnchorTable> CACHE =
+            new LinkedHashMap<Key, AnchorTable>(CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, AnchorTable> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
+    public final int width;
+    public final int height;
+    public final int size;
+
+    final float[] cx;
+    final float[] cy;
+    final float[] w;
+    final float[] h;
+
+    /** First anchor of each feature map level, levelStart[levelCount] == size. */
+    final int[] levelStart;
+
+    private AnchorTable(int width, int height, AnchorConfig config) {
+        this.width = width;
+        this.height = height;
+        this.size = config.getAnchorCount(width, height);
+        this.cx = new float[size];
+        this.cy = new float[size];
+        this.w = new float[size];
+        this.h = new float[size];
+        this.levelStart = new int[config.getLevelCount() + 1];
+
+        int num = 0;
+        for (int level = 0; level < config.getLevelCount(); level++) {
+            levelStart[level] = num;
+
+            int stride = config.getStride(level);
+            int fmw = AnchorConfig.featureMapSize(width, stride);
+            int fmh = AnchorConfig.featureMapSize(height, stride);
+            int perCell = config.getAnchorsPerCell(level);
+
+            for (int k = 0; k < fmh; k++) {
+                for (int j = 0; j < fmw; j++) {
+                    for (int a = 0; a < perCell; a++) {
+                        double minSize = config.getMinSize(level, a);
+                        cx[num] = (float) ((j + 0.5) * stride / (double) width);
+                        cy[num] = (float) ((k + 0.5) * stride / (double) height);
+                        w[num] = (float) (minSize / (double) width);
+                        h[num] = (float) (minSize / (double) height);
+                        num += 1;
+                    }
+                }
+            }
+        }
+        levelStart[config.getLevelCount()] = num;
+    }
+
+    /** Normalized centre x of anchor i. */
+    public float getCx(int i) {
+        return cx[i];
+    }
+
+    /** Normalized centre y of anchor i. */
+    public float getCy(int i) {
+        return cy[i];
+    }
+
+    /** Normalized width of anchor i. */
+    public float getW(int i) {
+        return w[i];
+    }
+
+    /** Normalized height of anchor i. */
+    public float getH(int i) {
+        return h[i];
+    }
+
+    public int getLevelCount() {
+        return levelStart.length - 1;
+    }
+
+    public int getLevelStart(int level) {
+        return levelStart[level];
+    }
+
+    /** Builds a new table without going through the cache. */
+    public static AnchorTable build(int width, int height, AnchorConfig config) {
+        return new AnchorTable(width, height, config);
+    }
+
+    /** Returns the table for the given input size, building it on first use. */
+    public static AnchorTable get(int width, int height, AnchorConfig config) {
+        Key key = new Key(width, height, config);
+        synchronized (CACHE) {
+            AnchorTable table = CACHE.get(key);
+            if (table == null) {
+                table = new AnchorTable(width, height, config);
+                CACHE.put(key, table);
+            }
+            return table;
+        }
+    }
+
+    private static final class Key {
+        final int width;
+        final int height;
+        final AnchorConfig config;
+
+        Key(int width, int height, AnchorConfig config) {
+            this.width = width;
+            this.height = height;
+            this.config = config;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return width == other.width && height == other.height && config.equals(other.config);
+        }
+
+        @Override
+        public int hashCode() {
+            return (width * 31 + height) * 31 + config.hashCode();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.hisona.facedetection;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Detects faces in a set of images, for offline processing of photo archives.
+ *
+ * Images are letterboxed into one contiguous [batchSize, 3, height, width] direct buffer by a
+ * bounded pool of loader threads, the whole batch goes through a single forward pass and the
+ * outputs are post-processed back into one result per image. Two batches are kept, so the
+ * loaders fill the next batch while the current one is in inference.
+ *
+ * <pre>
+ *   loaders:  load(N+1)  load(N+2)  ...
+ *   caller:   forward(N) -> decode(N) -> Listener
+ * </pre>
+ *
+ * Not thread safe, run() must not be called concurrently.
+ */
+public class BatchDetector<T> {
+
+    /** Decodes an image and letterboxes it into the model input. Called on the loader threads. */
+    public interface Loader<T> {
+        /**
+         * Writes item as planar R, G, B into the 3 x width x height floats of out, starting at
+         * index 0, and describes the mapping to the image pixels in letterbox.
+         */
+        void load(T item, int width, int height, FloatBuffer out, Letterbox letterbox) throws Exception;
+    }
+
+    /**
+     * Receives the outcome of every image on the thread calling run(), in input order. The
+     * sequence of a result is the position of its item in the input.
+     */
+    public interface Listener<T> {
+        /** result is reused once the call returns. */
+        void onResult(T item, DetectionResult result);
+
+        void onError(T item, Exception e);
+    }
+
+    private static final class Batch<T> {
+        final FloatBuffer input;
+        final FloatBuffer[] images;
+        final Letterbox[] letterboxes;
+        final ModelOutputs[] outputs;
+        final List<T> items;
+        final Exception[] errors;
+        final Future<?>[] loads;
+        // loads submitted and not ended yet, waited on with the batch monitor
+        final AtomicInteger pending = new AtomicInteger();
+        volatile boolean cancelled;
+        int size;
+
+        Batch(int capacity, int imageSize) {
+            input = ByteBuffer.allocateDirect(capacity * imageSize * 4)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+            images = new FloatBuffer[capacity];
+            letterboxes = new Letterbox[capacity];
+            outputs = new ModelOutputs[capacity];
+            items = new ArrayList<>(capacity);
+            errors = new Exception[capacity];
+            loads = new Future<?>[capacity];
+            for (int i = 0; i < capacity; i++) {
+                FloatBuffer image = input.duplicate();
+                image.limit((i + 1) * imageSize);
+                image.position(i * imageSize);
+                images[i] = image.slice();
+                letterboxes[i] = new Letterbox();
+                outputs[i] = new ModelOutputs();
+            }
+        }
+    }
+
+    private final FaceDetector detector;
+    private final Loader<T> loader;
+    private final int width;
+    private final int height;
+    private final int batchSize;
+    private final ExecutorService loaders;
+    private final DetectionResult result = new DetectionResult();
+
+    private Batch<T> current;
+    private Batch<T> next;
+    private long sequence;
+
+    /**
+     * @param maxBatchSize largest number of images per forward pass
+     * @param memoryLimit bytes the input and output buffers may use; the batch size is lowered
+     *                    to stay within it, down to one image
+     * @param loaderThreads number of threads decoding and letterboxing images
+     */
+    public BatchDetector(FaceDetector detector, Loader<T> loader, int width, int height,
+                         int maxBatchSize, long memoryLimit, int loaderThreads) {
+        if (maxBatchSize <= 0 || loaderThreads <= 0) {
+            throw new IllegalArgumentException("Batch size and loader threads must be positive");
+        }
+        this.detector = detector;
+        this.loader = loader;
+        this.width = width;
+        this.height = height;
+        this.batchSize = batchSize(width, height, detector.getAnchors(width, height).size,
+                maxBatchSize, memoryLimit);
+        this.loaders = Executors.newFixedThreadPool(loaderThreads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "BatchDetector-loader-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Largest batch of at most maxBatchSize images whose buffers fit in memoryLimit bytes, at
+     * least one. Each image costs its input in both batches plus its outputs, counted twice
+     * for the copy the runtime makes of them.
+     */
+    public static int batchSize(int width, int height, int anchorCount, int maxBatchSize, long memoryLimit) {
+        final long input = 3L * width * height * 4;
+        final long outputs = (4L + 2L + 2L * LandMark.COUNT) * anchorCount * 4;
+        final long perImage = 2 * input + 2 * outputs;
+        return (int) Math.max(1, Math.min(maxBatchSize, memoryLimit / perImage));
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Detects faces in every item, passing the results to listener in input order. Images the
+     * loader fails on are reported through {@link Listener#onError} and skipped. If run ends
+     * early, by an interrupt or an exception of the detector or listener, the loads not
+     * started yet are skipped and the running ones awaited before it returns.
+     */
+    public void run(Iterable<T> items, Listener<T> listener) throws InterruptedException {
+        if (current == null) {
+            final int imageSize = 3 * width * height;
+            current = new Batch<>(batchSize, imageSize);
+            next = new Batch<>(batchSize, imageSize);
+        }
+
+        sequence = 0;
+        Iterator<T> it = items.iterator();
+        boolean finished = false;
+        try {
+            Batch<T> batch = load(current, it);
+            while (batch.size > 0) {
+                await(batch);
+                Batch<T> following = load(batch == current ? next : current, it);
+                detect(batch, listener);
+                batch = following;
+            }
+            finished = true;
+        } finally {
+            if (!finished) {
+                // no loader may still write into the buffers the next run reuses
+                cancel(current);
+                cancel(next);
+            }
+        }
+    }
+
+    /** Starts loading the next images of it into batch. */
+    private Batch<T> load(final Batch<T> batch, Iterator<T> it) {
+        batch.items.clear();
+        batch.size = 0;
+        batch.cancelled = false;
+        while (batch.size < batchSize && it.hasNext()) {
+            final int i = batch.size++;
+            final T item = it.next();
+            batch.items.add(item);
+            batch.errors[i] = null;
+            batch.pending.incrementAndGet();
+            batch.loads[i] = loaders.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!batch.cancelled) {
+                            loader.load(item, width, height, batch.images[i], batch.letterboxes[i]);
+                        }
+                    } catch (Exception e) {
+                        batch.errors[i] = e;
+                    } finally {
+                        if (batch.pending.decrementAndGet() == 0) {
+                            synchronized (batch) {
+                                batch.notifyAll();
+                            }
+                        }
+                    }
+                }
+            });
+        }
+        return batch;
+    }
+
+    private void await(Batch<T> batch) throws InterruptedException {
+        for (int i = 0; i < batch.size; i++) {
+            try {
+                batch.loads[i].get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Loader failed", e.getCause());
+            }
+            batch.loads[i] = null;
+        }
+    }
+
+    /** Skips the loads of batch that have not started and waits for the others to end. */
+    private void cancel(Batch<T> batch) {
+        batch.cancelled = true;
+        boolean interrupted = false;
+        synchronized (batch) {
+            while (batch.pending.get() > 0) {
+                try {
+                    batch.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        for (int i = 0; i < batch.size; i++) {
+            batch.loads[i] = null;
+        }
+        batch.items.clear();
+        batch.size = 0;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void detect(Batch<T> batch, Listener<T> listener) {
+        final long forwardNanos = detector.forwardBatch(batch.input, batch.size, width, height, batch.outputs);
+        for (int i = 0; i < batch.size; i++) {
+            final T item = batch.items.get(i);
+            final long index = sequence++;
+            if (batch.errors[i] != null) {
+                listener.onError(item, batch.errors[i]);
+                continue;
+            }
+            detector.decode(batch.outputs[i], width, height, batch.letterboxes[i], result);
+            result.sequence = index;
+            result.forwardNanos = forwardNanos / batch.size;
+            result.totalNanos = result.forwardNanos + result.decodeNanos;
+            listener.onResult(item, result);
+        }
+    }
+
+    /** Stops the loader threads. The detector cannot be used afterwards. */
+    public void shutdown() {
+        loaders.shutdown();
+    }
+}
@@ -0,0 +1,16 @@
+package com.hisona.facedetection;
+
+import java.nio.FloatBuffer;
+
+/**
+ * {@link InferenceBackend} able to run several inputs in a single forward pass.
+ */
+public interface BatchInferenceBackend extends InferenceBackend {
+
+    /**
+     * Runs the model on a [batchSize, 3, height, width] input, the planar RGB images packed one
+     * after another from the start of input, and stores the outputs of image i in outputs[i].
+     * input may hold more than batchSize images; the rest is ignored.
+     */
+    void forwardBatch(FloatBuffer input, int batchSize, int width, int height, ModelOutputs[] outputs);
+}
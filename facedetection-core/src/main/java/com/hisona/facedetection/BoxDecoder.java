@@ -0,0 +1,113 @@
+package com.hisona.facedetection;
+
+/**
+ * Turns the raw box regression and class outputs of the model into face boxes.
+ *
+ * Scores are thresholded first over every anchor, then only the surviving anchors have their
+ * offsets decoded, so the expensive exp() calls scale with the number of faces rather than
+ * with the number of anchors.
+ */
+public final class BoxDecoder {
+
+    /** Variance the centre offsets were encoded with. */
+    public static final float CENTER_VARIANCE = 0.1f;
+    /** Variance the log size offsets were encoded with. */
+    public static final float SIZE_VARIANCE = 0.2f;
+
+    private BoxDecoder() {
+    }
+
+    /**
+     * Collects the anchors whose face score is above threshold into out, replacing its content.
+     *
+     * @param cls class output, two scores (background, face) per anchor
+     * @param anchorCount number of anchors to scan
+     * @return number of candidates
+     */
+    public static int filter(float[] cls, int anchorCount, float threshold, FaceBoxes out) {
+        out.ensureCapacity(anchorCount);
+        final float[] score = out.score;
+        final int[] anchor = out.anchor;
+
+        // write every anchor, only advance past the ones that pass
+        int n = 0;
+        for (int i = 0; i < anchorCount; i++) {
+            final float s = cls[2 * i + 1];
+            score[n] = s;
+            anchor[n] = i;
+            n += s > threshold ? 1 : 0;
+        }
+        out.count = n;
+        return n;
+    }
+
+    /**
+     * Decodes the box of every entry of boxes from its anchor, in model input pixels.
+     *
+     * @param loc box output, (dx, dy, dw, dh) per anchor
+     */
+    public static void decode(float[] loc, AnchorTable anchors, FaceBoxes boxes) {
+        final int count = boxes.count;
+        final int[] anchor = boxes.anchor;
+        final float[] x1 = boxes.x1;
+        final float[] y1 = boxes.y1;
+        final float[] x2 = boxes.x2;
+        final float[] y2 = boxes.y2;
+        final float[] acx = anchors.cx;
+        final float[] acy = anchors.cy;
+        final float[] aw = anchors.w;
+        final float[] ah = anchors.h;
+        final float width = anchors.width;
+        final float height = anchors.height;
+
+        for (int k = 0; k < count; k++) {
+            final int i = anchor[k];
+            final int l = 4 * i;
+
+            final float cx = acx[i] + loc[l] * CENTER_VARIANCE * aw[i];
+            final float cy = acy[i] + loc[l + 1] * CENTER_VARIANCE * ah[i];
+            final float w = aw[i] * (float) Math.exp(loc[l + 2] * SIZE_VARIANCE);
+            final float h = ah[i] * (float) Math.exp(loc[l + 3] * SIZE_VARIANCE);
+
+            x1[k] = (cx - w * 0.5f) * width;
+            y1[k] = (cy - h * 0.5f) * height;
+            x2[k] = (cx + w * 0.5f) * width;
+            y2[k] = (cy + h * 0.5f) * height;
+        }
+    }
+
+    /**
+     * Decodes the landmarks of every entry of boxes into boxes.landmarks, in model input pixels.
+     *
+     * @param ldm landmark output, LandMark.COUNT (dx, dy) pairs per anchor
+     */
+    public static void decodeLandmarks(float[] ldm, AnchorTable anchors, FaceBoxes boxes) {
+        final int count = boxes.count;
+        final int[] anchor = boxes.anchor;
+        final float[] out = boxes.landmarks;
+        final float width = anchors.width;
+        final float height = anchors.height;
+
+        for (int k = 0; k < count; k++) {
+            final int i = anchor[k];
+            final float sx = CENTER_VARIANCE * anchors.w[i];
+            final float sy = CENTER_VARIANCE * anchors.h[i];
+            final float cx = anchors.cx[i];
+            final float cy = anchors.cy[i];
+
+            int src = i * 2 * LandMark.COUNT;
+            int dst = k * 2 * LandMark.COUNT;
+            for (int p = 0; p < LandMark.COUNT; p++) {
+                out[dst++] = (cx + ldm[src++] * sx) * width;
+                out[dst++] = (cy + ldm[src++] * sy) * height;
+            }
+        }
+    }
+
+    /** {@link #filter} followed by {@link #decode}. */
+    public static int decode(float[] loc, float[] cls, AnchorTable anchors, float threshold, FaceBoxes out) {
+        int n = filter(cls, anchors.size, threshold, out);
+        decode(loc, anchors, out);
+        return n;
+    }
+}
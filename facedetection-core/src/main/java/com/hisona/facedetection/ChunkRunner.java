@@ -0,0 +1,110 @@
+package com.hisona.facedetection;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Splits a range of items into contiguous chunks and runs them in parallel, the first chunk on
+ * the calling thread and the others on an executor, then waits for all of them. Chunks the
+ * executor rejects run on the calling thread. The first failure of a chunk is rethrown once
+ * every chunk is done.
+ *
+ * The runnables are created once, so a steady stream of runs does not allocate. Not thread
+ * safe, use one instance per owner.
+ */
+final class ChunkRunner {
+
+    /** Work on the items [from, to) of a run, called on any thread. */
+    interface Task {
+        void run(int chunk, int from, int to);
+    }
+
+    private final Executor executor;
+    private final Chunk[] chunks;
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile Thread waiter;
+    private volatile Throwable failure;
+
+    // task of the run in progress, published to the workers by Executor.execute()
+    private Task task;
+
+    private final class Chunk implements Runnable {
+        final int index;
+        int from;
+        int to;
+
+        Chunk(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run(index, from, to);
+            } catch (Throwable t) {
+                failure = t;
+            } finally {
+                if (pending.decrementAndGet() == 0) {
+                    LockSupport.unpark(waiter);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param executor runs all chunks but the first, may be null when parallelism is 1
+     * @param parallelism most chunks of a run, including the one of the calling thread
+     */
+    ChunkRunner(Executor executor, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.executor = executor;
+        this.chunks = new Chunk[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            chunks[i] = new Chunk(i);
+        }
+    }
+
+    int getParallelism() {
+        return chunks.length;
+    }
+
+    /** Runs task on count items split into n chunks of nearly equal size, n at most the parallelism. */
+    void run(Task task, int count, int n) {
+        final Chunk[] chunks = this.chunks;
+        for (int i = 0; i < n; i++) {
+            chunks[i].from = (int) ((long) count * i / n);
+            chunks[i].to = (int) ((long) count * (i + 1) / n);
+        }
+
+        this.task = task;
+        failure = null;
+        waiter = Thread.currentThread();
+        pending.set(n);
+        try {
+            for (int i = 1; i < n; i++) {
+                try {
+                    executor.execute(chunks[i]);
+                } catch (RejectedExecutionException e) {
+                    chunks[i].run();
+                }
+            }
+            chunks[0].run();
+            while (pending.get() > 0) {
+                LockSupport.park(this);
+            }
+        } finally {
+            this.task = null;
+        }
+
+        final Throwable t = failure;
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+    }
+}
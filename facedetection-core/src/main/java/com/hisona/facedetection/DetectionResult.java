@@ -0,0 +1,188 @@
+package com.hisona.facedetection;
+
+/**
+ * Faces found in one frame, stored in flat arrays so instances can be pooled.
+ *
+ * Boxes are (x1, y1, x2, y2) quadruples and landmarks LandMark.COUNT (x, y) pairs per face.
+ * Both are given in model input pixels (boxes, landmarks) and in source image pixels
+ * (sourceBoxes, sourceLandmarks), see {@link Letterbox} for the source image definition.
+ */
+public class DetectionResult {
+
+    /** Frame sequence number assigned by the producer. */
+    public long sequence;
+
+    public int count;
+    public float[] scores;
+    public float[] boxes;
+    public float[] sourceBoxes;
+    /** Stable id of the track each face belongs to, -1 when tracking is off. */
+    public int[] trackIds;
+    public boolean hasLandmarks;
+    public float[] landmarks;
+    public float[] sourceLandmarks;
+
+    public int modelWidth;
+    public int modelHeight;
+    public int sourceWidth;
+    public int sourceHeight;
+    /** The detector only saw a region of interest of the frame, see {@link Letterbox#isCropped()}. */
+    public boolean cropped;
+
+    // stage timings of the frame, in nanoseconds; decodeNanos includes nmsNanos
+    public long convertNanos;
+    public long forwardNanos;
+    public long decodeNanos;
+    public long nmsNanos;
+    public long totalNanos;
+    /** nanoTime when the result was handed to the UI thread. */
+    public long postedNanos;
+
+    public DetectionResult() {
+        this(0);
+    }
+
+    public DetectionResult(int capacity) {
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        scores = new float[capacity];
+        trackIds = new int[capacity];
+        boxes = new float[4 * capacity];
+        sourceBoxes = new float[4 * capacity];
+        landmarks = new float[2 * LandMark.COUNT * capacity];
+        sourceLandmarks = new float[2 * LandMark.COUNT * capacity];
+    }
+
+    public int capacity() {
+        return scores.length;
+    }
+
+    /** Grows the arrays to hold capacity faces. The content is not kept. */
+    public void ensureCapacity(int capacity) {
+        if (capacity() < capacity) {
+            allocate(Math.max(capacity, 2 * capacity()));
+        }
+    }
+
+    public void clear() {
+        sequence = 0;
+        count = 0;
+        hasLandmarks = false;
+        cropped = false;
+        convertNanos = 0;
+        forwardNanos = 0;
+        decodeNanos = 0;
+        nmsNanos = 0;
+        totalNanos = 0;
+        postedNanos = 0;
+    }
+
+    /**
+     * Replaces the detections with faces, mapping them to source pixels through letterbox.
+     * Timings are left untouched.
+     */
+    public void set(FaceBoxes faces, boolean withLandmarks, int modelWidth, int modelHeight, Letterbox letterbox) {
+        ensureCapacity(faces.count);
+        this.count = faces.count;
+        this.hasLandmarks = withLandmarks;
+        this.modelWidth = modelWidth;
+        this.modelHeight = modelHeight;
+        this.sourceWidth = letterbox.sourceWidth;
+        this.sourceHeight = letterbox.sourceHeight;
+        this.cropped = letterbox.isCropped();
+
+        for (int i = 0; i < faces.count; i++) {
+            scores[i] = faces.score[i];
+            trackIds[i] = -1;
+            boxes[4 * i] = faces.x1[i];
+            boxes[4 * i + 1] = faces.y1[i];
+            boxes[4 * i + 2] = faces.x2[i];
+            boxes[4 * i + 3] = faces.y2[i];
+        }
+        for (int i = 0; i < 4 * faces.count; i += 2) {
+            sourceBoxes[i] = letterbox.toSourceX(boxes[i]);
+            sourceBoxes[i + 1] = letterbox.toSourceY(boxes[i + 1]);
+        }
+
+        if (withLandmarks) {
+            final int n = 2 * LandMark.COUNT * faces.count;
+            System.arraycopy(faces.landmarks, 0, landmarks, 0, n);
+            for (int i = 0; i < n; i += 2) {
+                sourceLandmarks[i] = letterbox.toSourceX(landmarks[i]);
+                sourceLandmarks[i + 1] = letterbox.toSourceY(landmarks[i + 1]);
+            }
+        }
+    }
+
+    /** Copies every field of other into this result. */
+    public void set(DetectionResult other) {
+        ensureCapacity(other.count);
+        sequence = other.sequence;
+        count = other.count;
+        hasLandmarks = other.hasLandmarks;
+        modelWidth = other.modelWidth;
+        modelHeight = other.modelHeight;
+        sourceWidth = other.sourceWidth;
+        sourceHeight = other.sourceHeight;
+        cropped = other.cropped;
+        convertNanos = other.convertNanos;
+        forwardNanos = other.forwardNanos;
+        decodeNanos = other.decodeNanos;
+        nmsNanos = other.nmsNanos;
+        totalNanos = other.totalNanos;
+        postedNanos = other.postedNanos;
+        System.arraycopy(other.scores, 0, scores, 0, count);
+        System.arraycopy(other.trackIds, 0, trackIds, 0, count);
+        System.arraycopy(other.boxes, 0, boxes, 0, 4 * count);
+        System.arraycopy(other.sourceBoxes, 0, sourceBoxes, 0, 4 * count);
+        if (hasLandmarks) {
+            System.arraycopy(other.landmarks, 0, landmarks, 0, 2 * LandMark.COUNT * count);
+            System.arraycopy(other.sourceLandmarks, 0, sourceLandmarks, 0, 2 * LandMark.COUNT * count);
+        }
+    }
+
+    /** Best score of the frame, 0 when no face was found. */
+    public float getTopScore() {
+        return count > 0 ? scores[0] : 0.0f;
+    }
+
+    /**
+     * Fixed size pool of results shared by a producer and a consumer thread. Acquiring from an
+     * empty pool allocates; recycling into a full pool drops the result.
+     */
+    public static class Pool {
+        private final DetectionResult[] free;
+        private final int initialCapacity;
+        private int size;
+        private int allocations;
+
+        public Pool(int maxSize, int initialCapacity) {
+            this.free = new DetectionResult[maxSize];
+            this.initialCapacity = initialCapacity;
+        }
+
+        public synchronized DetectionResult acquire() {
+            if (size == 0) {
+                allocations++;
+                return new DetectionResult(initialCapacity);
+            }
+            DetectionResult result = free[--size];
+            free[size] = null;
+            result.clear();
+            return result;
+        }
+
+        public synchronized void recycle(DetectionResult result) {
+            if (result != null && size < free.length) {
+                free[size++] = result;
+            }
+        }
+
+        /** Number of results created because the pool was empty. */
+        public synchronized int getAllocations() {
+            return allocations;
+        }
+    }
+}
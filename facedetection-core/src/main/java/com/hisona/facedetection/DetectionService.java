@@ -0,0 +1,517 @@
+package com.hisona.facedetection;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs detection for many camera streams on one loaded model, or a small fixed pool of them,
+ * instead of one model per stream.
+ *
+ * <pre>
+ *   producers:  stream.acquireFrame() -> fill input -> stream.submit()
+ *   inference:  pick streams -> forward / forwardBatch -> decode -> Listener.onResult()
+ * </pre>
+ *
+ * Each stream holds at most one pending frame: submitting while the previous frame still waits
+ * replaces it (latest frame wins), so a slow service never works on stale frames. A stream with
+ * a frame in inference is not scheduled again until its result is delivered, which keeps the
+ * results of a stream in submission order.
+ *
+ * Streams share the inference threads in proportion to their priority (stride scheduling): when
+ * every stream always has a frame pending, a priority 2 stream gets twice the inferences of a
+ * priority 1 stream, and no stream waits for more than one turn of the others. When the backend
+ * of an inference thread is a {@link BatchInferenceBackend}, the pending frames of other streams
+ * with the same input size join the frame picked, up to maxBatchSize, in one forward pass.
+ *
+ * There is one inference thread per {@link FaceDetector}; a detector and its backend are only
+ * used by their thread.
+ *
+ * A frame whose forward pass, decoding or listener throws counts as failed for its stream, and
+ * the inference thread goes on with the next frames.
+ */
+public class DetectionService {
+
+    /**
+     * Receives results on an inference thread. The result must be recycled into the result
+     * pool; its sequence is the one of the submitted frame within its stream. The result
+     * belongs to the listener even if onResult throws.
+     */
+    public interface Listener {
+        void onResult(Stream stream, DetectionResult result);
+    }
+
+    /** Pending frames older than this when inference starts are counted as starved. */
+    public static final long DEFAULT_STARVATION_NANOS = 500000000L;
+
+    // pass increment of a priority 1 stream, divided by the priority
+    private static final long STRIDE = 1 << 20;
+    // the one filled by the producer, the pending one and the one in inference
+    private static final int FRAMES_PER_STREAM = 3;
+
+    /** A registered source of frames. The frame methods must be called from one producer thread. */
+    public final class Stream {
+        private final String name;
+        private final int priority;
+        private final Listener listener;
+        private final long registeredNanos;
+
+        // guarded by the service
+        private final ArrayDeque<FramePipeline.Frame> freeFrames = new ArrayDeque<>(FRAMES_PER_STREAM);
+        private FramePipeline.Frame pending;
+        private long pendingNanos;
+        private boolean inFlight;
+        private boolean registered = true;
+        private long pass;
+        private long nextSequence;
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram wait = new LatencyHistogram();
+        private volatile long submitted;
+        private volatile long completed;
+        private volatile long coalesced;
+        private volatile long starved;
+        private volatile long exhausted;
+        private volatile long failed;
+        private volatile RuntimeException lastError;
+
+        private Stream(String name, int priority, Listener listener) {
+            this.name = name;
+            this.priority = priority;
+            this.listener = listener;
+            this.registeredNanos = System.nanoTime();
+            for (int i = 0; i < FRAMES_PER_STREAM; i++) {
+                freeFrames.add(new FramePipeline.Frame());
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        /**
+         * Returns a free frame for the producer to fill, or null when the stream was unregistered
+         * or every frame is in use; the caller should then skip the camera frame.
+         */
+        public FramePipeline.Frame acquireFrame() {
+            FramePipeline.Frame frame;
+            synchronized (DetectionService.this) {
+                frame = registered ? freeFrames.poll() : null;
+                if (frame == null) {
+                    exhausted++;
+                    return null;
+                }
+            }
+            frame.startNanos = System.nanoTime();
+            frame.convertNanos = 0;
+            return frame;
+        }
+
+        /** Queues a filled frame, replacing the pending one if inference did not pick it up yet. */
+        public void submit(FramePipeline.Frame frame) {
+            synchronized (DetectionService.this) {
+                if (!registered) {
+                    freeFrames.add(frame);
+                    return;
+                }
+                frame.sequence = nextSequence++;
+                submitted++;
+                if (pending != null) {
+                    freeFrames.add(pending);
+                    coalesced++;
+                } else if (!inFlight && pass - virtualTime < 0) {
+                    // an idle stream does not bank turns it did not use
+                    pass = virtualTime;
+                }
+                pending = frame;
+                pendingNanos = System.nanoTime();
+                if (!inFlight) {
+                    DetectionService.this.notify();
+                }
+            }
+        }
+
+        /** Returns a frame acquired but not submitted. */
+        public void cancel(FramePipeline.Frame frame) {
+            synchronized (DetectionService.this) {
+                freeFrames.add(frame);
+            }
+        }
+
+        public long getSubmittedFrames() {
+            return submitted;
+        }
+
+        public long getCompletedFrames() {
+            return completed;
+        }
+
+        /** Frames replaced by a newer one before inference picked them up. */
+        public long getCoalescedFrames() {
+            return coalesced;
+        }
+
+        /** Frames that waited longer than the starvation limit before inference. */
+        public long getStarvedFrames() {
+            return starved;
+        }
+
+        /** Camera frames skipped because no free frame was available. */
+        public long getExhaustedDrops() {
+            return exhausted;
+        }
+
+        /** Frames whose inference, decoding or listener threw. */
+        public long getFailedFrames() {
+            return failed;
+        }
+
+        /** Last failure of the stream, null if none of its frames failed. */
+        public RuntimeException getLastError() {
+            return lastError;
+        }
+
+        /** Time from acquireFrame() to the result. */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /** Time from submit() to the start of inference. */
+        public LatencyHistogram getWait() {
+            return wait;
+        }
+
+        /** Results per second since the stream was registered. */
+        public float getThroughput(long nowNanos) {
+            final long elapsed = nowNanos - registeredNanos;
+            return elapsed > 0 ? completed * 1e9f / elapsed : 0.0f;
+        }
+
+        public StringBuilder format(StringBuilder out, long nowNanos) {
+            out.append(String.format(Locale.US,
+                    "%s (priority %d): %.1f fps, latency p50 %.1f / p95 %.1f ms, wait p95 %.1f / max %.1f ms,"
+                            + " %d coalesced, %d starved, %d failed\n",
+                    name, priority, getThroughput(nowNanos),
+                    latency.getPercentileMicros(0.50) / 1000.0, latency.getPercentileMicros(0.95) / 1000.0,
+                    wait.getPercentileMicros(0.95) / 1000.0, wait.getMaxMicros() / 1000.0,
+                    coalesced, starved, failed));
+            return out;
+        }
+    }
+
+    private final class Worker implements Runnable {
+        final FaceDetector detector;
+        final boolean batching;
+        final FramePipeline.Frame[] frames;
+        final Stream[] owners;
+        final ModelOutputs[] outputs;
+        FloatBuffer batchInput;
+        volatile long batches;
+        volatile long batchedFrames;
+        Thread thread;
+
+        Worker(FaceDetector detector) {
+            this.detector = detector;
+            this.batching = maxBatchSize > 1 && detector.getBackend() instanceof BatchInferenceBackend;
+            final int capacity = batching ? maxBatchSize : 1;
+            this.frames = new FramePipeline.Frame[capacity];
+            this.owners = new Stream[capacity];
+            this.outputs = new ModelOutputs[capacity];
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                int n;
+                synchronized (DetectionService.this) {
+                    while ((n = take(this)) == 0) {
+                        if (!running) {
+                            return;
+                        }
+                        try {
+                            DetectionService.this.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+                process(this, n);
+            }
+        }
+    }
+
+    private final Worker[] workers;
+    private final int maxBatchSize;
+    private final long starvationNanos;
+    private final DetectionResult.Pool resultPool;
+
+    // guarded by this
+    private final List<Stream> streams = new ArrayList<>();
+    private boolean running = true;
+    // pass of the stream served last, where streams becoming active start from
+    private long virtualTime;
+
+    public DetectionService(FaceDetector detector, int maxBatchSize, DetectionResult.Pool resultPool) {
+        this(Collections.singletonList(detector), maxBatchSize, DEFAULT_STARVATION_NANOS, resultPool);
+    }
+
+    /**
+     * @param detectors one per inference thread, each with its own backend
+     * @param maxBatchSize most frames sharing one forward pass, 1 disables batching
+     * @param starvationNanos wait before inference above which a frame counts as starved
+     * @param resultPool pool results are taken from
+     */
+    public DetectionService(List<FaceDetector> detectors, int maxBatchSize, long starvationNanos,
+                            DetectionResult.Pool resultPool) {
+        if (detectors.isEmpty()) {
+            throw new IllegalArgumentException("No detector");
+        }
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.starvationNanos = starvationNanos;
+        this.resultPool = resultPool;
+        this.workers = new Worker[detectors.size()];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(detectors.get(i));
+        }
+        for (int i = 0; i < workers.length; i++) {
+            workers[i].thread = new Thread(workers[i], "DetectionService-inference-" + i);
+            workers[i].thread.start();
+        }
+    }
+
+    /**
+     * Adds a stream.
+     *
+     * @param priority share of the inferences relative to the other streams, at least 1
+     */
+    public synchronized Stream register(String name, int priority, Listener listener) {
+        if (priority <= 0) {
+            throw new IllegalArgumentException("priority must be positive: " + priority);
+        }
+        Stream stream = new Stream(name, priority, listener);
+        stream.pass = virtualTime;
+        streams.add(stream);
+        return stream;
+    }
+
+    /**
+     * Removes a stream. Its pending frame is dropped; the result of a frame already in
+     * inference is still delivered.
+     */
+    public synchronized void unregister(Stream stream) {
+        if (!stream.registered) {
+            return;
+        }
+        stream.registered = false;
+        streams.remove(stream);
+        if (stream.pending != null) {
+            stream.freeFrames.add(stream.pending);
+            stream.pending = null;
+        }
+    }
+
+    public synchronized List<Stream> getStreams() {
+        return new ArrayList<>(streams);
+    }
+
+    /**
+     * Moves the next frames to run into worker: the pending frame of the stream with the lowest
+     * pass, then those of the following streams with the same input size while the batch has
+     * room. Called with the lock held.
+     *
+     * @return number of frames taken
+     */
+    private int take(Worker worker) {
+        final long now = System.nanoTime();
+        int n = 0;
+        while (n < worker.frames.length) {
+            Stream stream = next(n == 0 ? null : worker.frames[0]);
+            if (stream == null) {
+                break;
+            }
+            FramePipeline.Frame frame = stream.pending;
+            stream.pending = null;
+            stream.inFlight = true;
+            if (n == 0) {
+                virtualTime = stream.pass;
+            }
+            stream.pass += STRIDE / stream.priority;
+
+            final long waited = now - stream.pendingNanos;
+            stream.wait.record(waited);
+            if (waited > starvationNanos) {
+                stream.starved++;
+            }
+            worker.frames[n] = frame;
+            worker.owners[n] = stream;
+            n++;
+        }
+        return n;
+    }
+
+    /** Ready stream with the lowest pass, the one waiting longest on ties; same input size as head if given. */
+    private Stream next(FramePipeline.Frame head) {
+        Stream best = null;
+        for (int i = 0; i < streams.size(); i++) {
+            Stream stream = streams.get(i);
+            FramePipeline.Frame frame = stream.pending;
+            if (frame == null || stream.inFlight) {
+                continue;
+            }
+            if (head != null && (frame.width != head.width || frame.height != head.height)) {
+                continue;
+            }
+            if (best == null || stream.pass - best.pass < 0
+                    || (stream.pass == best.pass && stream.pendingNanos - best.pendingNanos < 0)) {
+                best = stream;
+            }
+        }
+        return best;
+    }
+
+    private void process(Worker worker, int n) {
+        final FramePipeline.Frame[] frames = worker.frames;
+        final int width = frames[0].width;
+        final int height = frames[0].height;
+        long forwardNanos = 0;
+        RuntimeException failure = null;
+        try {
+            forwardNanos = forward(worker, n, width, height);
+            worker.batches++;
+            worker.batchedFrames += n;
+        } catch (RuntimeException e) {
+            // no outputs for any frame of the batch
+            failure = e;
+        }
+
+        for (int i = 0; i < n; i++) {
+            FramePipeline.Frame frame = frames[i];
+            Stream stream = worker.owners[i];
+            frames[i] = null;
+            worker.owners[i] = null;
+            worker.outputs[i] = null;
+
+            RuntimeException error = failure;
+            DetectionResult result = null;
+            if (error == null) {
+                result = resultPool.acquire();
+                try {
+                    worker.detector.decode(frame.outputs, width, height, frame.letterbox, result);
+                    result.sequence = frame.sequence;
+                    result.convertNanos = frame.convertNanos;
+                    result.forwardNanos = forwardNanos;
+                    result.totalNanos = System.nanoTime() - frame.startNanos;
+                    stream.latency.record(result.totalNanos);
+                } catch (RuntimeException e) {
+                    resultPool.recycle(result);
+                    result = null;
+                    error = e;
+                }
+            }
+
+            synchronized (this) {
+                stream.freeFrames.add(frame);
+                stream.inFlight = false;
+                if (error == null) {
+                    stream.completed++;
+                } else {
+                    stream.failed++;
+                    stream.lastError = error;
+                }
+                if (stream.pending != null) {
+                    notify();
+                }
+            }
+            if (result != null) {
+                try {
+                    stream.listener.onResult(stream, result);
+                } catch (RuntimeException e) {
+                    synchronized (this) {
+                        stream.failed++;
+                        stream.lastError = e;
+                    }
+                }
+            }
+        }
+    }
+
+    /** Runs the n frames of worker through one forward pass and returns its duration. */
+    private long forward(Worker worker, int n, int width, int height) {
+        final FramePipeline.Frame[] frames = worker.frames;
+        if (n == 1) {
+            return worker.detector.forward(frames[0].input, width, height, frames[0].outputs);
+        }
+        final int imageSize = 3 * width * height;
+        if (worker.batchInput == null || worker.batchInput.capacity() < worker.frames.length * imageSize) {
+            worker.batchInput = ByteBuffer.allocateDirect(worker.frames.length * imageSize * 4)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+        }
+        FloatBuffer input = worker.batchInput;
+        input.clear();
+        for (int i = 0; i < n; i++) {
+            FloatBuffer image = frames[i].input.duplicate();
+            image.clear();
+            image.limit(imageSize);
+            input.put(image);
+            worker.outputs[i] = frames[i].outputs;
+        }
+        input.flip();
+        return worker.detector.forwardBatch(input, n, width, height, worker.outputs);
+    }
+
+    /** Stops the inference threads once they finish the frames in progress. */
+    public synchronized void shutdown() {
+        running = false;
+        notifyAll();
+    }
+
+    /** Waits for the inference threads to stop after {@link #shutdown()}. */
+    public void awaitTermination() throws InterruptedException {
+        for (Worker worker : workers) {
+            worker.thread.join();
+        }
+    }
+
+    public int getThreadCount() {
+        return workers.length;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /** Average number of frames per forward pass over all inference threads. */
+    public float getAverageBatchSize() {
+        long batches = 0;
+        long frames = 0;
+        for (Worker worker : workers) {
+            batches += worker.batches;
+            frames += worker.batchedFrames;
+        }
+        return batches == 0 ? 0.0f : (float) frames / batches;
+    }
+
+    /** One line per stream, then the batching of the inference threads. */
+    public StringBuilder format(StringBuilder out) {
+        final long now = System.nanoTime();
+        for (Stream stream : getStreams()) {
+            stream.format(out, now);
+        }
+        out.append(String.format(Locale.US, "%d inference threads, %.2f frames per forward\n",
+                workers.length, getAverageBatchSize()));
+        return out;
+    }
+}
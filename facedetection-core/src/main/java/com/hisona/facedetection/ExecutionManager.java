@@ -0,0 +1,108 @@
+package com.hisona.facedetection;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the threads of a detection screen for its whole life: one analyzer thread that
+ * receives the camera frames, one scheduler thread for periodic work such as metrics export,
+ * and the inference threads of the current {@link FramePipeline}.
+ *
+ * The analyzer thread outlives camera switches, so rebinding the camera reuses it instead of
+ * leaking a thread per switch. {@link #shutdown()} stops everything; frames handed to the
+ * analyzer afterwards are rejected.
+ */
+public class ExecutionManager {
+
+    private final ExecutorService analyzer;
+    private final ScheduledExecutorService scheduler;
+    private FramePipeline pipeline;
+    private boolean shutdown;
+
+    /** @param name prefix of the thread names */
+    public ExecutionManager(String name) {
+        analyzer = Executors.newSingleThreadExecutor(factory(name + "-analyzer"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(factory(name + "-scheduler"));
+    }
+
+    private static ThreadFactory factory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, name);
+            }
+        };
+    }
+
+    /** Executor of the camera analyzer, the same one across camera switches. */
+    public Executor getAnalyzerExecutor() {
+        return analyzer;
+    }
+
+    /** Runs task every periodMillis on the scheduler thread until shutdown. */
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long periodMillis) {
+        return scheduler.scheduleAtFixedRate(task, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Makes pipeline the managed one. The previous pipeline is shut down; after shutdown()
+     * pipeline is shut down at once.
+     */
+    public void setPipeline(FramePipeline pipeline) {
+        FramePipeline previous;
+        boolean stopped;
+        synchronized (this) {
+            previous = this.pipeline;
+            this.pipeline = pipeline;
+            stopped = shutdown;
+        }
+        if (previous != null && previous != pipeline) {
+            previous.shutdown();
+        }
+        if (stopped && pipeline != null) {
+            pipeline.shutdown();
+        }
+    }
+
+    public synchronized FramePipeline getPipeline() {
+        return pipeline;
+    }
+
+    /** Stops the analyzer, the scheduler and the pipeline once their work in progress ends. */
+    public void shutdown() {
+        FramePipeline pipeline;
+        synchronized (this) {
+            shutdown = true;
+            pipeline = this.pipeline;
+        }
+        analyzer.shutdown();
+        scheduler.shutdownNow();
+        if (pipeline != null) {
+            pipeline.shutdown();
+        }
+    }
+
+    public synchronized boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * Waits for every managed thread to stop after {@link #shutdown()}.
+     *
+     * @return false if the timeout elapsed first
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (!analyzer.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)
+                || !scheduler.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            return false;
+        }
+        FramePipeline pipeline = getPipeline();
+        return pipeline == null || pipeline.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,351 @@
+package com.hisona.facedetection;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.concurrent.Executor;
+
+/**
+ * Cuts aligned face chips for a recognition model out of a frame, in one pass over the faces
+ * of a {@link DetectionResult}.
+ *
+ * Faces with landmarks are aligned by the least squares similarity transform (scale, rotation,
+ * translation) that takes the five reference points of the chip onto the detected landmarks;
+ * faces without landmarks get the square around their box. Every chip pixel is sampled
+ * bilinearly through that transform straight from a {@link Source}, the YUV planes of the
+ * camera frame or the detector input, so the frame is neither converted nor cropped first.
+ * Pixels falling outside the source are black.
+ *
+ * With an executor the faces are split across threads, the calling thread working on the
+ * first share. Not thread safe, use one instance per producer.
+ */
+public class FaceAligner {
+
+    public static final int DEFAULT_SIZE = 112;
+
+    /** Landmarks of a 112 x 112 chip, in the order of {@link LandMark}; the ArcFace reference points. */
+    static final float[] REFERENCE_112 = {
+            38.2946f, 51.6963f,
+            73.5318f, 51.5014f,
+            56.0252f, 71.7366f,
+            41.5493f, 92.3655f,
+            70.7299f, 92.2041f,
+    };
+
+    /** Normalization of the usual recognition models, (p - 127.5) / 127.5. */
+    public static final float[] RECOGNITION_MEAN = {127.5f, 127.5f, 127.5f};
+    public static final float[] RECOGNITION_STD = {127.5f, 127.5f, 127.5f};
+
+    /** Pixels of the upright source image of {@link Letterbox}, read by several threads at once. */
+    public interface Source {
+        /**
+         * Writes the R, G, B values, from 0 to 255, at source pixel (x, y) into rgb.
+         *
+         * @return false, leaving rgb undefined, when the point is outside of the image
+         */
+        boolean sample(float x, float y, float[] rgb);
+    }
+
+    /** The YUV_420_888 planes of a camera frame, in the terms of {@link YuvConverter#configure}. */
+    public static class YuvSource implements Source {
+        private ByteBuffer y;
+        private ByteBuffer u;
+        private ByteBuffer v;
+        private int width;
+        private int height;
+        private int yRowStride;
+        private int uvRowStride;
+        private int uvPixelStride;
+        private int rotation;
+        private boolean flip;
+        private int uprightWidth;
+
+        /**
+         * @param width sensor width of the frame
+         * @param height sensor height of the frame
+         * @param rotation clockwise rotation to upright, one of 0, 90, 180, 270
+         * @param flip mirror horizontally after rotation
+         */
+        public void set(ByteBuffer y, ByteBuffer u, ByteBuffer v, int width, int height,
+                        int yRowStride, int uvRowStride, int uvPixelStride, int rotation, boolean flip) {
+            if (rotation != 0 && rotation != 90 && rotation != 180 && rotation != 270) {
+                throw new IllegalArgumentException("Unsupported rotation: " + rotation);
+            }
+            this.y = y;
+            this.u = u;
+            this.v = v;
+            this.width = width;
+            this.height = height;
+            this.yRowStride = yRowStride;
+            this.uvRowStride = uvRowStride;
+            this.uvPixelStride = uvPixelStride;
+            this.rotation = rotation;
+            this.flip = flip;
+            this.uprightWidth = rotation == 90 || rotation == 270 ? height : width;
+        }
+
+        @Override
+        public boolean sample(float x, float y, float[] rgb) {
+            if (flip) x = uprightWidth - 1 - x;
+            // same mapping as LumaPlane, on continuous coordinates
+            final float sx;
+            final float sy;
+            switch (rotation) {
+                case 90:
+                    sx = y;
+                    sy = height - 1 - x;
+                    break;
+                case 180:
+                    sx = width - 1 - x;
+                    sy = height - 1 - y;
+                    break;
+                case 270:
+                    sx = width - 1 - y;
+                    sy = x;
+                    break;
+                default:
+                    sx = x;
+                    sy = y;
+                    break;
+            }
+            if (!(sx >= 0 && sy >= 0 && sx <= width - 1 && sy <= height - 1)) {
+                return false;
+            }
+
+            final int x0 = (int) sx;
+            final int y0 = (int) sy;
+            final int x1 = Math.min(x0 + 1, width - 1);
+            final int y1 = Math.min(y0 + 1, height - 1);
+            final float fx = sx - x0;
+            final float fy = sy - y0;
+            final ByteBuffer plane = this.y;
+            final int row0 = y0 * yRowStride;
+            final int row1 = y1 * yRowStride;
+            final float top = (plane.get(row0 + x0) & 0xff) * (1 - fx) + (plane.get(row0 + x1) & 0xff) * fx;
+            final float bottom = (plane.get(row1 + x0) & 0xff) * (1 - fx) + (plane.get(row1 + x1) & 0xff) * fx;
+            final float luma = top + (bottom - top) * fy;
+
+            // chroma of the 2x2 block of the nearest pixel, like YuvConverter
+            final int uvOff = (Math.round(sy) >> 1) * uvRowStride + (Math.round(sx) >> 1) * uvPixelStride;
+            final int cu = (u.get(uvOff) & 0xff) - 128;
+            final int cv = (v.get(uvOff) & 0xff) - 128;
+
+            // full range BT.601, the matrix of YuvConverter
+            rgb[0] = clamp(luma + 1.402f * cv);
+            rgb[1] = clamp(luma - 0.344136f * cu - 0.714136f * cv);
+            rgb[2] = clamp(luma + 1.772f * cu);
+            return true;
+        }
+
+        private static float clamp(float value) {
+            return value < 0 ? 0 : (value > 255 ? 255 : value);
+        }
+    }
+
+    /** A normalized planar R, G, B model input and the letterbox it was made with. */
+    public static class TensorSource implements Source {
+        private FloatBuffer input;
+        private int width;
+        private int height;
+        private final Letterbox letterbox = new Letterbox();
+        private final float[] mean = new float[3];
+        private final float[] std = new float[3];
+
+        /** mean and std are the normalization input was written with. */
+        public void set(FloatBuffer input, int width, int height, Letterbox letterbox, float[] mean, float[] std) {
+            this.input = input;
+            this.width = width;
+            this.height = height;
+            this.letterbox.set(letterbox);
+            System.arraycopy(mean, 0, this.mean, 0, 3);
+            System.arraycopy(std, 0, this.std, 0, 3);
+        }
+
+        @Override
+        public boolean sample(float x, float y, float[] rgb) {
+            final float mx = letterbox.toModelX(x);
+            final float my = letterbox.toModelY(y);
+            if (!(mx >= 0 && my >= 0 && mx <= width - 1 && my <= height - 1)) {
+                return false;
+            }
+            final int x0 = (int) mx;
+            final int y0 = (int) my;
+            final int x1 = Math.min(x0 + 1, width - 1);
+            final int y1 = Math.min(y0 + 1, height - 1);
+            final float fx = mx - x0;
+            final float fy = my - y0;
+            final int planeSize = width * height;
+            for (int c = 0; c < 3; c++) {
+                final int plane = c * planeSize;
+                final float top = input.get(plane + y0 * width + x0) * (1 - fx)
+                        + input.get(plane + y0 * width + x1) * fx;
+                final float bottom = input.get(plane + y1 * width + x0) * (1 - fx)
+                        + input.get(plane + y1 * width + x1) * fx;
+                rgb[c] = (top + (bottom - top) * fy) * std[c] + mean[c];
+            }
+            return true;
+        }
+    }
+
+    private final ChunkRunner runner;
+    // sample of each chunk
+    private final float[][] rgb;
+
+    private final float[] mean = new float[3];
+    private final float[] scale = new float[3];
+
+    // inputs of the call in progress, published to the workers by ChunkRunner
+    private Source source;
+    private FaceChips out;
+
+    private final ChunkRunner.Task warpTask = new ChunkRunner.Task() {
+        @Override
+        public void run(int chunk, int from, int to) {
+            for (int i = from; i < to; i++) {
+                warp(i, source, out, rgb[chunk]);
+            }
+        }
+    };
+
+    /** Aligns every face on the calling thread. */
+    public FaceAligner() {
+        this(null, 1);
+    }
+
+    /**
+     * @param executor runs all shares of the faces but the first, null to align on the
+     *                 calling thread only
+     * @param parallelism number of shares, including the one of the calling thread
+     */
+    public FaceAligner(Executor executor, int parallelism) {
+        this.runner = new ChunkRunner(executor, executor == null ? 1 : parallelism);
+        this.rgb = new float[runner.getParallelism()][3];
+        setNormalization(RECOGNITION_MEAN, RECOGNITION_STD);
+    }
+
+    /** Normalization of FLOAT chips, RECOGNITION_MEAN and RECOGNITION_STD by default. */
+    public void setNormalization(float[] mean, float[] std) {
+        for (int c = 0; c < 3; c++) {
+            this.mean[c] = mean[c];
+            this.scale[c] = 1.0f / std[c];
+        }
+    }
+
+    /**
+     * Writes one chip per face of result into out, sampled from source, which must show the
+     * frame result was detected in.
+     *
+     * @return out
+     */
+    public FaceChips align(DetectionResult result, Source source, FaceChips out) {
+        final int count = result.count;
+        out.ensureCapacity(count);
+        out.count = count;
+        out.sequence = result.sequence;
+        for (int i = 0; i < count; i++) {
+            out.faces[i] = i;
+            if (result.hasLandmarks) {
+                estimate(result.sourceLandmarks, 2 * LandMark.COUNT * i, out.size, out.transforms, 4 * i);
+            } else {
+                square(result.sourceBoxes, 4 * i, out.size, out.transforms, 4 * i);
+            }
+        }
+        if (count == 0) {
+            return out;
+        }
+
+        this.source = source;
+        this.out = out;
+        try {
+            runner.run(warpTask, count, Math.min(runner.getParallelism(), count));
+        } finally {
+            this.source = null;
+            this.out = null;
+        }
+        return out;
+    }
+
+    /**
+     * Least squares similarity taking the reference points of a size x size chip onto the
+     * LandMark.COUNT points at landmarks[offset], written as (a, b, tx, ty) at out[outOffset].
+     */
+    static void estimate(float[] landmarks, int offset, int size, float[] out, int outOffset) {
+        final float ratio = size / (float) DEFAULT_SIZE;
+        float pmx = 0, pmy = 0, qmx = 0, qmy = 0;
+        for (int i = 0; i < LandMark.COUNT; i++) {
+            pmx += REFERENCE_112[2 * i] * ratio;
+            pmy += REFERENCE_112[2 * i + 1] * ratio;
+            qmx += landmarks[offset + 2 * i];
+            qmy += landmarks[offset + 2 * i + 1];
+        }
+        pmx /= LandMark.COUNT;
+        pmy /= LandMark.COUNT;
+        qmx /= LandMark.COUNT;
+        qmy /= LandMark.COUNT;
+
+        float norm = 0, dot = 0, cross = 0;
+        for (int i = 0; i < LandMark.COUNT; i++) {
+            final float px = REFERENCE_112[2 * i] * ratio - pmx;
+            final float py = REFERENCE_112[2 * i + 1] * ratio - pmy;
+            final float qx = landmarks[offset + 2 * i] - qmx;
+            final float qy = landmarks[offset + 2 * i + 1] - qmy;
+            norm += px * px + py * py;
+            dot += px * qx + py * qy;
+            cross += px * qy - py * qx;
+        }
+        final float a = dot / norm;
+        final float b = cross / norm;
+        out[outOffset] = a;
+        out[outOffset + 1] = b;
+        out[outOffset + 2] = qmx - (a * pmx - b * pmy);
+        out[outOffset + 3] = qmy - (b * pmx + a * pmy);
+    }
+
+    /** Transform taking a size x size chip onto the square around the box at boxes[offset]. */
+    static void square(float[] boxes, int offset, int size, float[] out, int outOffset) {
+        final float x1 = boxes[offset];
+        final float y1 = boxes[offset + 1];
+        final float x2 = boxes[offset + 2];
+        final float y2 = boxes[offset + 3];
+        final float side = Math.max(x2 - x1, y2 - y1);
+        out[outOffset] = side / size;
+        out[outOffset + 1] = 0.0f;
+        out[outOffset + 2] = (x1 + x2 - side) / 2;
+        out[outOffset + 3] = (y1 + y2 - side) / 2;
+    }
+
+    private void warp(int chip, Source source, FaceChips out, float[] rgb) {
+        final float[] t = out.transforms;
+        final float a = t[4 * chip];
+        final float b = t[4 * chip + 1];
+        final float tx = t[4 * chip + 2];
+        final float ty = t[4 * chip + 3];
+        final int size = out.size;
+        final int planeSize = size * size;
+        final int base = chip * out.getChipLength();
+        final FloatBuffer floats = out.floats;
+        final ByteBuffer bytes = out.bytes;
+
+        for (int oy = 0; oy < size; oy++) {
+            float sx = tx - b * oy;
+            float sy = ty + a * oy;
+            for (int ox = 0; ox < size; ox++, sx += a, sy += b) {
+                if (!source.sample(sx, sy, rgb)) {
+                    rgb[0] = 0;
+                    rgb[1] = 0;
+                    rgb[2] = 0;
+                }
+                final int pixel = oy * size + ox;
+                if (floats != null) {
+                    floats.put(base + pixel, (rgb[0] - mean[0]) * scale[0]);
+                    floats.put(base + planeSize + pixel, (rgb[1] - mean[1]) * scale[1]);
+                    floats.put(base + 2 * planeSize + pixel, (rgb[2] - mean[2]) * scale[2]);
+                } else {
+                    final int offset = base + 3 * pixel;
+                    bytes.put(offset, (byte) (int) (rgb[0] + 0.5f));
+                    bytes.put(offset + 1, (byte) (int) (rgb[1] + 0.5f));
+                    bytes.put(offset + 2, (byte) (int) (rgb[2] + 0.5f));
+                }
+            }
+        }
+    }
+}
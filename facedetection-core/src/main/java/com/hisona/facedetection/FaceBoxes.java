@@ -0,0 +1,98 @@
+package com.hisona.facedetection;
+
+/**
+ * Growable struct-of-arrays list of face boxes, the pooled counterpart of {@link FaceBox}.
+ *
+ * Entry i is anchor[i] scored score[i], with corners (x1, y1) - (x2, y2) in model input pixels.
+ * Its landmarks, when decoded, are the LandMark.COUNT (x, y) pairs starting at
+ * landmarks[i * 2 * LandMark.COUNT]. Arrays may be longer than count; only the first count
+ * entries are valid.
+ */
+public class FaceBoxes {
+    public int count;
+    public float[] score;
+    public int[] anchor;
+    public float[] x1;
+    public float[] y1;
+    public float[] x2;
+    public float[] y2;
+    public float[] landmarks;
+
+    public FaceBoxes() {
+        this(0);
+    }
+
+    public FaceBoxes(int capacity) {
+        score = new float[capacity];
+        anchor = new int[capacity];
+        x1 = new float[capacity];
+        y1 = new float[capacity];
+        x2 = new float[capacity];
+        y2 = new float[capacity];
+        landmarks = new float[capacity * 2 * LandMark.COUNT];
+    }
+
+    public int capacity() {
+        return score.length;
+    }
+
+    /** Grows the arrays to hold at least capacity entries, keeping the valid ones. */
+    public void ensureCapacity(int capacity) {
+        if (score.length >= capacity) {
+            return;
+        }
+        score = grow(score, capacity);
+        anchor = grow(anchor, capacity);
+        x1 = grow(x1, capacity);
+        y1 = grow(y1, capacity);
+        x2 = grow(x2, capacity);
+        y2 = grow(y2, capacity);
+        landmarks = grow(landmarks, capacity * 2 * LandMark.COUNT);
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    /** Copies entry from of src into entry to of this list. */
+    public void copy(FaceBoxes src, int from, int to) {
+        score[to] = src.score[from];
+        anchor[to] = src.anchor[from];
+        x1[to] = src.x1[from];
+        y1[to] = src.y1[from];
+        x2[to] = src.x2[from];
+        y2[to] = src.y2[from];
+        System.arraycopy(src.landmarks, from * 2 * LandMark.COUNT, landmarks, to * 2 * LandMark.COUNT,
+                2 * LandMark.COUNT);
+    }
+
+    /** Copies entry i into box. */
+    public FaceBox get(int i, FaceBox box) {
+        box.score = score[i];
+        box.x1 = x1[i];
+        box.y1 = y1[i];
+        box.x2 = x2[i];
+        box.y2 = y2[i];
+        return box;
+    }
+
+    /** Copies landmark point of entry i into landMark. */
+    public LandMark getLandMark(int i, int point, LandMark landMark) {
+        final int offset = (i * LandMark.COUNT + point) * 2;
+        landMark.x = landmarks[offset];
+        landMark.y = landmarks[offset + 1];
+        return landMark;
+    }
+
+    private static float[] grow(float[] src, int capacity) {
+        float[] dst = new float[capacity];
+        System.arraycopy(src, 0, dst, 0, src.length);
+        return dst;
+    }
+
+    private static int[] grow(int[] src, int capacity) {
+        int[] dst = new int[capacity];
+        System.arraycopy(src, 0, dst, 0, src.length);
+        return dst;
+    }
+}
@@ -0,0 +1,125 @@
+package com.hisona.facedetection;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * A batch of aligned size x size face crops, the input of a recognition model, written by
+ * {@link FaceAligner}.
+ *
+ * In {@link Format#FLOAT} the chips are normalized planar R, G, B floats, [count, 3, size, size]
+ * like the detector input; in {@link Format#UINT8} they are interleaved R, G, B bytes,
+ * [count, size, size, 3]. Buffers only grow, so a batch reused for every frame does not
+ * allocate once it has held the largest face count.
+ */
+public class FaceChips {
+
+    public enum Format {
+        FLOAT,
+        UINT8,
+    }
+
+    public final int size;
+    public final Format format;
+
+    /** Sequence of the frame the faces were found in. */
+    public long sequence;
+    public int count;
+    /** Index of the face of each chip in its {@link DetectionResult}. */
+    public int[] faces;
+    /**
+     * Similarity transform of each chip, 4 values (a, b, tx, ty) per chip: chip pixel (x, y)
+     * was sampled at source pixel (a * x - b * y + tx, b * x + a * y + ty).
+     */
+    public float[] transforms;
+    /** Chips in FLOAT format, null otherwise. */
+    public FloatBuffer floats;
+    /** Chips in UINT8 format, null otherwise. */
+    public ByteBuffer bytes;
+
+    private int capacity;
+
+    public FaceChips(int size, Format format) {
+        this(size, format, 4);
+    }
+
+    public FaceChips(int size, Format format, int capacity) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive: " + size);
+        }
+        this.size = size;
+        this.format = format;
+        allocate(Math.max(1, capacity));
+    }
+
+    private void allocate(int capacity) {
+        this.capacity = capacity;
+        faces = new int[capacity];
+        transforms = new float[4 * capacity];
+        if (format == Format.FLOAT) {
+            floats = ByteBuffer.allocateDirect(capacity * getChipLength() * 4)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+        } else {
+            bytes = ByteBuffer.allocateDirect(capacity * getChipLength());
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /** Grows the buffers to hold capacity chips. The content is not kept. */
+    public void ensureCapacity(int capacity) {
+        if (this.capacity < capacity) {
+            allocate(Math.max(capacity, 2 * this.capacity));
+        }
+    }
+
+    /** Number of values of one chip, 3 x size x size. */
+    public int getChipLength() {
+        return 3 * size * size;
+    }
+
+    /**
+     * Fixed size pool of batches shared by a producer and a consumer thread. Acquiring from an
+     * empty pool allocates; recycling into a full pool drops the batch.
+     */
+    public static class Pool {
+        private final FaceChips[] free;
+        private final int chipSize;
+        private final Format format;
+        private int size;
+        private int allocations;
+
+        public Pool(int maxSize, int chipSize, Format format) {
+            this.free = new FaceChips[maxSize];
+            this.chipSize = chipSize;
+            this.format = format;
+        }
+
+        public synchronized FaceChips acquire() {
+            if (size == 0) {
+                allocations++;
+                return new FaceChips(chipSize, format);
+            }
+            FaceChips chips = free[--size];
+            free[size] = null;
+            chips.count = 0;
+            chips.sequence = 0;
+            return chips;
+        }
+
+        public synchronized void recycle(FaceChips chips) {
+            if (chips != null && size < free.length) {
+                free[size++] = chips;
+            }
+        }
+
+        /** Number of batches created because the pool was empty. */
+        public synchronized int getAllocations() {
+            return allocations;
+        }
+    }
+}
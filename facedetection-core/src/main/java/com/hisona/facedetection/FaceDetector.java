@@ -0,0 +1,100 @@
+package com.hisona.facedetection;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Runs the model through an {@link InferenceBackend} and post-processes its outputs into a
+ * {@link DetectionResult}.
+ *
+ * forward() and decode() may be called from two different threads, as done by
+ * {@link FramePipeline}, but each of them from one thread at a time.
+ */
+public class FaceDetector {
+
+    private final InferenceBackend backend;
+    private final AnchorConfig anchorConfig;
+    private final PostProcessor postProcessor;
+    private final ModelOutputs outputs = new ModelOutputs();
+
+    // anchors of the last few input sizes, see ResolutionController
+    private final AnchorTable[] anchors = new AnchorTable[4];
+    private int nextAnchors;
+
+    public FaceDetector(InferenceBackend backend) {
+        this(backend, AnchorConfig.DEFAULT, new PostProcessor());
+    }
+
+    public FaceDetector(InferenceBackend backend, AnchorConfig anchorConfig, PostProcessor postProcessor) {
+        this.backend = backend;
+        this.anchorConfig = anchorConfig;
+        this.postProcessor = postProcessor;
+    }
+
+    public InferenceBackend getBackend() {
+        return backend;
+    }
+
+    public PostProcessor getPostProcessor() {
+        return postProcessor;
+    }
+
+    /** Anchors of a width x height input, cached for the last few sizes used. */
+    public AnchorTable getAnchors(int width, int height) {
+        final AnchorTable[] anchors = this.anchors;
+        for (AnchorTable table : anchors) {
+            if (table != null && table.width == width && table.height == height) {
+                return table;
+            }
+        }
+        AnchorTable table = AnchorTable.get(width, height, anchorConfig);
+        anchors[nextAnchors] = table;
+        nextAnchors = (nextAnchors + 1) % anchors.length;
+        return table;
+    }
+
+    /** Runs the model and returns its forward time in nanoseconds. */
+    public long forward(FloatBuffer input, int width, int height, ModelOutputs outputs) {
+        long start = System.nanoTime();
+        backend.forward(input, width, height, outputs);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Runs the model on batchSize inputs packed one after another in input and returns the
+     * forward time of the whole batch in nanoseconds. Backends that are not a
+     * {@link BatchInferenceBackend} run the images one at a time.
+     */
+    public long forwardBatch(FloatBuffer input, int batchSize, int width, int height, ModelOutputs[] outputs) {
+        long start = System.nanoTime();
+        if (backend instanceof BatchInferenceBackend) {
+            ((BatchInferenceBackend) backend).forwardBatch(input, batchSize, width, height, outputs);
+        } else {
+            final int imageSize = 3 * width * height;
+            for (int i = 0; i < batchSize; i++) {
+                FloatBuffer image = input.duplicate();
+                image.limit((i + 1) * imageSize);
+                image.position(i * imageSize);
+                backend.forward(image.slice(), width, height, outputs[i]);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /** Post-processes outputs of a width x height input into result. */
+    public DetectionResult decode(ModelOutputs outputs, int width, int height, Letterbox letterbox,
+                                  DetectionResult result) {
+        long start = System.nanoTime();
+        FaceBoxes faces = postProcessor.process(outputs.loc, outputs.cls, outputs.ldm, getAnchors(width, height));
+        result.set(faces, outputs.ldm != null, width, height, letterbox);
+        result.decodeNanos = System.nanoTime() - start;
+        result.nmsNanos = postProcessor.getNmsNanos();
+        return result;
+    }
+
+    /** forward() followed by decode() on the calling thread. */
+    public DetectionResult detect(FloatBuffer input, int width, int height, Letterbox letterbox,
+                                  DetectionResult result) {
+        result.forwardNanos = forward(input, width, height, outputs);
+        return decode(outputs, width, height, letterbox, result);
+    }
+}
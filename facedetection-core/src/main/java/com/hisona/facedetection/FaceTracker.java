@@ -0,0 +1,494 @@
+package com.hisona.facedetection;
+
+/**
+ * Keeps faces between detector runs so the model only has to run on some of the frames.
+ *
+ * Every frame goes through {@link #startFrame()}, which says whether the detector should run
+ * on it, and {@link #track}, which moves the tracks forward one frame. Detector results are
+ * fed back with {@link #update}. The detector is requested every detectInterval frames, when
+ * there is no track, or when the confidence of a track falls below minConfidence.
+ *
+ * Each track follows (cx, cy, w, h) in source image pixels with a constant velocity Kalman
+ * filter, one independent filter per coordinate. Detections are associated to tracks by IoU.
+ * When template matching is on, the luma of the face is sampled on a coarse grid after each
+ * detection and searched for around the predicted position on the frames in between, which
+ * corrects the centre and lowers the confidence as the match gets worse.
+ *
+ * Detector results arrive a few frames after the frame they were computed on, when track() has
+ * already moved the tracks on. {@link #submitted} records which frame a detection belongs to;
+ * update() then associates it with the tracks as they were on that frame and carries the
+ * correction forward to the current one.
+ *
+ * The methods are synchronized: track() runs on the camera thread while update() is called
+ * from the thread delivering detector results.
+ */
+public class FaceTracker {
+
+    public static final int DEFAULT_DETECT_INTERVAL = 5;
+    public static final float DEFAULT_MIN_CONFIDENCE = 0.5f;
+    public static final float DEFAULT_MATCH_IOU = 0.3f;
+    public static final int DEFAULT_MAX_MISSED = 1;
+
+    private static final int MAX_TRACKS = 32;
+    private static final int TEMPLATE_SIZE = 12;
+    private static final int TEMPLATE_CELLS = TEMPLATE_SIZE * TEMPLATE_SIZE;
+    private static final int SEARCH_RADIUS = 2;
+    private static final float CONFIDENCE_DECAY = 0.97f;
+    // mean absolute luma difference at which a template match counts as lost
+    private static final float MAX_MATCH_DIFF = 48.0f;
+
+    // noise as a fraction of the face height, following the usual SORT/DeepSORT tuning
+    private static final float STD_POSITION = 1.0f / 20;
+    private static final float STD_VELOCITY = 1.0f / 160;
+    private static final float STD_TEMPLATE = 1.0f / 10;
+
+    private static final int STATE = 8;
+    private static final int COV = 12;
+    private static final int LDM = 2 * LandMark.COUNT;
+    private static final int MAX_PENDING = 8;
+
+    private final int detectInterval;
+    private final float minConfidence;
+    private final float matchIou;
+    private final int maxMissed;
+    private final boolean templateMatching;
+
+    // tracks, struct of arrays
+    private int count;
+    private final int[] ids = new int[MAX_TRACKS];
+    private final float[] state = new float[MAX_TRACKS * STATE];   // cx, cy, w, h, vcx, vcy, vw, vh
+    private final float[] cov = new float[MAX_TRACKS * COV];       // p00, p01, p11 per coordinate
+    private final float[] score = new float[MAX_TRACKS];
+    private final float[] decay = new float[MAX_TRACKS];
+    private final float[] quality = new float[MAX_TRACKS];
+    private final int[] missed = new int[MAX_TRACKS];
+    private final boolean[] hasLandmarks = new boolean[MAX_TRACKS];
+    private final float[] landmarks = new float[MAX_TRACKS * LDM];  // relative to the box
+    private final boolean[] hasTemplate = new boolean[MAX_TRACKS];
+    private final int[] templates = new int[MAX_TRACKS * TEMPLATE_CELLS];
+    private int nextId;
+
+    // association scratch
+    private final boolean[] trackMatched = new boolean[MAX_TRACKS];
+    private boolean[] detectionMatched = new boolean[0];
+    private final int[] sample = new int[TEMPLATE_CELLS];
+
+    // detections in flight: result sequence and the frame it was computed on
+    private final long[] pendingSequences = new long[MAX_PENDING];
+    private final long[] pendingFrames = new long[MAX_PENDING];
+    private int pendingCount;
+    private long lastSequence = -1;
+
+    private long frames;
+    private long detections;
+    private long lastDetectFrame = Long.MIN_VALUE / 2;
+    private boolean detectionPending;
+
+    public FaceTracker() {
+        this(DEFAULT_DETECT_INTERVAL, DEFAULT_MIN_CONFIDENCE, DEFAULT_MATCH_IOU, DEFAULT_MAX_MISSED, true);
+    }
+
+    /**
+     * @param detectInterval run the detector at least every detectInterval frames
+     * @param minConfidence run the detector when a track falls below this confidence
+     * @param matchIou minimum IoU between a track and a detection to associate them
+     * @param maxMissed detector runs a track may go unmatched before it is dropped
+     * @param templateMatching correct tracks from the luma plane between detections
+     */
+    public FaceTracker(int detectInterval, float minConfidence, float matchIou, int maxMissed,
+                       boolean templateMatching) {
+        this.detectInterval = Math.max(1, detectInterval);
+        this.minConfidence = minConfidence;
+        this.matchIou = matchIou;
+        this.maxMissed = maxMissed;
+        this.templateMatching = templateMatching;
+    }
+
+    /** Starts a new frame; returns true if the detector should run on it. */
+    public synchronized boolean startFrame() {
+        frames++;
+        long since = frames - lastDetectFrame;
+        // a detection may have been dropped by the pipeline, do not wait for it forever
+        if (detectionPending && since <= detectInterval) {
+            return false;
+        }
+        boolean detect = count == 0 || since >= detectInterval;
+        for (int t = 0; t < count && !detect; t++) {
+            detect = confidence(t) < minConfidence;
+        }
+        if (detect) {
+            detections++;
+            lastDetectFrame = frames;
+            detectionPending = true;
+        }
+        return detect;
+    }
+
+    private float confidence(int t) {
+        return score[t] * decay[t] * quality[t];
+    }
+
+    /**
+     * Advances every track by one frame and writes them into out.
+     *
+     * @param luma Y plane of the frame for template matching, or null
+     */
+    public synchronized DetectionResult track(LumaPlane luma, Letterbox letterbox, int modelWidth, int modelHeight,
+                                              DetectionResult out) {
+        for (int t = 0; t < count; t++) {
+            predict(t);
+            decay[t] *= CONFIDENCE_DECAY;
+            if (templateMatching && luma != null) {
+                if (hasTemplate[t]) {
+                    matchTemplate(t, luma);
+                } else {
+                    sampleTemplate(luma, t, 0, 0, templates, t * TEMPLATE_CELLS);
+                    hasTemplate[t] = true;
+                }
+            }
+        }
+        write(letterbox, modelWidth, modelHeight, out);
+        return out;
+    }
+
+    /**
+     * Records that the detection requested by the last startFrame() will come back as the
+     * result with the given sequence. Results of unrecorded sequences count as current.
+     */
+    public synchronized void submitted(long sequence) {
+        if (sequence <= lastSequence) {
+            // the result came back first and was taken as current
+            return;
+        }
+        if (pendingCount == MAX_PENDING) {
+            System.arraycopy(pendingSequences, 1, pendingSequences, 0, MAX_PENDING - 1);
+            System.arraycopy(pendingFrames, 1, pendingFrames, 0, MAX_PENDING - 1);
+            pendingCount--;
+        }
+        pendingSequences[pendingCount] = sequence;
+        pendingFrames[pendingCount] = frames;
+        pendingCount++;
+    }
+
+    /** Frames elapsed since the one result was computed on; forgets it and older sequences. */
+    private long age(long sequence) {
+        lastSequence = Math.max(lastSequence, sequence);
+        long age = 0;
+        int kept = 0;
+        for (int i = 0; i < pendingCount; i++) {
+            if (pendingSequences[i] == sequence) {
+                age = frames - pendingFrames[i];
+            } else if (pendingSequences[i] > sequence) {
+                pendingSequences[kept] = pendingSequences[i];
+                pendingFrames[kept] = pendingFrames[i];
+                kept++;
+            }
+        }
+        pendingCount = kept;
+        return age;
+    }
+
+    /**
+     * Associates detector results with the tracks, corrects matched tracks, starts tracks for
+     * new faces and drops lost ones. The track ids are written into result.
+     */
+    public synchronized void update(DetectionResult result) {
+        detectionPending = false;
+        final float age = age(result.sequence);
+        final int n = result.count;
+        if (detectionMatched.length < n) {
+            detectionMatched = new boolean[n];
+        }
+        for (int i = 0; i < n; i++) {
+            detectionMatched[i] = false;
+            result.trackIds[i] = -1;
+        }
+        for (int t = 0; t < count; t++) {
+            trackMatched[t] = false;
+        }
+
+        // greedy association, best IoU pair first
+        while (true) {
+            int bestTrack = -1;
+            int bestDetection = -1;
+            float bestIou = matchIou;
+            for (int t = 0; t < count; t++) {
+                if (trackMatched[t]) continue;
+                // the track as it was on the frame of the detection
+                final int s = t * STATE;
+                final float cx = state[s] - age * state[s + 4];
+                final float cy = state[s + 1] - age * state[s + 5];
+                final float w = state[s + 2] - age * state[s + 6];
+                final float h = state[s + 3] - age * state[s + 7];
+                final float tx1 = cx - w * 0.5f;
+                final float ty1 = cy - h * 0.5f;
+                final float tx2 = cx + w * 0.5f;
+                final float ty2 = cy + h * 0.5f;
+                for (int i = 0; i < n; i++) {
+                    if (detectionMatched[i]) continue;
+                    final float[] b = result.sourceBoxes;
+                    final float iou = NonMaxSuppression.iou(tx1, ty1, tx2, ty2,
+                            b[4 * i], b[4 * i + 1], b[4 * i + 2], b[4 * i + 3]);
+                    if (iou > bestIou) {
+                        bestIou = iou;
+                        bestTrack = t;
+                        bestDetection = i;
+                    }
+                }
+            }
+            if (bestTrack < 0) {
+                break;
+            }
+            trackMatched[bestTrack] = true;
+            detectionMatched[bestDetection] = true;
+            correct(bestTrack, result, bestDetection, age);
+            result.trackIds[bestDetection] = ids[bestTrack];
+        }
+
+        for (int t = 0; t < count; t++) {
+            if (!trackMatched[t]) {
+                missed[t]++;
+            }
+        }
+        for (int t = count - 1; t >= 0; t--) {
+            if (missed[t] > maxMissed) {
+                remove(t);
+            }
+        }
+        for (int i = 0; i < n && count < MAX_TRACKS; i++) {
+            if (!detectionMatched[i]) {
+                result.trackIds[i] = start(result, i);
+            }
+        }
+    }
+
+    /** Drops every track. */
+    public synchronized void reset() {
+        count = 0;
+        pendingCount = 0;
+        lastSequence = -1;
+        detectionPending = false;
+        lastDetectFrame = Long.MIN_VALUE / 2;
+    }
+
+    public synchronized int getTrackCount() {
+        return count;
+    }
+
+    public synchronized long getFrameCount() {
+        return frames;
+    }
+
+    /** Number of frames the detector was requested for. */
+    public synchronized long getDetectionCount() {
+        return detections;
+    }
+
+    /** Fraction of frames the detector was requested for. */
+    public synchronized float getDetectionRate() {
+        return frames > 0 ? (float) detections / frames : 0.0f;
+    }
+
+    private int start(DetectionResult result, int i) {
+        final int t = count++;
+        ids[t] = nextId++;
+        missed[t] = 0;
+        setAttributes(t, result, i);
+
+        final int s = t * STATE;
+        final float[] b = result.sourceBoxes;
+        final float w = b[4 * i + 2] - b[4 * i];
+        final float h = b[4 * i + 3] - b[4 * i + 1];
+        state[s] = b[4 * i] + w * 0.5f;
+        state[s + 1] = b[4 * i + 1] + h * 0.5f;
+        state[s + 2] = w;
+        state[s + 3] = h;
+        state[s + 4] = 0;
+        state[s + 5] = 0;
+        state[s + 6] = 0;
+        state[s + 7] = 0;
+
+        final float pos = 2 * STD_POSITION * h;
+        final float vel = 10 * STD_VELOCITY * h;
+        for (int d = 0; d < 4; d++) {
+            final int c = t * COV + d * 3;
+            cov[c] = pos * pos;
+            cov[c + 1] = 0;
+            cov[c + 2] = vel * vel;
+        }
+        return ids[t];
+    }
+
+    /** Takes score and landmarks of detection i, and schedules a new template. */
+    private void setAttributes(int t, DetectionResult result, int i) {
+        final float[] b = result.sourceBoxes;
+        final float w = b[4 * i + 2] - b[4 * i];
+        final float h = b[4 * i + 3] - b[4 * i + 1];
+        score[t] = result.scores[i];
+        decay[t] = 1.0f;
+        quality[t] = 1.0f;
+        hasTemplate[t] = false;
+        hasLandmarks[t] = result.hasLandmarks && w > 0 && h > 0;
+        if (hasLandmarks[t]) {
+            for (int p = 0; p < LDM; p += 2) {
+                landmarks[t * LDM + p] = (result.sourceLandmarks[i * LDM + p] - b[4 * i]) / w;
+                landmarks[t * LDM + p + 1] = (result.sourceLandmarks[i * LDM + p + 1] - b[4 * i + 1]) / h;
+            }
+        }
+    }
+
+    /** Corrects track t with detection i, computed age frames ago. */
+    private void correct(int t, DetectionResult result, int i, float age) {
+        final float[] b = result.sourceBoxes;
+        final float w = b[4 * i + 2] - b[4 * i];
+        final float h = b[4 * i + 3] - b[4 * i + 1];
+        final float r = STD_POSITION * Math.max(state[t * STATE + 3], 1.0f);
+
+        setAttributes(t, result, i);
+        missed[t] = 0;
+
+        kalmanUpdate(t, 0, b[4 * i] + w * 0.5f, r, age);
+        kalmanUpdate(t, 1, b[4 * i + 1] + h * 0.5f, r, age);
+        kalmanUpdate(t, 2, w, r, age);
+        kalmanUpdate(t, 3, h, r, age);
+    }
+
+    private void predict(int t) {
+        final int s = t * STATE;
+        final float h = Math.max(state[s + 3], 1.0f);
+        final float qp = (STD_POSITION * h) * (STD_POSITION * h);
+        final float qv = (STD_VELOCITY * h) * (STD_VELOCITY * h);
+        for (int d = 0; d < 4; d++) {
+            state[s + d] += state[s + 4 + d];
+            final int c = t * COV + d * 3;
+            cov[c] += 2 * cov[c + 1] + cov[c + 2] + qp;
+            cov[c + 1] += cov[c + 2];
+            cov[c + 2] += qv;
+        }
+    }
+
+    /**
+     * Corrects coordinate d with measurement z taken age frames ago: the innovation is taken
+     * against the state rolled back to that frame, and the velocity correction is predicted
+     * forward again over the age frames.
+     */
+    private void kalmanUpdate(int t, int d, float z, float r, float age) {
+        final int s = t * STATE;
+        final int c = t * COV + d * 3;
+        final float p00 = cov[c], p01 = cov[c + 1], p11 = cov[c + 2];
+        final float inv = 1.0f / (p00 + r * r);
+        final float k0 = p00 * inv;
+        final float k1 = p01 * inv;
+        final float y = z - (state[s + d] - age * state[s + 4 + d]);
+        state[s + d] += (k0 + age * k1) * y;
+        state[s + 4 + d] += k1 * y;
+        cov[c] = (1 - k0) * p00;
+        cov[c + 1] = (1 - k0) * p01;
+        cov[c + 2] = p11 - k1 * p01;
+    }
+
+    private void sampleTemplate(LumaPlane luma, int t, float dx, float dy, int[] out, int offset) {
+        final int s = t * STATE;
+        final float w = state[s + 2];
+        final float h = state[s + 3];
+        final float x0 = state[s] - w * 0.5f + dx;
+        final float y0 = state[s + 1] - h * 0.5f + dy;
+        final float stepX = w / TEMPLATE_SIZE;
+        final float stepY = h / TEMPLATE_SIZE;
+        int k = offset;
+        for (int j = 0; j < TEMPLATE_SIZE; j++) {
+            final int y = (int) (y0 + (j + 0.5f) * stepY);
+            for (int i = 0; i < TEMPLATE_SIZE; i++) {
+                out[k++] = luma.get((int) (x0 + (i + 0.5f) * stepX), y);
+            }
+        }
+    }
+
+    private void matchTemplate(int t, LumaPlane luma) {
+        final int s = t * STATE;
+        final float stepX = state[s + 2] / TEMPLATE_SIZE;
+        final float stepY = state[s + 3] / TEMPLATE_SIZE;
+        final int base = t * TEMPLATE_CELLS;
+
+        int best = Integer.MAX_VALUE;
+        float bestX = 0, bestY = 0;
+        for (int oy = -SEARCH_RADIUS; oy <= SEARCH_RADIUS; oy++) {
+            for (int ox = -SEARCH_RADIUS; ox <= SEARCH_RADIUS; ox++) {
+                sampleTemplate(luma, t, ox * stepX, oy * stepY, sample, 0);
+                int sad = 0;
+                for (int k = 0; k < TEMPLATE_CELLS && sad < best; k++) {
+                    sad += Math.abs(sample[k] - templates[base + k]);
+                }
+                if (sad < best) {
+                    best = sad;
+                    bestX = ox * stepX;
+                    bestY = oy * stepY;
+                }
+            }
+        }
+
+        final float diff = (float) best / TEMPLATE_CELLS;
+        quality[t] = Math.max(0.0f, 1.0f - diff / MAX_MATCH_DIFF);
+        if (quality[t] > 0) {
+            final float r = STD_TEMPLATE * Math.max(state[s + 3], 1.0f);
+            kalmanUpdate(t, 0, state[s] + bestX, r, 0);
+            kalmanUpdate(t, 1, state[s + 1] + bestY, r, 0);
+        }
+    }
+
+    private void write(Letterbox letterbox, int modelWidth, int modelHeight, DetectionResult out) {
+        out.ensureCapacity(count);
+        out.count = count;
+        out.modelWidth = modelWidth;
+        out.modelHeight = modelHeight;
+        out.sourceWidth = letterbox.sourceWidth;
+        out.sourceHeight = letterbox.sourceHeight;
+        out.cropped = letterbox.isCropped();
+        out.hasLandmarks = count > 0;
+
+        for (int t = 0; t < count; t++) {
+            final int s = t * STATE;
+            final float w = state[s + 2];
+            final float h = state[s + 3];
+            final float x1 = state[s] - w * 0.5f;
+            final float y1 = state[s + 1] - h * 0.5f;
+            out.scores[t] = confidence(t);
+            out.trackIds[t] = ids[t];
+            out.sourceBoxes[4 * t] = x1;
+            out.sourceBoxes[4 * t + 1] = y1;
+            out.sourceBoxes[4 * t + 2] = x1 + w;
+            out.sourceBoxes[4 * t + 3] = y1 + h;
+            out.hasLandmarks &= hasLandmarks[t];
+            for (int p = 0; p < LDM; p += 2) {
+                out.sourceLandmarks[t * LDM + p] = x1 + landmarks[t * LDM + p] * w;
+                out.sourceLandmarks[t * LDM + p + 1] = y1 + landmarks[t * LDM + p + 1] * h;
+            }
+        }
+        for (int i = 0; i < 4 * count; i += 2) {
+            out.boxes[i] = letterbox.toModelX(out.sourceBoxes[i]);
+            out.boxes[i + 1] = letterbox.toModelY(out.sourceBoxes[i + 1]);
+        }
+        for (int i = 0; i < LDM * count; i += 2) {
+            out.landmarks[i] = letterbox.toModelX(out.sourceLandmarks[i]);
+            out.landmarks[i + 1] = letterbox.toModelY(out.sourceLandmarks[i + 1]);
+        }
+    }
+
+    private void remove(int t) {
+        final int last = --count;
+        if (t == last) {
+            return;
+        }
+        ids[t] = ids[last];
+        System.arraycopy(state, last * STATE, state, t * STATE, STATE);
+        System.arraycopy(cov, last * COV, cov, t * COV, COV);
+        score[t] = score[last];
+        decay[t] = decay[last];
+        quality[t] = quality[last];
+        missed[t] = missed[last];
+        hasLandmarks[t] = hasLandmarks[last];
+        System.arraycopy(landmarks, last * LDM, landmarks, t * LDM, LDM);
+        hasTemplate[t] = hasTemplate[last];
+        System.arraycopy(templates, last * TEMPLATE_CELLS, templates, t * TEMPLATE_CELLS, TEMPLATE_CELLS);
+    }
+}
@@ -0,0 +1,65 @@
+package com.hisona.facedetection;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Appends the metrics to a text file for offline analysis, each report preceded by a line
+ * with its wall clock time in milliseconds.
+ *
+ * Once the file reaches maxBytes it is renamed to file.1, replacing the previous one, and a
+ * new file is started, so at most about twice maxBytes are kept on disk.
+ */
+public class FileMetricsExporter implements MetricsExporter {
+
+    private final File file;
+    private final File previous;
+    private final long maxBytes;
+    private final StringBuilder builder = new StringBuilder();
+    private volatile IOException lastError;
+
+    public FileMetricsExporter(File file, long maxBytes) {
+        this.file = file;
+        this.previous = new File(file.getPath() + ".1");
+        this.maxBytes = maxBytes;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void export(PipelineMetrics metrics) {
+        builder.setLength(0);
+        builder.append("# ").append(System.currentTimeMillis()).append('\n');
+        metrics.format(builder);
+        if (file.length() >= maxBytes) {
+            rotate();
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)) {
+            writer.append(builder);
+        } catch (IOException e) {
+            // keep the app running, the error is kept for whoever reads the dump
+            lastError = e;
+        }
+    }
+
+    private void rotate() {
+        if (previous.exists() && !previous.delete()) {
+            lastError = new IOException("Cannot delete " + previous);
+            return;
+        }
+        if (!file.renameTo(previous)) {
+            lastError = new IOException("Cannot rename " + file + " to " + previous);
+        }
+    }
+
+    /** Last write failure, null if every export succeeded. */
+    public IOException getLastError() {
+        return lastError;
+    }
+}
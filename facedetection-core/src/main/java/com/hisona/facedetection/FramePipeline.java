@@ -0,0 +1,278 @@
+package com.hisona.facedetection;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs inference and post-processing of consecutive frames on separate threads, so frame N+1
+ * can be preprocessed while frame N is in forward() and frame N-1 is being decoded.
+ *
+ * <pre>
+ *   producer:  acquireFrame() -> fill input -> submit()
+ *   inference: forward()                       [inference queue]
+ *   decode:    decode() -> Listener.onResult() [decode queue]
+ * </pre>
+ *
+ * Stages are connected by bounded {@link RingBuffer}s. When a stage falls behind, its queue
+ * drops the oldest frame, so the pipeline always works on the most recent frames. Each stage
+ * has one thread and the queues are FIFO, so results are delivered in submission order.
+ *
+ * acquireFrame() and submit() must be called from a single producer thread.
+ */
+public class FramePipeline {
+
+    /** Receives results on the decode thread. The result must be recycled into the result pool. */
+    public interface Listener {
+        void onResult(DetectionResult result);
+    }
+
+    /** A frame slot, reused once its result has been delivered. */
+    public static class Frame {
+        // input sizes a frame keeps buffers for, see ResolutionController
+        private static final int MAX_INPUT_SIZES = 4;
+
+        public long sequence;
+        public int width;
+        public int height;
+        public FloatBuffer input;
+        public final Letterbox letterbox = new Letterbox();
+        public final ModelOutputs outputs = new ModelOutputs();
+
+        // nanoTime when the producer acquired the frame
+        public long startNanos;
+        public long convertNanos;
+        long forwardNanos;
+
+        private final FloatBuffer[] inputs = new FloatBuffer[MAX_INPUT_SIZES];
+        private final int[] inputWidths = new int[MAX_INPUT_SIZES];
+        private final int[] inputHeights = new int[MAX_INPUT_SIZES];
+        private int nextEvicted;
+
+        /**
+         * Makes sure input is sized for a width x height model input. The buffer of each size
+         * is kept, so switching back to a size used before does not allocate.
+         */
+        public FloatBuffer ensureInput(int width, int height) {
+            if (input == null || this.width != width || this.height != height) {
+                input = null;
+                int free = -1;
+                for (int i = 0; i < MAX_INPUT_SIZES; i++) {
+                    if (inputs[i] == null) {
+                        if (free < 0) free = i;
+                    } else if (inputWidths[i] == width && inputHeights[i] == height) {
+                        input = inputs[i];
+                        break;
+                    }
+                }
+                if (input == null) {
+                    if (free < 0) {
+                        free = nextEvicted;
+                        nextEvicted = (nextEvicted + 1) % MAX_INPUT_SIZES;
+                    }
+                    input = ByteBuffer.allocateDirect(3 * width * height * 4)
+                            .order(ByteOrder.nativeOrder())
+                            .asFloatBuffer();
+                    inputs[free] = input;
+                    inputWidths[free] = width;
+                    inputHeights[free] = height;
+                }
+            }
+            this.width = width;
+            this.height = height;
+            return input;
+        }
+    }
+
+    private final FaceDetector detector;
+    private final Listener listener;
+
+    private final RingBuffer<Frame> freeFrames;
+    private final RingBuffer<Frame> inferenceQueue;
+    private final RingBuffer<Frame> decodeQueue;
+    private final DetectionResult.Pool resultPool;
+
+    private final Thread inferenceThread;
+    private final Thread decodeThread;
+    private volatile boolean running = true;
+
+    private long nextSequence;
+    private volatile long submitted;
+    private volatile long completed;
+    private volatile long exhausted;
+    private volatile long lastDelivered = -1;
+
+    /**
+     * @param queueCapacity capacity of each stage queue
+     * @param resultPool pool results are taken from
+     */
+    public FramePipeline(FaceDetector detector, int queueCapacity, DetectionResult.Pool resultPool,
+                         Listener listener) {
+        this.detector = detector;
+        this.listener = listener;
+        this.resultPool = resultPool;
+
+        this.inferenceQueue = new RingBuffer<>(queueCapacity);
+        this.decodeQueue = new RingBuffer<>(queueCapacity);
+
+        // one frame per queue slot, plus the ones held by the producer and the two stages
+        int frameCount = inferenceQueue.capacity() + decodeQueue.capacity() + 3;
+        this.freeFrames = new RingBuffer<>(frameCount);
+        for (int i = 0; i < frameCount; i++) {
+            freeFrames.offer(new Frame());
+        }
+
+        inferenceThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runInference();
+            }
+        }, "FramePipeline-inference");
+        decodeThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runDecode();
+            }
+        }, "FramePipeline-decode");
+        inferenceThread.start();
+        decodeThread.start();
+    }
+
+    /**
+     * Returns a free frame for the producer to fill, or null when every frame is in flight;
+     * the caller should then skip the camera frame.
+     */
+    public Frame acquireFrame() {
+        Frame frame = freeFrames.poll();
+        if (frame == null) {
+            exhausted++;
+            return null;
+        }
+        frame.startNanos = System.nanoTime();
+        frame.convertNanos = 0;
+        return frame;
+    }
+
+    /** Queues a filled frame for inference. */
+    public void submit(Frame frame) {
+        frame.sequence = nextSequence++;
+        submitted++;
+        release(inferenceQueue.offerDropOldest(frame));
+        LockSupport.unpark(inferenceThread);
+    }
+
+    /** Returns a frame acquired but not submitted. */
+    public void cancel(Frame frame) {
+        release(frame);
+    }
+
+    private void release(Frame frame) {
+        if (frame != null) {
+            freeFrames.offer(frame);
+        }
+    }
+
+    private void runInference() {
+        while (running) {
+            Frame frame = inferenceQueue.poll();
+            if (frame == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            frame.forwardNanos = detector.forward(frame.input, frame.width, frame.height, frame.outputs);
+            release(decodeQueue.offerDropOldest(frame));
+            LockSupport.unpark(decodeThread);
+        }
+    }
+
+    private void runDecode() {
+        while (running) {
+            Frame frame = decodeQueue.poll();
+            if (frame == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            DetectionResult result = resultPool.acquire();
+            detector.decode(frame.outputs, frame.width, frame.height, frame.letterbox, result);
+            result.sequence = frame.sequence;
+            result.convertNanos = frame.convertNanos;
+            result.forwardNanos = frame.forwardNanos;
+            result.totalNanos = System.nanoTime() - frame.startNanos;
+            lastDelivered = frame.sequence;
+            release(frame);
+
+            completed++;
+            listener.onResult(result);
+        }
+    }
+
+    /** Stops both stage threads once they finish the frame in progress. */
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(inferenceThread);
+        LockSupport.unpark(decodeThread);
+    }
+
+    /** Waits for the stage threads to stop after {@link #shutdown()}. */
+    public void awaitTermination() throws InterruptedException {
+        inferenceThread.join();
+        decodeThread.join();
+    }
+
+    /**
+     * Waits at most timeout for the stage threads to stop after {@link #shutdown()}.
+     *
+     * @return false if the timeout elapsed first
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Thread thread : new Thread[]{inferenceThread, decodeThread}) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining > 0) {
+                thread.join(TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+            }
+            if (thread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getInferenceQueueDepth() {
+        return inferenceQueue.size();
+    }
+
+    public int getDecodeQueueDepth() {
+        return decodeQueue.size();
+    }
+
+    /** Frames dropped because inference fell behind. */
+    public long getInferenceDrops() {
+        return inferenceQueue.getDropCount();
+    }
+
+    /** Frames dropped because decoding fell behind. */
+    public long getDecodeDrops() {
+        return decodeQueue.getDropCount();
+    }
+
+    /** Camera frames skipped because no free frame was available. */
+    public long getExhaustedDrops() {
+        return exhausted;
+    }
+
+    public long getSubmittedFrames() {
+        return submitted;
+    }
+
+    public long getCompletedFrames() {
+        return completed;
+    }
+
+    /** Sequence number of the last delivered result, -1 before the first one. */
+    public long getLastDelivered() {
+        return lastDelivered;
+    }
+}
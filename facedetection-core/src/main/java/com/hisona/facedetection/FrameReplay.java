@@ -0,0 +1,302 @@
+package com.hisona.facedetection;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Feeds recorded camera frames through the conversion, inference and post-processing of the
+ * analyzer, without a camera or a device, and reports throughput, stage latencies and the
+ * detections of every frame.
+ *
+ * Frames run one after another on the calling thread, as fast as possible or at a fixed rate.
+ * With a {@link ReplayBackend} the detections are deterministic, so they can be compared with
+ * golden outputs to check that a change kept the results; see {@link #main} for the command
+ * line used to gate releases. Each output line carries a checksum of the converted model
+ * input, so a change in YUV conversion or normalization shows up even though the replayed
+ * model outputs do not depend on the input. {@link #recordOutputs} captures the outputs of
+ * the real model for a recording.
+ */
+public class FrameReplay {
+
+    /** Outcome of a replay. */
+    public static class Report {
+        public int frames;
+        public long elapsedNanos;
+        /** Frames that started later than their slot at a fixed rate. */
+        public int lateFrames;
+        public final PipelineMetrics metrics = new PipelineMetrics();
+        /** One line per frame, see {@link #formatResult}. */
+        public final List<String> outputs = new ArrayList<>();
+
+        /** Frames per second over the whole replay. */
+        public float getThroughput() {
+            return elapsedNanos > 0 ? frames * 1e9f / elapsedNanos : 0.0f;
+        }
+
+        public StringBuilder format(StringBuilder out) {
+            out.append(String.format(Locale.US, "%d frames in %.2f s, %.1f fps, %d late\n",
+                    frames, elapsedNanos / 1e9, getThroughput(), lateFrames));
+            return metrics.format(out);
+        }
+    }
+
+    private final FaceDetector detector;
+    private final int inputSize;
+    private final YuvConverter converter = new YuvConverter();
+    private final Letterbox letterbox = new Letterbox();
+    private final DetectionResult result = new DetectionResult();
+    private final ByteBuffer inputBytes;
+    private final FloatBuffer input;
+    private final CRC32 checksum = new CRC32();
+    private final byte[] checksumChunk = new byte[16384];
+    private long frameIntervalNanos;
+
+    public FrameReplay(FaceDetector detector, int inputSize) {
+        this.detector = detector;
+        this.inputSize = inputSize;
+        this.inputBytes = ByteBuffer.allocateDirect(3 * inputSize * inputSize * 4)
+                .order(ByteOrder.nativeOrder());
+        this.input = inputBytes.asFloatBuffer();
+    }
+
+    /** Replays at fps frames per second, or as fast as possible when fps is 0. */
+    public void setRate(float fps) {
+        frameIntervalNanos = fps > 0 ? (long) (1e9 / fps) : 0;
+    }
+
+    /** Replays every frame of recording loops times. */
+    public Report run(YuvFrameFile recording, int loops) {
+        Report report = new Report();
+        final long start = System.nanoTime();
+        for (int loop = 0; loop < loops; loop++) {
+            for (int i = 0; i < recording.getFrameCount(); i++) {
+                if (frameIntervalNanos > 0) {
+                    final long slot = start + report.frames * frameIntervalNanos;
+                    final long wait = slot - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    } else if (report.frames > 0) {
+                        report.lateFrames++;
+                    }
+                }
+                YuvFrameFile.Frame frame = recording.getFrame(i);
+                report.metrics.onCameraFrame(frame.timestampNanos);
+                process(frame, report.frames);
+                report.metrics.recordResult(result);
+                report.metrics.record(PipelineMetrics.Stage.END_TO_END, result.totalNanos);
+                report.metrics.onResultShown(result, System.nanoTime());
+                if (loop == 0) {
+                    report.outputs.add(formatResult(result, inputChecksum()));
+                }
+                report.frames++;
+            }
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    private void process(YuvFrameFile.Frame frame, long sequence) {
+        final long start = System.nanoTime();
+        converter.configure(frame.width, frame.height, frame.yRowStride, frame.uvRowStride, frame.uvPixelStride,
+                frame.rotation, frame.flip, inputSize, inputSize);
+        converter.convert(frame.y, frame.u, frame.v, PixelNormalizer.FACE_MEAN, PixelNormalizer.FACE_STD, input, 0);
+        converter.getLetterbox(letterbox);
+        final long convertNanos = System.nanoTime() - start;
+
+        detector.detect(input, inputSize, inputSize, letterbox, result);
+        result.sequence = sequence;
+        result.convertNanos = convertNanos;
+        result.totalNanos = System.nanoTime() - start;
+    }
+
+    /** CRC32 of the bytes of the last converted input. */
+    private long inputChecksum() {
+        // through an array, CRC32.update(ByteBuffer) needs Android 8
+        checksum.reset();
+        inputBytes.clear();
+        while (inputBytes.hasRemaining()) {
+            final int n = Math.min(checksumChunk.length, inputBytes.remaining());
+            inputBytes.get(checksumChunk, 0, n);
+            checksum.update(checksumChunk, 0, n);
+        }
+        inputBytes.clear();
+        return checksum.getValue();
+    }
+
+    /**
+     * Runs every frame of recording once through model, converted like {@link #run} does, and
+     * writes the outputs to out for {@link ReplayBackend#read}. Does not close out.
+     *
+     * @return number of frames recorded
+     */
+    public static int recordOutputs(YuvFrameFile recording, InferenceBackend model, int inputSize,
+                                    OutputStream out) throws IOException {
+        RecordingBackend recorder = new RecordingBackend(model);
+        new FrameReplay(new FaceDetector(recorder), inputSize).run(recording, 1);
+        recorder.write(out);
+        return recorder.getFrameCount();
+    }
+
+    /** Same as {@link #formatResult(DetectionResult, long)} without the input checksum. */
+    public static String formatResult(DetectionResult result) {
+        return formatDetections(result).toString();
+    }
+
+    /**
+     * "count score x1 y1 x2 y2 ... in=checksum" with the boxes in source pixels and the CRC32
+     * of the model input in hex, which {@link #compare} matches exactly.
+     */
+    public static String formatResult(DetectionResult result, long inputChecksum) {
+        return formatDetections(result).append(String.format(Locale.US, " in=%08x", inputChecksum)).toString();
+    }
+
+    private static StringBuilder formatDetections(DetectionResult result) {
+        StringBuilder line = new StringBuilder();
+        line.append(result.count);
+        for (int i = 0; i < result.count; i++) {
+            line.append(String.format(Locale.US, " %.4f %.1f %.1f %.1f %.1f", result.scores[i],
+                    result.sourceBoxes[4 * i], result.sourceBoxes[4 * i + 1],
+                    result.sourceBoxes[4 * i + 2], result.sourceBoxes[4 * i + 3]));
+        }
+        return line;
+    }
+
+    /**
+     * Compares outputs with golden outputs line by line, numbers within tolerance, and appends
+     * a description of every difference to diffs.
+     *
+     * @return number of differing frames
+     */
+    public static int compare(List<String> golden, List<String> outputs, float tolerance, StringBuilder diffs) {
+        int mismatches = 0;
+        final int frames = Math.max(golden.size(), outputs.size());
+        for (int i = 0; i < frames; i++) {
+            String expected = i < golden.size() ? golden.get(i) : "<missing>";
+            String actual = i < outputs.size() ? outputs.get(i) : "<missing>";
+            if (!sameLine(expected, actual, tolerance)) {
+                mismatches++;
+                diffs.append("frame ").append(i).append(": expected ").append(expected)
+                        .append(", got ").append(actual).append('\n');
+            }
+        }
+        return mismatches;
+    }
+
+    private static boolean sameLine(String expected, String actual, float tolerance) {
+        String[] a = expected.trim().split(" +");
+        String[] b = actual.trim().split(" +");
+        if (a.length != b.length) {
+            return false;
+        }
+        for (int i = 0; i < a.length; i++) {
+            try {
+                if (Math.abs(Float.parseFloat(a[i]) - Float.parseFloat(b[i])) > tolerance) {
+                    return false;
+                }
+            } catch (NumberFormatException e) {
+                if (!a[i].equals(b[i])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replays a recording headless.
+     *
+     * <pre>
+     * FrameReplay frames.yuv [--outputs outputs.bin] [--size 640] [--rate fps] [--loops n]
+     *             [--golden golden.txt] [--write-golden golden.txt] [--tolerance 0.5]
+     *             [--min-fps fps]
+     * </pre>
+     *
+     * outputs.bin holds the model outputs for frames.yuv, saved on a device by
+     * {@link #recordOutputs}; without it the model finds no face and only conversion and
+     * post-processing are measured and checked. Exits with 1 when the outputs differ from the
+     * golden ones or the throughput is below min-fps.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: FrameReplay frames.yuv [--outputs outputs.bin] [--size 640]"
+                    + " [--rate fps] [--loops n] [--golden golden.txt] [--write-golden golden.txt]"
+                    + " [--tolerance 0.5] [--min-fps fps]");
+            System.exit(2);
+        }
+        File frames = new File(args[0]);
+        File outputs = null;
+        File golden = null;
+        File writeGolden = null;
+        int size = 640;
+        float rate = 0;
+        int loops = 1;
+        float tolerance = 0.5f;
+        float minFps = 0;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--outputs": outputs = new File(value); break;
+                case "--size": size = Integer.parseInt(value); break;
+                case "--rate": rate = Float.parseFloat(value); break;
+                case "--loops": loops = Integer.parseInt(value); break;
+                case "--golden": golden = new File(value); break;
+                case "--write-golden": writeGolden = new File(value); break;
+                case "--tolerance": tolerance = Float.parseFloat(value); break;
+                case "--min-fps": minFps = Float.parseFloat(value); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        ReplayBackend backend;
+        if (outputs != null) {
+            try (InputStream in = new FileInputStream(outputs)) {
+                backend = ReplayBackend.read(in);
+            }
+        } else {
+            int anchors = AnchorConfig.DEFAULT.getAnchorCount(size, size);
+            ModelOutputs empty = new ModelOutputs();
+            empty.loc = new float[4 * anchors];
+            empty.cls = new float[2 * anchors];
+            empty.ldm = new float[2 * LandMark.COUNT * anchors];
+            backend = new ReplayBackend(empty);
+        }
+
+        FrameReplay replay = new FrameReplay(new FaceDetector(backend), size);
+        replay.setRate(rate);
+        Report report = replay.run(YuvFrameFile.open(frames), loops);
+        System.out.print(report.format(new StringBuilder()));
+
+        boolean failed = false;
+        if (writeGolden != null) {
+            Files.write(writeGolden.toPath(), report.outputs, StandardCharsets.UTF_8);
+        }
+        if (golden != null) {
+            StringBuilder diffs = new StringBuilder();
+            int mismatches = compare(Files.readAllLines(golden.toPath(), StandardCharsets.UTF_8),
+                    report.outputs, tolerance, diffs);
+            System.out.println(mismatches + " frames differ from " + golden);
+            System.out.print(diffs);
+            failed = mismatches > 0;
+        }
+        if (report.getThroughput() < minFps) {
+            System.out.println(String.format(Locale.US, "Throughput below %.1f fps", minFps));
+            failed = true;
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+}
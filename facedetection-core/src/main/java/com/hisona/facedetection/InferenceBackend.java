@@ -0,0 +1,15 @@
+package com.hisona.facedetection;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Runs the detection model. Implementations wrap a specific runtime, such as PyTorch Mobile.
+ */
+public interface InferenceBackend {
+
+    /**
+     * Runs the model on a [1, 3, height, width] planar RGB input and stores the box, class and
+     * landmark outputs in outputs.
+     */
+    void forward(FloatBuffer input, int width, int height, ModelOutputs outputs);
+}
@@ -0,0 +1,15 @@
+package com.hisona.facedetection;
+
+/**
+ * One facial landmark in model input pixels. The detector predicts COUNT points per face, in
+ * the order left eye, right eye, nose, left mouth corner, right mouth corner.
+ *
+ * Landmarks are stored in {@link FaceBoxes#landmarks}; instances of this class are only used
+ * to read them back one point at a time.
+ */
+public class LandMark {
+    public static final int COUNT = 5;
+
+    public float x;
+    public float y;
+}
@@ -0,0 +1,65 @@
+package com.hisona.facedetection;
+
+/**
+ * Maps between model input pixels and source image pixels.
+ *
+ * The source image is the frame as displayed: rotated upright and, for the front camera,
+ * mirrored. The crop window (cropX, cropY, cropWidth, cropHeight) of it, the whole image unless
+ * a region of interest is used, is scaled by scale and shifted by (padX, padY) into the model
+ * input.
+ */
+public class Letterbox {
+    public int sourceWidth;
+    public int sourceHeight;
+    public float scale = 1.0f;
+    public float padX;
+    public float padY;
+    public int cropX;
+    public int cropY;
+    public int cropWidth;
+    public int cropHeight;
+
+    /** Sets a letterbox of the whole source image. */
+    public void set(int sourceWidth, int sourceHeight, float scale, float padX, float padY) {
+        set(sourceWidth, sourceHeight, scale, padX, padY, 0, 0, sourceWidth, sourceHeight);
+    }
+
+    public void set(int sourceWidth, int sourceHeight, float scale, float padX, float padY,
+                    int cropX, int cropY, int cropWidth, int cropHeight) {
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.scale = scale;
+        this.padX = padX;
+        this.padY = padY;
+        this.cropX = cropX;
+        this.cropY = cropY;
+        this.cropWidth = cropWidth;
+        this.cropHeight = cropHeight;
+    }
+
+    public void set(Letterbox other) {
+        set(other.sourceWidth, other.sourceHeight, other.scale, other.padX, other.padY,
+                other.cropX, other.cropY, other.cropWidth, other.cropHeight);
+    }
+
+    /** True when only a part of the source image went into the model. */
+    public boolean isCropped() {
+        return cropX != 0 || cropY != 0 || cropWidth != sourceWidth || cropHeight != sourceHeight;
+    }
+
+    public float toSourceX(float modelX) {
+        return (modelX - padX) / scale + cropX;
+    }
+
+    public float toSourceY(float modelY) {
+        return (modelY - padY) / scale + cropY;
+    }
+
+    public float toModelX(float sourceX) {
+        return (sourceX - cropX) * scale + padX;
+    }
+
+    public float toModelY(float sourceY) {
+        return (sourceY - cropY) * scale + padY;
+    }
+}
@@ -0,0 +1,73 @@
+package com.hisona.facedetection;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read access to the Y plane of a camera frame in upright (rotated, mirrored for the front
+ * camera) coordinates, the source image space of {@link Letterbox}.
+ */
+public class LumaPlane {
+
+    private ByteBuffer buffer;
+    private int width;
+    private int height;
+    private int rowStride;
+    private int rotation;
+    private boolean flip;
+    private int uprightWidth;
+    private int uprightHeight;
+
+    /**
+     * @param width sensor width of the plane
+     * @param height sensor height of the plane
+     * @param rotation clockwise rotation to upright, one of 0, 90, 180, 270
+     * @param flip mirror horizontally after rotation
+     */
+    public void set(ByteBuffer buffer, int width, int height, int rowStride, int rotation, boolean flip) {
+        this.buffer = buffer;
+        this.width = width;
+        this.height = height;
+        this.rowStride = rowStride;
+        this.rotation = rotation;
+        this.flip = flip;
+        boolean swap = rotation == 90 || rotation == 270;
+        this.uprightWidth = swap ? height : width;
+        this.uprightHeight = swap ? width : height;
+    }
+
+    public int getWidth() {
+        return uprightWidth;
+    }
+
+    public int getHeight() {
+        return uprightHeight;
+    }
+
+    /** Luma at upright pixel (x, y), clamped to the frame. */
+    public int get(int x, int y) {
+        x = x < 0 ? 0 : (x >= uprightWidth ? uprightWidth - 1 : x);
+        y = y < 0 ? 0 : (y >= uprightHeight ? uprightHeight - 1 : y);
+        if (flip) x = uprightWidth - 1 - x;
+
+        int sx, sy;
+        switch (rotation) {
+            case 90:
+                sx = y;
+                sy = height - 1 - x;
+                break;
+            case 180:
+                sx = width - 1 - x;
+                sy = height - 1 - y;
+                break;
+            case 270:
+                sx = width - 1 - y;
+                sy = x;
+                break;
+            default:
+                sx = x;
+                sy = y;
+                break;
+        }
+        return buffer.get(sy * rowStride + sx) & 0xff;
+    }
+}
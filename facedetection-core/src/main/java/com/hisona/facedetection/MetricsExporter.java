@@ -0,0 +1,8 @@
+package com.hisona.facedetection;
+
+/**
+ * Publishes a snapshot of {@link PipelineMetrics}, called periodically off the UI thread.
+ */
+public interface MetricsExporter {
+    void export(PipelineMetrics metrics);
+}
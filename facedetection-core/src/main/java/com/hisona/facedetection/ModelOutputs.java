@@ -0,0 +1,11 @@
+package com.hisona.facedetection;
+
+/**
+ * Raw outputs of one forward pass: four box offsets, two class scores and ten landmark offsets
+ * per anchor. Backends may replace the arrays on every call.
+ */
+public class ModelOutputs {
+    public float[] loc;
+    public float[] cls;
+    public float[] ldm;
+}
@@ -0,0 +1,197 @@
+package com.hisona.facedetection;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Skips detection on frames that did not change since the last detected one.
+ *
+ * The Y plane is reduced to a grid x grid array of block means, sampling every other pixel of
+ * every other row. A frame needs detection when one block mean moved by more than threshold
+ * luma levels from the frame the last detection ran on, when maxInterval has passed since
+ * then, or when the frame geometry changed. Comparing with the last detected frame rather than
+ * the previous one also catches slow changes that stay below the threshold between frames.
+ *
+ * The comparison runs in sensor coordinates; rotation and mirroring do not change whether a
+ * frame moved.
+ *
+ * check() must be called from one thread, recordDetection() from one other thread at most;
+ * invalidate() and the counters may be used from any thread.
+ */
+public class MotionGate {
+
+    public static final int DEFAULT_GRID = 40;
+    public static final float DEFAULT_THRESHOLD = 8.0f;
+    public static final long DEFAULT_MAX_INTERVAL_NANOS = 1000000000L;
+
+    private static final int SAMPLE_STEP = 2;
+    private static final float SMOOTHING = 0.1f;
+
+    private final int grid;
+    private final float threshold;
+    private final long maxIntervalNanos;
+
+    private int width;
+    private int height;
+    private int[] colBlock = new int[0];
+    private final int[] sums;
+    private final int[] counts;
+    private float[] current;
+    private float[] reference;
+    private boolean hasReference;
+    // set by invalidate(), consumed by the next check()
+    private final AtomicBoolean invalidated = new AtomicBoolean();
+    private long referenceTimestamp;
+    private float lastChange;
+
+    private volatile long frames;
+    private volatile long skipped;
+    private volatile long savedNanos;
+    private volatile long detectNanos;
+
+    public MotionGate() {
+        this(DEFAULT_GRID, DEFAULT_THRESHOLD, DEFAULT_MAX_INTERVAL_NANOS);
+    }
+
+    /**
+     * @param grid number of blocks along each side of the frame
+     * @param threshold largest block mean change, in luma levels, still counted as no motion
+     * @param maxIntervalNanos longest time a detection result is reused for
+     */
+    public MotionGate(int grid, float threshold, long maxIntervalNanos) {
+        if (grid <= 0) {
+            throw new IllegalArgumentException("grid must be positive: " + grid);
+        }
+        this.grid = grid;
+        this.threshold = threshold;
+        this.maxIntervalNanos = maxIntervalNanos;
+        this.sums = new int[grid * grid];
+        this.counts = new int[grid * grid];
+        this.current = new float[grid * grid];
+        this.reference = new float[grid * grid];
+    }
+
+    /**
+     * Samples the Y plane of a frame and tells whether it needs detection. When it does, the
+     * frame becomes the reference the next frames are compared with.
+     *
+     * @param width sensor width of the plane
+     * @param height sensor height of the plane
+     * @param timestampNanos frame timestamp
+     */
+    public boolean check(ByteBuffer y, int width, int height, int rowStride, long timestampNanos) {
+        frames++;
+        if (width != this.width || height != this.height) {
+            configure(width, height);
+        }
+        sample(y, rowStride);
+        if (invalidated.getAndSet(false)) {
+            hasReference = false;
+        }
+
+        lastChange = hasReference ? change() : Float.POSITIVE_INFINITY;
+        if (lastChange > threshold || timestampNanos - referenceTimestamp >= maxIntervalNanos) {
+            float[] swap = reference;
+            reference = current;
+            current = swap;
+            hasReference = true;
+            referenceTimestamp = timestampNanos;
+            return true;
+        }
+
+        skipped++;
+        savedNanos += detectNanos;
+        return false;
+    }
+
+    /**
+     * Makes the next frame go through detection, for example when its detection was dropped
+     * or the camera was rebound. The request is taken up by the next check().
+     */
+    public void invalidate() {
+        invalidated.set(true);
+    }
+
+    /** Records the time a detection took, used to estimate the time saved by skipped frames. */
+    public void recordDetection(long nanos) {
+        final long average = detectNanos;
+        detectNanos = average == 0 ? nanos : average + (long) ((nanos - average) * SMOOTHING);
+    }
+
+    private void configure(int width, int height) {
+        this.width = width;
+        this.height = height;
+        hasReference = false;
+
+        final int columns = (width + SAMPLE_STEP - 1) / SAMPLE_STEP;
+        if (colBlock.length != columns) {
+            colBlock = new int[columns];
+        }
+        for (int i = 0; i < columns; i++) {
+            colBlock[i] = (int) ((long) i * SAMPLE_STEP * grid / width);
+        }
+
+        Arrays.fill(counts, 0);
+        for (int row = 0; row < height; row += SAMPLE_STEP) {
+            final int base = (int) ((long) row * grid / height) * grid;
+            for (int i = 0; i < columns; i++) {
+                counts[base + colBlock[i]]++;
+            }
+        }
+    }
+
+    private void sample(ByteBuffer y, int rowStride) {
+        final int[] sums = this.sums;
+        final int[] colBlock = this.colBlock;
+        final int columns = colBlock.length;
+        Arrays.fill(sums, 0);
+
+        for (int row = 0; row < height; row += SAMPLE_STEP) {
+            final int base = (int) ((long) row * grid / height) * grid;
+            int offset = row * rowStride;
+            for (int i = 0; i < columns; i++, offset += SAMPLE_STEP) {
+                sums[base + colBlock[i]] += y.get(offset) & 0xff;
+            }
+        }
+
+        final float[] current = this.current;
+        for (int i = 0; i < sums.length; i++) {
+            current[i] = counts[i] > 0 ? (float) sums[i] / counts[i] : 0.0f;
+        }
+    }
+
+    /** Largest block mean difference between the current and the reference frame. */
+    private float change() {
+        float max = 0.0f;
+        for (int i = 0; i < current.length; i++) {
+            max = Math.max(max, Math.abs(current[i] - reference[i]));
+        }
+        return max;
+    }
+
+    /** Largest block mean change of the last checked frame, infinite without a reference. */
+    public float getLastChange() {
+        return lastChange;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    /** Frames that reused the last result instead of running detection. */
+    public long getSkippedFrames() {
+        return skipped;
+    }
+
+    /** Share of the checked frames that were skipped. */
+    public float getHitRate() {
+        final long frames = this.frames;
+        return frames == 0 ? 0.0f : (float) skipped / frames;
+    }
+
+    /** Detection time saved by the skipped frames, at the average detection time when skipped. */
+    public long getSavedNanos() {
+        return savedNanos;
+    }
+}
@@ -0,0 +1,257 @@
+package com.hisona.facedetection;
+
+import java.util.Arrays;
+
+/**
+ * Non-maximum suppression over struct-of-arrays boxes.
+ *
+ * <ul>
+ * <li>GREEDY keeps the best box and drops every later box overlapping a kept one by more
+ * than the IoU threshold.</li>
+ * <li>SOFT_LINEAR and SOFT_GAUSSIAN decay the score of overlapping boxes instead of dropping
+ * them, and stop once no remaining score reaches minScore.</li>
+ * <li>GRID gives the same result as GREEDY, but only compares a box with the kept boxes in its
+ * own and the eight neighbouring cells of a uniform grid, so the cost stays close to linear
+ * when hundreds of small boxes survive.</li>
+ * </ul>
+ *
+ * Input boxes must be ordered by descending score, as produced by {@link TopKSelector}.
+ * Not thread safe, the scratch arrays are reused between calls.
+ */
+public class NonMaxSuppression {
+
+    public enum Method {
+        GREEDY,
+        SOFT_LINEAR,
+        SOFT_GAUSSIAN,
+        GRID
+    }
+
+    public static final float DEFAULT_IOU_THRESHOLD = 0.4f;
+    public static final int DEFAULT_MAX_DETECTIONS = 100;
+    public static final float DEFAULT_SIGMA = 0.5f;
+
+    private static final int MAX_GRID_CELLS = 64;
+
+    private final Method method;
+    private final float iouThreshold;
+    private final int maxDetections;
+    private final float sigma;
+    private final float minScore;
+
+    private boolean[] suppressed = new boolean[0];
+    private float[] scores = new float[0];
+    private int[] next = new int[0];
+    private int[] cellHead = new int[0];
+
+    public NonMaxSuppression() {
+        this(Method.GREEDY, DEFAULT_IOU_THRESHOLD, DEFAULT_MAX_DETECTIONS);
+    }
+
+    public NonMaxSuppression(Method method, float iouThreshold, int maxDetections) {
+        this(method, iouThreshold, maxDetections, DEFAULT_SIGMA, PostProcessor.DEFAULT_SCORE_THRESHOLD);
+    }
+
+    /**
+     * @param sigma spread of the SOFT_GAUSSIAN decay
+     * @param minScore decayed score below which soft NMS stops
+     */
+    public NonMaxSuppression(Method method, float iouThreshold, int maxDetections, float sigma, float minScore) {
+        this.method = method;
+        this.iouThreshold = iouThreshold;
+        this.maxDetections = maxDetections;
+        this.sigma = sigma;
+        this.minScore = minScore;
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public float getIouThreshold() {
+        return iouThreshold;
+    }
+
+    public int getMaxDetections() {
+        return maxDetections;
+    }
+
+    /**
+     * Intersection over union of the boxes (ax1, ay1) - (ax2, ay2) and (bx1, by1) - (bx2, by2).
+     * Boxes that only touch, or have no area, give 0.
+     */
+    public static float iou(float ax1, float ay1, float ax2, float ay2,
+                            float bx1, float by1, float bx2, float by2) {
+        final float iw = Math.min(ax2, bx2) - Math.max(ax1, bx1);
+        final float ih = Math.min(ay2, by2) - Math.max(ay1, by1);
+        if (iw <= 0 || ih <= 0) {
+            return 0.0f;
+        }
+        final float inter = iw * ih;
+        final float union = (ax2 - ax1) * (ay2 - ay1) + (bx2 - bx1) * (by2 - by1) - inter;
+        return union > 0 ? inter / union : 0.0f;
+    }
+
+    private static float iou(FaceBoxes a, int i, FaceBoxes b, int j) {
+        return iou(a.x1[i], a.y1[i], a.x2[i], a.y2[i], b.x1[j], b.y1[j], b.x2[j], b.y2[j]);
+    }
+
+    /**
+     * Writes the boxes kept from boxes into out, replacing its content.
+     *
+     * @return number of kept boxes
+     */
+    public int apply(FaceBoxes boxes, FaceBoxes out) {
+        out.ensureCapacity(Math.min(boxes.count, maxDetections));
+        out.count = 0;
+        if (boxes.count == 0) {
+            return 0;
+        }
+        switch (method) {
+            case SOFT_LINEAR:
+            case SOFT_GAUSSIAN:
+                return soft(boxes, out);
+            case GRID:
+                return grid(boxes, out);
+            default:
+                return greedy(boxes, out);
+        }
+    }
+
+    private int greedy(FaceBoxes boxes, FaceBoxes out) {
+        final int n = boxes.count;
+        final boolean[] suppressed = suppressed(n);
+        int kept = 0;
+
+        for (int i = 0; i < n && kept < maxDetections; i++) {
+            if (suppressed[i]) {
+                continue;
+            }
+            out.copy(boxes, i, kept++);
+            for (int j = i + 1; j < n; j++) {
+                if (!suppressed[j] && iou(boxes, i, boxes, j) > iouThreshold) {
+                    suppressed[j] = true;
+                }
+            }
+        }
+        out.count = kept;
+        return kept;
+    }
+
+    private int soft(FaceBoxes boxes, FaceBoxes out) {
+        final int n = boxes.count;
+        final boolean[] done = suppressed(n);
+        if (scores.length < n) {
+            scores = new float[n];
+        }
+        final float[] scores = this.scores;
+        System.arraycopy(boxes.score, 0, scores, 0, n);
+        final boolean gaussian = method == Method.SOFT_GAUSSIAN;
+        int kept = 0;
+
+        while (kept < maxDetections) {
+            int best = -1;
+            float bestScore = minScore;
+            for (int i = 0; i < n; i++) {
+                if (!done[i] && scores[i] >= bestScore && (best < 0 || scores[i] > bestScore)) {
+                    best = i;
+                    bestScore = scores[i];
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            done[best] = true;
+            out.copy(boxes, best, kept);
+            out.score[kept] = bestScore;
+            kept++;
+
+            for (int j = 0; j < n; j++) {
+                if (done[j]) {
+                    continue;
+                }
+                final float overlap = iou(boxes, best, boxes, j);
+                if (gaussian) {
+                    scores[j] *= (float) Math.exp(-(overlap * overlap) / sigma);
+                } else if (overlap > iouThreshold) {
+                    scores[j] *= 1.0f - overlap;
+                }
+            }
+        }
+        out.count = kept;
+        return kept;
+    }
+
+    private int grid(FaceBoxes boxes, FaceBoxes out) {
+        final int n = boxes.count;
+
+        // cells at least as large as the largest box, so overlapping boxes have their centres
+        // in the same or a neighbouring cell
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        float extent = 0;
+        for (int i = 0; i < n; i++) {
+            final float cx = (boxes.x1[i] + boxes.x2[i]) * 0.5f;
+            final float cy = (boxes.y1[i] + boxes.y2[i]) * 0.5f;
+            minX = Math.min(minX, cx);
+            minY = Math.min(minY, cy);
+            maxX = Math.max(maxX, cx);
+            maxY = Math.max(maxY, cy);
+            extent = Math.max(extent, Math.max(boxes.x2[i] - boxes.x1[i], boxes.y2[i] - boxes.y1[i]));
+        }
+        final float cell = Math.max(extent, Math.max(maxX - minX, maxY - minY) / MAX_GRID_CELLS);
+        if (!(cell > 0)) {
+            return greedy(boxes, out);
+        }
+        final int cols = Math.min(MAX_GRID_CELLS, (int) ((maxX - minX) / cell) + 1);
+        final int rows = Math.min(MAX_GRID_CELLS, (int) ((maxY - minY) / cell) + 1);
+
+        if (cellHead.length < cols * rows) {
+            cellHead = new int[cols * rows];
+        }
+        if (next.length < n) {
+            next = new int[n];
+        }
+        final int[] cellHead = this.cellHead;
+        final int[] next = this.next;
+        Arrays.fill(cellHead, 0, cols * rows, -1);
+
+        int kept = 0;
+        for (int i = 0; i < n && kept < maxDetections; i++) {
+            final int col = Math.min(cols - 1, (int) (((boxes.x1[i] + boxes.x2[i]) * 0.5f - minX) / cell));
+            final int row = Math.min(rows - 1, (int) (((boxes.y1[i] + boxes.y2[i]) * 0.5f - minY) / cell));
+
+            boolean keep = true;
+            search:
+            for (int r = Math.max(0, row - 1); r <= Math.min(rows - 1, row + 1); r++) {
+                for (int c = Math.max(0, col - 1); c <= Math.min(cols - 1, col + 1); c++) {
+                    for (int k = cellHead[r * cols + c]; k >= 0; k = next[k]) {
+                        if (iou(out, k, boxes, i) > iouThreshold) {
+                            keep = false;
+                            break search;
+                        }
+                    }
+                }
+            }
+            if (!keep) {
+                continue;
+            }
+
+            out.copy(boxes, i, kept);
+            next[kept] = cellHead[row * cols + col];
+            cellHead[row * cols + col] = kept;
+            kept++;
+        }
+        out.count = kept;
+        return kept;
+    }
+
+    private boolean[] suppressed(int n) {
+        if (suppressed.length < n) {
+            suppressed = new boolean[n];
+        } else {
+            Arrays.fill(suppressed, 0, n, false);
+        }
+        return suppressed;
+    }
+}
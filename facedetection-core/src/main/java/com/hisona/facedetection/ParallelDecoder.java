@@ -0,0 +1,135 @@
+package com.hisona.facedetection;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Thresholds, selects and decodes the candidates of large inputs on several threads.
+ *
+ * The anchor range is split into one contiguous chunk per thread. Each chunk keeps its own
+ * top-K list and decodes the boxes of it; the lists are then merged into the global top-K.
+ * Every anchor of the global top-K is in the top-K of its chunk and the merge uses the same
+ * (score, anchor index) order as {@link TopKSelector}, so the candidates are exactly those of
+ * the serial path. The calling thread works on the first chunk itself.
+ *
+ * Chunks and their buffers are reused, so a steady stream of frames does not allocate.
+ * Not thread safe, use one instance per {@link PostProcessor}.
+ */
+public class ParallelDecoder {
+
+    /** Below this many anchors (a 1024x1024 input has 10,752) scheduling costs more than it saves. */
+    public static final int DEFAULT_MIN_ANCHORS = 8192;
+
+    private final ChunkRunner runner;
+    private final int minAnchors;
+    private final Chunk[] chunks;
+
+    // inputs of the call in progress, published to the workers by ChunkRunner
+    private float[] loc;
+    private float[] cls;
+    private AnchorTable anchors;
+    private float threshold;
+
+    private static final class Chunk {
+        TopKSelector selector;
+        final FaceBoxes boxes = new FaceBoxes();
+        int cursor;
+    }
+
+    private final ChunkRunner.Task decodeTask = new ChunkRunner.Task() {
+        @Override
+        public void run(int chunk, int from, int to) {
+            final FaceBoxes boxes = chunks[chunk].boxes;
+            chunks[chunk].selector.select(cls, 2, 1, from, to, threshold, boxes);
+            BoxDecoder.decode(loc, anchors, boxes);
+        }
+    };
+
+    /**
+     * @param executor runs all chunks but the first, typically a pool shared with other stages
+     * @param parallelism number of chunks, including the one of the calling thread
+     * @param minAnchors inputs with fewer anchors are decoded on the calling thread alone
+     */
+    public ParallelDecoder(Executor executor, int parallelism, int minAnchors) {
+        this.runner = new ChunkRunner(executor, parallelism);
+        this.minAnchors = minAnchors;
+        this.chunks = new Chunk[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            chunks[i] = new Chunk();
+        }
+    }
+
+    public int getParallelism() {
+        return chunks.length;
+    }
+
+    public int getMinAnchors() {
+        return minAnchors;
+    }
+
+    /** True when inputs with this many anchors are split across threads. */
+    public boolean isParallel(int anchorCount) {
+        return chunks.length > 1 && anchorCount >= minAnchors;
+    }
+
+    /**
+     * Writes the k best anchors above threshold into out, ordered by descending score, with
+     * their boxes decoded, like {@link TopKSelector#select} followed by {@link BoxDecoder#decode}.
+     *
+     * @return number of candidates
+     */
+    public int decode(float[] loc, float[] cls, AnchorTable anchors, float threshold, int k, FaceBoxes out) {
+        final Chunk[] chunks = this.chunks;
+        final int n = isParallel(anchors.size) ? chunks.length : 1;
+        for (int i = 0; i < n; i++) {
+            Chunk chunk = chunks[i];
+            if (chunk.selector == null || chunk.selector.getK() != k) {
+                chunk.selector = new TopKSelector(k);
+            }
+        }
+
+        this.loc = loc;
+        this.cls = cls;
+        this.anchors = anchors;
+        this.threshold = threshold;
+        try {
+            runner.run(decodeTask, anchors.size, n);
+        } finally {
+            this.loc = null;
+            this.cls = null;
+            this.anchors = null;
+        }
+        return merge(chunks, n, k, out);
+    }
+
+    /** Merges the sorted lists of the first n chunks into the best k entries. */
+    private static int merge(Chunk[] chunks, int n, int k, FaceBoxes out) {
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            chunks[i].cursor = 0;
+            total += chunks[i].boxes.count;
+        }
+        final int count = Math.min(k, total);
+        out.ensureCapacity(count);
+
+        for (int m = 0; m < count; m++) {
+            Chunk best = null;
+            for (int i = 0; i < n; i++) {
+                Chunk chunk = chunks[i];
+                if (chunk.cursor == chunk.boxes.count) {
+                    continue;
+                }
+                if (best == null || better(chunk.boxes, chunk.cursor, best.boxes, best.cursor)) {
+                    best = chunk;
+                }
+            }
+            out.copy(best.boxes, best.cursor++, m);
+        }
+        out.count = count;
+        return count;
+    }
+
+    /** Same order as TopKSelector: higher score first, lower anchor index on ties. */
+    private static boolean better(FaceBoxes a, int i, FaceBoxes b, int j) {
+        return a.score[i] > b.score[j] || (a.score[i] == b.score[j] && a.anchor[i] < b.anchor[j]);
+    }
+}
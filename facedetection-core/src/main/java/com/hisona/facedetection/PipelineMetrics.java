@@ -0,0 +1,199 @@
+package com.hisona.facedetection;
+
+import java.util.Locale;
+
+/**
+ * Latency histograms of every stage of the detection pipeline, frame drop counts and the
+ * displayed frame rate.
+ *
+ * Recording is allocation free and may happen from any thread. Only {@link #format} allocates,
+ * it is meant for the periodic {@link MetricsExporter}s.
+ */
+public class PipelineMetrics {
+
+    public enum Stage {
+        /** YUV to normalized tensor input: rotation, letterbox and tensor fill in one pass. */
+        CONVERT,
+        /** Motion gate check on the Y plane. */
+        GATE,
+        /** Tracker update on frames the detector skips. */
+        TRACK,
+        FORWARD,
+        /** Top-K selection, box decoding and NMS. */
+        DECODE,
+        NMS,
+        /** Time frames wait in the pipeline queues. */
+        QUEUE,
+        /** From the result being posted to the UI thread until it is shown. */
+        UI_POST,
+        /** From the camera frame reaching the analyzer until its result is shown. */
+        END_TO_END
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    // a gap longer than this many frame intervals counts the frames in between as dropped
+    private static final float DROP_GAP = 1.5f;
+    private static final long THROUGHPUT_WINDOW_NANOS = 1000000000L;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGES.length];
+
+    // camera frames, written by the analyzer thread only
+    private volatile long cameraFrames;
+    private volatile long cameraDrops;
+    private long lastTimestamp = -1;
+    private float frameInterval;
+
+    // displayed frames, written by the UI thread only
+    private volatile long shownFrames;
+    private long windowStart = -1;
+    private long windowFrames;
+    private volatile float throughput;
+
+    private volatile FramePipeline pipeline;
+    private volatile MotionGate gate;
+    private volatile int inferenceThreads;
+
+    public PipelineMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public LatencyHistogram get(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    /** Records the stage timings carried by a detector result. */
+    public void recordResult(DetectionResult result) {
+        record(Stage.CONVERT, result.convertNanos);
+        record(Stage.FORWARD, result.forwardNanos);
+        record(Stage.DECODE, result.decodeNanos);
+        record(Stage.NMS, result.nmsNanos);
+        record(Stage.QUEUE, Math.max(0,
+                result.totalNanos - result.convertNanos - result.forwardNanos - result.decodeNanos));
+    }
+
+    /**
+     * Counts a camera frame given its sensor timestamp. With STRATEGY_KEEP_ONLY_LATEST the
+     * camera silently replaces frames the analyzer was too busy for; they show up as gaps in
+     * the timestamps, measured against the smoothed frame interval. Call from the analyzer
+     * thread only.
+     */
+    public void onCameraFrame(long timestampNanos) {
+        cameraFrames++;
+        if (lastTimestamp >= 0) {
+            final long delta = timestampNanos - lastTimestamp;
+            if (delta > 0) {
+                if (frameInterval == 0 || delta < DROP_GAP * frameInterval) {
+                    // only regular intervals move the estimate, so drops do not inflate it
+                    frameInterval = frameInterval == 0 ? delta : frameInterval + (delta - frameInterval) / 8;
+                } else {
+                    cameraDrops += Math.round(delta / frameInterval) - 1;
+                }
+            }
+        }
+        lastTimestamp = timestampNanos;
+    }
+
+    /** Records a result shown on screen. Call from the UI thread only. */
+    public void onResultShown(DetectionResult result, long nowNanos) {
+        if (result.postedNanos > 0) {
+            record(Stage.UI_POST, nowNanos - result.postedNanos);
+            record(Stage.END_TO_END, result.totalNanos + nowNanos - result.postedNanos);
+        }
+        shownFrames++;
+        if (windowStart < 0) {
+            // the first frame opens the window, the frames after it are counted
+            windowStart = nowNanos;
+            return;
+        }
+        windowFrames++;
+        final long elapsed = nowNanos - windowStart;
+        if (elapsed >= THROUGHPUT_WINDOW_NANOS) {
+            throughput = windowFrames * 1e9f / elapsed;
+            windowStart = nowNanos;
+            windowFrames = 0;
+        }
+    }
+
+    /** Pipeline whose queue drops are reported with the metrics. */
+    public void attach(FramePipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    /** Motion gate whose hit rate and saved time are reported with the metrics. */
+    public void attach(MotionGate gate) {
+        this.gate = gate;
+    }
+
+    /** Intra-op thread count the inference runtime was configured with, reported with the metrics. */
+    public void setInferenceThreads(int threads) {
+        this.inferenceThreads = threads;
+    }
+
+    public int getInferenceThreads() {
+        return inferenceThreads;
+    }
+
+    public long getCameraFrames() {
+        return cameraFrames;
+    }
+
+    /** Camera frames estimated to be dropped before reaching the analyzer. */
+    public long getCameraDrops() {
+        return cameraDrops;
+    }
+
+    public long getShownFrames() {
+        return shownFrames;
+    }
+
+    /** Results shown per second over the last full second. */
+    public float getThroughput() {
+        return throughput;
+    }
+
+    /** Appends a human readable report, one line per stage. */
+    public StringBuilder format(StringBuilder out) {
+        out.append(String.format(Locale.US, "%.1f fps, camera %d frames, %d dropped",
+                throughput, cameraFrames, cameraDrops));
+        FramePipeline pipeline = this.pipeline;
+        if (pipeline != null) {
+            // frames dropped for want of a free frame, by the inference queue and by the decode queue
+            out.append(String.format(Locale.US, ", pipeline %d/%d/%d dropped",
+                    pipeline.getExhaustedDrops(), pipeline.getInferenceDrops(), pipeline.getDecodeDrops()));
+        }
+        MotionGate gate = this.gate;
+        if (gate != null) {
+            out.append(String.format(Locale.US, ", gate %.0f%% skipped, %.1f s saved",
+                    100 * gate.getHitRate(), gate.getSavedNanos() / 1e9));
+        }
+        if (inferenceThreads > 0) {
+            out.append(", ").append(inferenceThreads).append(" inference threads");
+        }
+        out.append('\n');
+        for (Stage stage : STAGES) {
+            LatencyHistogram histogram = get(stage);
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            out.append(String.format(Locale.US, "%-10s n=%d p50=%.1f p95=%.1f p99=%.1f max=%.1f ms\n",
+                    stage.name().toLowerCase(Locale.US), histogram.getCount(),
+                    histogram.getPercentileMicros(0.50) / 1000.0, histogram.getPercentileMicros(0.95) / 1000.0,
+                    histogram.getPercentileMicros(0.99) / 1000.0, histogram.getMaxMicros() / 1000.0));
+        }
+        return out;
+    }
+
+    /** Clears the histograms; frame counters keep running. */
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.hisona.facedetection;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Normalizes packed ARGB pixels, as read from a Bitmap or decoded from any image, into the
+ * float input of the model.
+ *
+ * (channel - mean) / std is precomputed for the 256 values of each channel, so a pixel costs
+ * three table lookups; the tables hold the very floats the formula gives, so the output is bit
+ * identical to computing it per pixel. Pixels are normalized into a small array a chunk at a
+ * time and bulk copied into the output buffer.
+ *
+ * Not thread safe, use one instance per thread.
+ */
+public class PixelNormalizer {
+
+    /** Channel means and deviations mbv2.pt was trained with, in R, G, B order. */
+    public static final float[] FACE_MEAN = new float[]{116.0f, 117.0f, 111.0f};   //offset to {104.0f, 117.0f, 123.0f}
+    public static final float[] FACE_STD = new float[]{1.0f, 1.0f, 1.0f};
+
+    /** Order of the values of a width x height input. */
+    public enum Layout {
+        /** Planar, the R plane followed by the G and B planes: [3, height, width]. */
+        NCHW,
+        /** Interleaved R, G, B per pixel, channels last: [height, width, 3]. */
+        NHWC,
+    }
+
+    // pixels normalized between two bulk copies
+    private static final int CHUNK = 512;
+
+    private final float[] mean = new float[3];
+    private final float[] std = new float[3];
+    private final float[] lutR = new float[256];
+    private final float[] lutG = new float[256];
+    private final float[] lutB = new float[256];
+    private final float[] chunk = new float[3 * CHUNK];
+    private final byte[] byteChunk = new byte[3 * CHUNK];
+    private boolean configured;
+
+    /** Normalizes with FACE_MEAN and FACE_STD. */
+    public PixelNormalizer() {
+        this(FACE_MEAN, FACE_STD);
+    }
+
+    public PixelNormalizer(float[] meanRGB, float[] stdRGB) {
+        setNormalization(meanRGB, stdRGB);
+    }
+
+    /** Rebuilds the tables for another mean and std. Does nothing when they are unchanged. */
+    public void setNormalization(float[] meanRGB, float[] stdRGB) {
+        if (configured
+                && mean[0] == meanRGB[0] && mean[1] == meanRGB[1] && mean[2] == meanRGB[2]
+                && std[0] == stdRGB[0] && std[1] == stdRGB[1] && std[2] == stdRGB[2]) {
+            return;
+        }
+        for (int c = 0; c < 3; c++) {
+            mean[c] = meanRGB[c];
+            std[c] = stdRGB[c];
+        }
+        // the arithmetic of the per pixel formula, value by value
+        for (int i = 0; i < 256; i++) {
+            float p = i / 1.0f;
+            lutR[i] = (p - mean[0]) / std[0];
+            lutG[i] = (p - mean[1]) / std[1];
+            lutB[i] = (p - mean[2]) / std[2];
+        }
+        configured = true;
+    }
+
+    public float[] getMean() {
+        return mean.clone();
+    }
+
+    public float[] getStd() {
+        return std.clone();
+    }
+
+    /** Normalized values of channel 0 (R), 1 (G) or 2 (B), indexed by the 8 bit value. */
+    float[] getTable(int channel) {
+        return channel == 0 ? lutR : (channel == 1 ? lutG : lutB);
+    }
+
+    /** Same as {@link #normalize(int[], int, Layout, FloatBuffer, int)} in NCHW. */
+    public void normalize(int[] pixels, int count, FloatBuffer outBuffer, int outBufferOffset) {
+        normalize(pixels, count, Layout.NCHW, outBuffer, outBufferOffset);
+    }
+
+    /**
+     * Writes (channel - mean) / std of the first count pixels to outBuffer in layout, starting
+     * at outBufferOffset. The position of outBuffer is reset to 0 on return.
+     */
+    public void normalize(int[] pixels, int count, Layout layout, FloatBuffer outBuffer, int outBufferOffset) {
+        if (outBufferOffset + 3 * count > outBuffer.capacity()) {
+            throw new IllegalStateException("Buffer underflow");
+        }
+        final float[] lutR = this.lutR;
+        final float[] lutG = this.lutG;
+        final float[] lutB = this.lutB;
+        final float[] chunk = this.chunk;
+
+        for (int start = 0; start < count; start += CHUNK) {
+            final int n = Math.min(CHUNK, count - start);
+            if (layout == Layout.NHWC) {
+                for (int i = 0, j = 0; i < n; i++, j += 3) {
+                    final int c = pixels[start + i];
+                    chunk[j] = lutR[(c >> 16) & 0xff];
+                    chunk[j + 1] = lutG[(c >> 8) & 0xff];
+                    chunk[j + 2] = lutB[c & 0xff];
+                }
+                outBuffer.position(outBufferOffset + 3 * start);
+                outBuffer.put(chunk, 0, 3 * n);
+            } else {
+                for (int i = 0; i < n; i++) {
+                    final int c = pixels[start + i];
+                    chunk[i] = lutR[(c >> 16) & 0xff];
+                    chunk[CHUNK + i] = lutG[(c >> 8) & 0xff];
+                    chunk[2 * CHUNK + i] = lutB[c & 0xff];
+                }
+                outBuffer.position(outBufferOffset + start);
+                outBuffer.put(chunk, 0, n);
+                outBuffer.position(outBufferOffset + count + start);
+                outBuffer.put(chunk, CHUNK, n);
+                outBuffer.position(outBufferOffset + 2 * count + start);
+                outBuffer.put(chunk, 2 * CHUNK, n);
+            }
+        }
+        outBuffer.position(0);
+    }
+
+    /**
+     * Writes the raw 8 bit R, G, B values of the first count pixels to outBuffer in layout,
+     * starting at outBufferOffset, for models taking a uint8 input and normalizing it
+     * themselves. The position of outBuffer is reset to 0 on return.
+     */
+    public void toBytes(int[] pixels, int count, Layout layout, ByteBuffer outBuffer, int outBufferOffset) {
+        if (outBufferOffset + 3 * count > outBuffer.capacity()) {
+            throw new IllegalStateException("Buffer underflow");
+        }
+        final byte[] chunk = byteChunk;
+
+        for (int start = 0; start < count; start += CHUNK) {
+            final int n = Math.min(CHUNK, count - start);
+            if (layout == Layout.NHWC) {
+                for (int i = 0, j = 0; i < n; i++, j += 3) {
+                    final int c = pixels[start + i];
+                    chunk[j] = (byte) (c >> 16);
+                    chunk[j + 1] = (byte) (c >> 8);
+                    chunk[j + 2] = (byte) c;
+                }
+                outBuffer.position(outBufferOffset + 3 * start);
+                outBuffer.put(chunk, 0, 3 * n);
+            } else {
+                for (int i = 0; i < n; i++) {
+                    final int c = pixels[start + i];
+                    chunk[i] = (byte) (c >> 16);
+                    chunk[CHUNK + i] = (byte) (c >> 8);
+                    chunk[2 * CHUNK + i] = (byte) c;
+                }
+                outBuffer.position(outBufferOffset + start);
+                outBuffer.put(chunk, 0, n);
+                outBuffer.position(outBufferOffset + count + start);
+                outBuffer.put(chunk, CHUNK, n);
+                outBuffer.position(outBufferOffset + 2 * count + start);
+                outBuffer.put(chunk, 2 * CHUNK, n);
+            }
+        }
+        outBuffer.position(0);
+    }
+}
@@ -0,0 +1,95 @@
+package com.hisona.facedetection;
+
+/**
+ * Turns raw model outputs into the final face boxes, reusing its buffers from frame to frame.
+ *
+ * Not thread safe, use one instance per detection thread.
+ */
+public class PostProcessor {
+
+    public static final float DEFAULT_SCORE_THRESHOLD = 0.2f;
+    public static final int DEFAULT_TOP_K = 750;
+
+    private final float scoreThreshold;
+    private final TopKSelector selector;
+    private final NonMaxSuppression nms;
+    private final ParallelDecoder parallelDecoder;
+    private final FaceBoxes candidates = new FaceBoxes();
+    private final FaceBoxes detections = new FaceBoxes();
+    private long nmsNanos;
+
+    public PostProcessor() {
+        this(DEFAULT_SCORE_THRESHOLD, DEFAULT_TOP_K, new NonMaxSuppression());
+    }
+
+    public PostProcessor(float scoreThreshold, int topK, NonMaxSuppression nms) {
+        this(scoreThreshold, topK, nms, null);
+    }
+
+    /**
+     * @param parallelDecoder selects and decodes the candidates of large inputs on several
+     *                        threads, or null to always do it on the calling thread
+     */
+    public PostProcessor(float scoreThreshold, int topK, NonMaxSuppression nms, ParallelDecoder parallelDecoder) {
+        this.scoreThreshold = scoreThreshold;
+        this.selector = new TopKSelector(topK);
+        this.nms = nms;
+        this.parallelDecoder = parallelDecoder;
+    }
+
+    public float getScoreThreshold() {
+        return scoreThreshold;
+    }
+
+    public int getTopK() {
+        return selector.getK();
+    }
+
+    public NonMaxSuppression getNms() {
+        return nms;
+    }
+
+    public ParallelDecoder getParallelDecoder() {
+        return parallelDecoder;
+    }
+
+    /** Time spent in non-maximum suppression by the last process() call. */
+    public long getNmsNanos() {
+        return nmsNanos;
+    }
+
+    /**
+     * Selects the best anchors above the score threshold, decodes their boxes and removes the
+     * duplicates with non-maximum suppression. Landmarks are only decoded for the kept faces.
+     *
+     * @param loc box output, four values per anchor
+     * @param cls class output, two values per anchor
+     * @param ldm landmark output, ten values per anchor, or null to skip landmarks
+     * @return boxes ordered by descending score, valid until the next call
+     */
+    public FaceBoxes process(float[] loc, float[] cls, float[] ldm, AnchorTable anchors) {
+        if (loc.length != 4 * anchors.size || cls.length != 2 * anchors.size) {
+            throw new IllegalStateException("Model produced " + loc.length / 4
+                    + " boxes for " + anchors.size + " anchors");
+        }
+
+        if (parallelDecoder != null && parallelDecoder.isParallel(anchors.size)) {
+            parallelDecoder.decode(loc, cls, anchors, scoreThreshold, selector.getK(), candidates);
+        } else {
+            selector.select(cls, anchors.size, scoreThreshold, candidates);
+            BoxDecoder.decode(loc, anchors, candidates);
+        }
+        final long nmsStart = System.nanoTime();
+        nms.apply(candidates, detections);
+        nmsNanos = System.nanoTime() - nmsStart;
+        if (ldm != null) {
+            if (ldm.length != 2 * LandMark.COUNT * anchors.size) {
+                throw new IllegalStateException("Model produced " + ldm.length / (2 * LandMark.COUNT)
+                        + " landmark sets for " + anchors.size + " anchors");
+            }
+            BoxDecoder.decodeLandmarks(ldm, anchors, detections);
+        }
+
+        return detections;
+    }
+}
@@ -0,0 +1,44 @@
+package com.hisona.facedetection;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link InferenceBackend} running another backend and keeping a copy of every output, to be
+ * saved with {@link #write} and replayed by {@link ReplayBackend}. Wrap the real model with it
+ * on a device to capture the outputs {@link FrameReplay} needs; see
+ * {@link FrameReplay#recordOutputs}.
+ *
+ * Not thread safe.
+ */
+public class RecordingBackend implements InferenceBackend {
+
+    private final InferenceBackend backend;
+    private final List<ModelOutputs> recorded = new ArrayList<>();
+
+    public RecordingBackend(InferenceBackend backend) {
+        this.backend = backend;
+    }
+
+    @Override
+    public void forward(FloatBuffer input, int width, int height, ModelOutputs outputs) {
+        backend.forward(input, width, height, outputs);
+        ModelOutputs copy = new ModelOutputs();
+        copy.loc = outputs.loc != null ? outputs.loc.clone() : null;
+        copy.cls = outputs.cls != null ? outputs.cls.clone() : null;
+        copy.ldm = outputs.ldm != null ? outputs.ldm.clone() : null;
+        recorded.add(copy);
+    }
+
+    public int getFrameCount() {
+        return recorded.size();
+    }
+
+    /** Saves the recorded outputs in the format of {@link ReplayBackend#read}. Does not close out. */
+    public void write(OutputStream out) throws IOException {
+        ReplayBackend.write(out, recorded);
+    }
+}
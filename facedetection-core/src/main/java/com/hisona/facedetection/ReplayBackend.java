@@ -0,0 +1,108 @@
+package com.hisona.facedetection;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.FloatBuffer;
+import java.util.List;
+
+/**
+ * {@link InferenceBackend} replaying recorded model outputs in order, starting over after the
+ * last one. The input is ignored, so post-processing, tracking and the frame pipeline can be
+ * tested and benchmarked deterministically without PyTorch or a device.
+ *
+ * The recorded arrays are handed out as they are and must not be modified by the caller.
+ * Recordings are saved with {@link #write} and loaded with {@link #read}.
+ * Not thread safe.
+ */
+public class ReplayBackend implements InferenceBackend {
+
+    private static final int MAGIC = 0x46445231; // "FDR1"
+
+    private final ModelOutputs[] recorded;
+    private int next;
+
+    public ReplayBackend(List<ModelOutputs> recorded) {
+        this(recorded.toArray(new ModelOutputs[0]));
+    }
+
+    public ReplayBackend(ModelOutputs... recorded) {
+        if (recorded.length == 0) {
+            throw new IllegalArgumentException("Nothing to replay");
+        }
+        this.recorded = recorded.clone();
+    }
+
+    public int getFrameCount() {
+        return recorded.length;
+    }
+
+    /** Replays from the first recorded frame again. */
+    public void rewind() {
+        next = 0;
+    }
+
+    @Override
+    public void forward(FloatBuffer input, int width, int height, ModelOutputs outputs) {
+        final ModelOutputs frame = recorded[next];
+        next = (next + 1) % recorded.length;
+        outputs.loc = frame.loc;
+        outputs.cls = frame.cls;
+        outputs.ldm = frame.ldm;
+    }
+
+    /** Loads outputs saved by {@link #write}. Does not close in. */
+    public static ReplayBackend read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a model output recording");
+        }
+        ModelOutputs[] frames = new ModelOutputs[data.readInt()];
+        for (int i = 0; i < frames.length; i++) {
+            ModelOutputs frame = new ModelOutputs();
+            frame.loc = readArray(data);
+            frame.cls = readArray(data);
+            frame.ldm = readArray(data);
+            frames[i] = frame;
+        }
+        return new ReplayBackend(frames);
+    }
+
+    /** Saves frames, for example outputs of the real model collected on a device. Does not close out. */
+    public static void write(OutputStream out, List<ModelOutputs> frames) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(frames.size());
+        for (ModelOutputs frame : frames) {
+            writeArray(data, frame.loc);
+            writeArray(data, frame.cls);
+            writeArray(data, frame.ldm);
+        }
+        data.flush();
+    }
+
+    private static float[] readArray(DataInputStream data) throws IOException {
+        final int length = data.readInt();
+        if (length < 0) {
+            return null;
+        }
+        float[] array = new float[length];
+        for (int i = 0; i < length; i++) {
+            array[i] = data.readFloat();
+        }
+        return array;
+    }
+
+    private static void writeArray(DataOutputStream data, float[] array) throws IOException {
+        if (array == null) {
+            data.writeInt(-1);
+            return;
+        }
+        data.writeInt(array.length);
+        for (float value : array) {
+            data.writeFloat(value);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.hisona.facedetection;
+
+/**
+ * Picks the model input size from a set of square sizes so that forward() stays within a
+ * latency budget.
+ *
+ * Forward times are smoothed with an exponential moving average. The controller steps down one
+ * size when the average goes over the budget, and steps up only when the average scaled by the
+ * pixel ratio of the next size fits within UP_MARGIN of the budget. That gap, and the
+ * minimum number of samples kept between two switches, stop it from oscillating between two
+ * sizes around the budget.
+ *
+ * getSize() may be read from any thread; record() is synchronized.
+ */
+public class ResolutionController {
+
+    public static final int[] DEFAULT_SIZES = {320, 480, 640};
+
+    // the backbone needs sizes divisible by 32, AnchorConfig rounds the stride 64 level up
+    private static final int SIZE_ALIGNMENT = 32;
+
+    private static final float SMOOTHING = 0.2f;
+    private static final float UP_MARGIN = 0.8f;
+    private static final int MIN_SAMPLES = 10;
+
+    private final int[] sizes;
+    private final long budgetNanos;
+
+    private volatile int index;
+    private float average;
+    private int samples;
+    private int switches;
+
+    /** Starts at the largest size. */
+    public ResolutionController(long budgetNanos) {
+        this(DEFAULT_SIZES, budgetNanos, DEFAULT_SIZES[DEFAULT_SIZES.length - 1]);
+    }
+
+    /**
+     * @param sizes input sizes in ascending order, multiples of 32
+     * @param budgetNanos target forward time per frame
+     * @param initialSize one of sizes
+     */
+    public ResolutionController(int[] sizes, long budgetNanos, int initialSize) {
+        if (sizes.length == 0) {
+            throw new IllegalArgumentException("No input size");
+        }
+        for (int i = 0; i < sizes.length; i++) {
+            if (sizes[i] <= 0 || sizes[i] % SIZE_ALIGNMENT != 0) {
+                throw new IllegalArgumentException("Input size is not a multiple of "
+                        + SIZE_ALIGNMENT + ": " + sizes[i]);
+            }
+            if (i > 0 && sizes[i] <= sizes[i - 1]) {
+                throw new IllegalArgumentException("Input sizes are not ascending");
+            }
+        }
+        if (budgetNanos <= 0) {
+            throw new IllegalArgumentException("Budget must be positive: " + budgetNanos);
+        }
+        this.sizes = sizes.clone();
+        this.budgetNanos = budgetNanos;
+        this.index = indexOf(initialSize);
+    }
+
+    private int indexOf(int size) {
+        for (int i = 0; i < sizes.length; i++) {
+            if (sizes[i] == size) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown input size: " + size);
+    }
+
+    /** Input size for the next frame. */
+    public int getSize() {
+        return sizes[index];
+    }
+
+    /**
+     * Records the forward time of a frame run at size. Samples of another size than the
+     * current one, from frames already in flight at a switch, are ignored.
+     *
+     * @return true if the size changed
+     */
+    public synchronized boolean record(int size, long forwardNanos) {
+        final int i = index;
+        if (size != sizes[i]) {
+            return false;
+        }
+        average = samples == 0 ? forwardNanos : average + SMOOTHING * (forwardNanos - average);
+        samples++;
+        if (samples < MIN_SAMPLES) {
+            return false;
+        }
+
+        if (average > budgetNanos && i > 0) {
+            switchTo(i - 1);
+            return true;
+        }
+        if (i < sizes.length - 1) {
+            final float ratio = (float) sizes[i + 1] * sizes[i + 1] / ((float) sizes[i] * sizes[i]);
+            if (average * ratio < budgetNanos * UP_MARGIN) {
+                switchTo(i + 1);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void switchTo(int i) {
+        index = i;
+        average = 0;
+        samples = 0;
+        switches++;
+    }
+
+    public long getBudgetNanos() {
+        return budgetNanos;
+    }
+
+    /** Smoothed forward time at the current size, 0 before the first sample. */
+    public synchronized float getAverageNanos() {
+        return average;
+    }
+
+    public synchronized int getSwitchCount() {
+        return switches;
+    }
+}
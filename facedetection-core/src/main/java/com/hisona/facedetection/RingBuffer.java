@@ -0,0 +1,109 @@
+package com.hisona.facedetection;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free multi-producer multi-consumer queue (Vyukov's sequence based ring).
+ *
+ * Besides the usual offer/poll it offers {@link #offerDropOldest}, which makes room by removing
+ * the oldest element when the ring is full and hands it back, so pooled elements are never lost.
+ * That call only returns at once when a single thread produces into the ring; with several
+ * producers it may wait for a consumer to free a slot.
+ */
+public class RingBuffer<T> {
+
+    private final int mask;
+    private final AtomicReferenceArray<T> items;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong drops = new AtomicLong();
+
+    /** @param capacity rounded up to a power of two, at least 2 */
+    public RingBuffer(int capacity) {
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        mask = size - 1;
+        items = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /** Adds item, returns false if the ring is full. */
+    public boolean offer(T item) {
+        while (true) {
+            final long pos = tail.get();
+            final int index = (int) pos & mask;
+            final long seq = sequences.get(index);
+            if (seq == pos) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    items.lazySet(index, item);
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+            } else if (seq < pos) {
+                return false;
+            }
+        }
+    }
+
+    /** Removes the oldest item, returns null if the ring is empty. */
+    public T poll() {
+        while (true) {
+            final long pos = head.get();
+            final int index = (int) pos & mask;
+            final long seq = sequences.get(index);
+            if (seq == pos + 1) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    final T item = items.get(index);
+                    items.lazySet(index, null);
+                    sequences.set(index, pos + mask + 1);
+                    return item;
+                }
+            } else if (seq < pos + 1) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Adds item, removing the oldest item first if the ring is full. At most one item is
+     * removed per call.
+     *
+     * @return the removed item so the caller can recycle it, or null
+     */
+    public T offerDropOldest(T item) {
+        T dropped = null;
+        while (!offer(item)) {
+            if (dropped == null) {
+                dropped = poll();
+                if (dropped != null) {
+                    drops.incrementAndGet();
+                }
+            } else {
+                // a consumer has taken the slot the offer needs but not released it yet;
+                // polling again would throw away a second live item
+                Thread.yield();
+            }
+        }
+        return dropped;
+    }
+
+    /** Number of queued items, approximate while other threads are active. */
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, mask + 1));
+    }
+
+    /** Number of items removed by {@link #offerDropOldest}. */
+    public long getDropCount() {
+        return drops.get();
+    }
+}
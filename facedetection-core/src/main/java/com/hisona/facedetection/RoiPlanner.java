@@ -0,0 +1,160 @@
+package com.hisona.facedetection;
+
+/**
+ * Decides whether the next detector run covers the whole frame or only a region of interest
+ * around the faces found before.
+ *
+ * The region is the union of the last detections, grown by expansion around its centre, made
+ * square and kept inside the frame. It is letterboxed into a smaller inputSize x inputSize
+ * input, so the faces keep more pixels for less work than a full frame scan. Detections of a
+ * region run are mapped back to the frame by {@link Letterbox}.
+ *
+ * A full frame scan is made every fullScanInterval runs to pick up new faces, when a region
+ * run finds fewer faces than the region was planned for, and when the region would cover most
+ * of the frame anyway.
+ *
+ * plan() runs on the camera thread and update() on the thread delivering results.
+ */
+public class RoiPlanner {
+
+    public static final float DEFAULT_EXPANSION = 2.0f;
+    public static final int DEFAULT_INPUT_SIZE = 320;
+    public static final int DEFAULT_FULL_SCAN_INTERVAL = 10;
+
+    // above this fraction of the frame a region saves too little over a full scan
+    private static final float MAX_AREA_FRACTION = 0.5f;
+
+    private final float expansion;
+    private final int inputSize;
+    private final int fullScanInterval;
+
+    // union of the last detections in source pixels
+    private int faces;
+    private float x1;
+    private float y1;
+    private float x2;
+    private float y2;
+    private boolean lost = true;
+    private int sinceFullScan;
+
+    private int roiX;
+    private int roiY;
+    private int roiWidth;
+    private int roiHeight;
+
+    private long roiRuns;
+    private long fullScans;
+
+    public RoiPlanner() {
+        this(DEFAULT_EXPANSION, DEFAULT_INPUT_SIZE, DEFAULT_FULL_SCAN_INTERVAL);
+    }
+
+    /**
+     * @param expansion size of the region relative to the detections it covers
+     * @param inputSize model input size of region runs
+     * @param fullScanInterval runs after which the whole frame is scanned again
+     */
+    public RoiPlanner(float expansion, int inputSize, int fullScanInterval) {
+        this.expansion = Math.max(1.0f, expansion);
+        this.inputSize = inputSize;
+        this.fullScanInterval = Math.max(1, fullScanInterval);
+    }
+
+    /**
+     * Plans the next detector run on a frame of the given upright size.
+     *
+     * @return true to run on the region given by getX(), getY(), getWidth() and getHeight(),
+     *         false to scan the whole frame
+     */
+    public synchronized boolean plan(int frameWidth, int frameHeight) {
+        if (faces > 0 && !lost && sinceFullScan < fullScanInterval && window(frameWidth, frameHeight)) {
+            sinceFullScan++;
+            roiRuns++;
+            return true;
+        }
+        sinceFullScan = 0;
+        fullScans++;
+        return false;
+    }
+
+    private boolean window(int frameWidth, int frameHeight) {
+        final float side = Math.max(x2 - x1, y2 - y1) * expansion;
+        final int width = Math.min(frameWidth, Math.round(side));
+        final int height = Math.min(frameHeight, Math.round(side));
+        if (width <= 0 || height <= 0
+                || (float) width * height > MAX_AREA_FRACTION * frameWidth * frameHeight) {
+            return false;
+        }
+
+        // centred on the faces, shifted back inside the frame at the borders
+        final int x = Math.round((x1 + x2 - width) * 0.5f);
+        final int y = Math.round((y1 + y2 - height) * 0.5f);
+        roiX = Math.max(0, Math.min(frameWidth - width, x));
+        roiY = Math.max(0, Math.min(frameHeight - height, y));
+        roiWidth = width;
+        roiHeight = height;
+        return true;
+    }
+
+    /** Takes the faces of a detector run, full frame or region, as the base of the next region. */
+    public synchronized void update(DetectionResult result) {
+        if (result.cropped && result.count < faces) {
+            // a face left the region, or was missed in it
+            lost = true;
+            return;
+        }
+        if (!result.cropped) {
+            lost = false;
+        }
+
+        faces = result.count;
+        if (faces == 0) {
+            return;
+        }
+        final float[] b = result.sourceBoxes;
+        x1 = b[0];
+        y1 = b[1];
+        x2 = b[2];
+        y2 = b[3];
+        for (int i = 1; i < faces; i++) {
+            x1 = Math.min(x1, b[4 * i]);
+            y1 = Math.min(y1, b[4 * i + 1]);
+            x2 = Math.max(x2, b[4 * i + 2]);
+            y2 = Math.max(y2, b[4 * i + 3]);
+        }
+    }
+
+    public synchronized void reset() {
+        faces = 0;
+        lost = true;
+        sinceFullScan = 0;
+    }
+
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    public synchronized int getX() {
+        return roiX;
+    }
+
+    public synchronized int getY() {
+        return roiY;
+    }
+
+    public synchronized int getWidth() {
+        return roiWidth;
+    }
+
+    public synchronized int getHeight() {
+        return roiHeight;
+    }
+
+    public synchronized long getRoiRuns() {
+        return roiRuns;
+    }
+
+    public synchronized long getFullScans() {
+        return fullScans;
+    }
+}
@@ -0,0 +1,95 @@
+package com.hisona.facedetection;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Picks the intra-op thread count of the inference runtime by timing inferences with 1 to
+ * maxThreads threads.
+ *
+ * Each setting runs once untimed, so the runtime can resize its thread pool, then runs times;
+ * the median of the durations the trial reports is its cost. The fewest threads within tolerance of the fastest setting
+ * win: threads that barely help still take cores from the analyzer and UI threads.
+ */
+public class ThreadTuner {
+
+    public static final int DEFAULT_RUNS = 3;
+    public static final float DEFAULT_TOLERANCE = 0.05f;
+
+    /** Runs one inference with the given number of intra-op threads. */
+    public interface Trial {
+        /** @return duration of the inference in nanoseconds */
+        long run(int threads);
+    }
+
+    /** Outcome of a tuning. */
+    public static class Result {
+        public int threads;
+        /** Median inference time with i + 1 threads. */
+        public long[] medianNanos;
+
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder();
+            out.append(threads).append(" threads (");
+            for (int i = 0; i < medianNanos.length; i++) {
+                if (i > 0) {
+                    out.append(", ");
+                }
+                out.append(String.format(Locale.US, "%d: %.1f ms", i + 1, medianNanos[i] / 1e6));
+            }
+            return out.append(')').toString();
+        }
+    }
+
+    private final int maxThreads;
+    private final int runs;
+    private final float tolerance;
+
+    public ThreadTuner(int maxThreads) {
+        this(maxThreads, DEFAULT_RUNS, DEFAULT_TOLERANCE);
+    }
+
+    /**
+     * @param maxThreads largest thread count tried
+     * @param runs timed inferences per thread count
+     * @param tolerance how much slower than the fastest setting, as a fraction, a setting with
+     *                  fewer threads may be and still be picked
+     */
+    public ThreadTuner(int maxThreads, int runs, float tolerance) {
+        if (maxThreads <= 0) {
+            throw new IllegalArgumentException("maxThreads must be positive: " + maxThreads);
+        }
+        if (runs <= 0) {
+            throw new IllegalArgumentException("runs must be positive: " + runs);
+        }
+        this.maxThreads = maxThreads;
+        this.runs = runs;
+        this.tolerance = tolerance;
+    }
+
+    public Result tune(Trial trial) {
+        Result result = new Result();
+        result.medianNanos = new long[maxThreads];
+        final long[] times = new long[runs];
+        long fastest = Long.MAX_VALUE;
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            trial.run(threads);
+            for (int i = 0; i < runs; i++) {
+                times[i] = trial.run(threads);
+            }
+            Arrays.sort(times);
+            final long median = times[runs / 2];
+            result.medianNanos[threads - 1] = median;
+            fastest = Math.min(fastest, median);
+        }
+
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            if (result.medianNanos[threads - 1] <= fastest * (1 + tolerance)) {
+                result.threads = threads;
+                break;
+            }
+        }
+        return result;
+    }
+}
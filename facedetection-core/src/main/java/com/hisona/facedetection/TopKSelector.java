@@ -0,0 +1,119 @@
+package com.hisona.facedetection;
+
+/**
+ * Picks the K best scoring anchors above a threshold in O(n log K), without boxing.
+ *
+ * A bounded min-heap over parallel score/index arrays keeps the current K best; the root is
+ * the weakest kept candidate, so most anchors are rejected by a single comparison against it.
+ * Ties are broken by anchor index, which gives the same order as a stable descending sort.
+ *
+ * Not thread safe, the heap is reused between calls.
+ */
+public class TopKSelector {
+
+    private final int k;
+    private final float[] heapScore;
+    private final int[] heapIndex;
+
+    public TopKSelector(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        this.k = k;
+        this.heapScore = new float[k];
+        this.heapIndex = new int[k];
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * Writes the best min(K, candidates) anchors into out, ordered by descending score.
+     *
+     * @param cls class output, two scores (background, face) per anchor
+     * @return number of selected anchors
+     */
+    public int select(float[] cls, int anchorCount, float threshold, FaceBoxes out) {
+        return select(cls, 2, 1, 0, anchorCount, threshold, out);
+    }
+
+    /**
+     * Same as {@link #select(float[], int, float, FaceBoxes)} over scores[offset + i * stride]
+     * for anchors i in [from, to).
+     */
+    public int select(float[] scores, int stride, int offset, int from, int to, float threshold, FaceBoxes out) {
+        final float[] heapScore = this.heapScore;
+        final int[] heapIndex = this.heapIndex;
+        int size = 0;
+
+        for (int i = from; i < to; i++) {
+            final float s = scores[offset + i * stride];
+            if (!(s > threshold)) {
+                continue;
+            }
+            if (size < k) {
+                siftUp(size++, s, i);
+            } else if (better(s, i, heapScore[0], heapIndex[0])) {
+                siftDown(0, size, s, i);
+            }
+        }
+
+        // pop the weakest to the back, leaving the heap arrays in descending order
+        for (int end = size - 1; end > 0; end--) {
+            final float s = heapScore[end];
+            final int idx = heapIndex[end];
+            heapScore[end] = heapScore[0];
+            heapIndex[end] = heapIndex[0];
+            siftDown(0, end, s, idx);
+        }
+
+        out.ensureCapacity(size);
+        System.arraycopy(heapScore, 0, out.score, 0, size);
+        System.arraycopy(heapIndex, 0, out.anchor, 0, size);
+        out.count = size;
+        return size;
+    }
+
+    /** True if (s1, i1) ranks ahead of (s2, i2). */
+    private static boolean better(float s1, int i1, float s2, int i2) {
+        return s1 > s2 || (s1 == s2 && i1 < i2);
+    }
+
+    private void siftUp(int pos, float s, int idx) {
+        final float[] heapScore = this.heapScore;
+        final int[] heapIndex = this.heapIndex;
+        while (pos > 0) {
+            final int parent = (pos - 1) >>> 1;
+            if (!better(heapScore[parent], heapIndex[parent], s, idx)) {
+                break;
+            }
+            heapScore[pos] = heapScore[parent];
+            heapIndex[pos] = heapIndex[parent];
+            pos = parent;
+        }
+        heapScore[pos] = s;
+        heapIndex[pos] = idx;
+    }
+
+    private void siftDown(int pos, int size, float s, int idx) {
+        final float[] heapScore = this.heapScore;
+        final int[] heapIndex = this.heapIndex;
+        final int half = size >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            final int right = child + 1;
+            if (right < size && better(heapScore[child], heapIndex[child], heapScore[right], heapIndex[right])) {
+                child = right;
+            }
+            if (!better(s, idx, heapScore[child], heapIndex[child])) {
+                break;
+            }
+            heapScore[pos] = heapScore[child];
+            heapIndex[pos] = heapIndex[child];
+            pos = child;
+        }
+        heapScore[pos] = s;
+        heapIndex[pos] = idx;
+    }
+}
@@ -0,0 +1,304 @@
+package com.hisona.facedetection;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Converts YUV_420_888 planes straight into the normalized CHW float input of the model.
+ *
+ * Rotation, front camera flip, cropping, scaling and letterbox padding are folded into per
+ * column and per row source offset tables, so the per-pixel loop is two table lookups and a
+ * colour conversion. The tables are only rebuilt when the frame geometry changes.
+ *
+ * The class only depends on java.nio so it can be tested and benchmarked on a plain JVM.
+ */
+public class YuvConverter {
+
+    private int srcWidth;
+    private int srcHeight;
+    private int rotation;
+    private boolean flip;
+    private int outWidth;
+    private int outHeight;
+    private int cropX;
+    private int cropY;
+    private int cropWidth;
+    private int cropHeight;
+    private int yRowStride;
+    private int uvRowStride;
+    private int uvPixelStride;
+    private boolean configured;
+
+    // letterbox geometry in output pixels
+    private int rotatedWidth;
+    private int rotatedHeight;
+    private float scale;
+    private int padX;
+    private int padY;
+    private int contentWidth;
+    private int contentHeight;
+
+    // source offsets, -1 for padding
+    private int[] colY = new int[0];
+    private int[] colUV = new int[0];
+    private int[] rowY = new int[0];
+    private int[] rowUV = new int[0];
+
+    private float[] rowR = new float[0];
+    private float[] rowG = new float[0];
+    private float[] rowB = new float[0];
+
+    private final PixelNormalizer normalizer = new PixelNormalizer();
+
+    /**
+     * Prepares the lookup tables for the given geometry. Does nothing when it is unchanged.
+     *
+     * @param rotation clockwise rotation in degrees, one of 0, 90, 180, 270
+     * @param flip mirror horizontally after rotation (front camera)
+     */
+    public void configure(int srcWidth, int srcHeight, int yRowStride, int uvRowStride, int uvPixelStride,
+                          int rotation, boolean flip, int outWidth, int outHeight) {
+        boolean swap = rotation == 90 || rotation == 270;
+        configure(srcWidth, srcHeight, yRowStride, uvRowStride, uvPixelStride, rotation, flip,
+                0, 0, swap ? srcHeight : srcWidth, swap ? srcWidth : srcHeight, outWidth, outHeight);
+    }
+
+    /**
+     * Same as {@link #configure(int, int, int, int, int, int, boolean, int, int)} for the crop
+     * window (cropX, cropY, cropWidth, cropHeight) of the upright, mirrored frame only.
+     */
+    public void configure(int srcWidth, int srcHeight, int yRowStride, int uvRowStride, int uvPixelStride,
+                          int rotation, boolean flip, int cropX, int cropY, int cropWidth, int cropHeight,
+                          int outWidth, int outHeight) {
+        if (configured
+                && this.srcWidth == srcWidth && this.srcHeight == srcHeight
+                && this.yRowStride == yRowStride && this.uvRowStride == uvRowStride
+                && this.uvPixelStride == uvPixelStride && this.rotation == rotation
+                && this.flip == flip && this.outWidth == outWidth && this.outHeight == outHeight
+                && this.cropX == cropX && this.cropY == cropY
+                && this.cropWidth == cropWidth && this.cropHeight == cropHeight) {
+            return;
+        }
+        if (rotation != 0 && rotation != 90 && rotation != 180 && rotation != 270) {
+            throw new IllegalArgumentException("Unsupported rotation: " + rotation);
+        }
+        boolean swap = rotation == 90 || rotation == 270;
+        int rw = swap ? srcHeight : srcWidth;
+        int rh = swap ? srcWidth : srcHeight;
+        if (cropX < 0 || cropY < 0 || cropWidth <= 0 || cropHeight <= 0
+                || cropX + cropWidth > rw || cropY + cropHeight > rh) {
+            throw new IllegalArgumentException("Crop outside of the frame");
+        }
+
+        this.srcWidth = srcWidth;
+        this.srcHeight = srcHeight;
+        this.yRowStride = yRowStride;
+        this.uvRowStride = uvRowStride;
+        this.uvPixelStride = uvPixelStride;
+        this.rotation = rotation;
+        this.flip = flip;
+        this.outWidth = outWidth;
+        this.outHeight = outHeight;
+        this.cropX = cropX;
+        this.cropY = cropY;
+        this.cropWidth = cropWidth;
+        this.cropHeight = cropHeight;
+
+        rotatedWidth = rw;
+        rotatedHeight = rh;
+
+        scale = Math.min((float) outWidth / cropWidth, (float) outHeight / cropHeight);
+        contentWidth = Math.min(outWidth, Math.round(cropWidth * scale));
+        contentHeight = Math.min(outHeight, Math.round(cropHeight * scale));
+        padX = (outWidth - contentWidth) / 2;
+        padY = (outHeight - contentHeight) / 2;
+
+        if (colY.length != outWidth) {
+            colY = new int[outWidth];
+            colUV = new int[outWidth];
+            rowR = new float[outWidth];
+            rowG = new float[outWidth];
+            rowB = new float[outWidth];
+        }
+        if (rowY.length != outHeight) {
+            rowY = new int[outHeight];
+            rowUV = new int[outHeight];
+        }
+
+        for (int ox = 0; ox < outWidth; ox++) {
+            int cx = ox - padX;
+            if (cx < 0 || cx >= contentWidth) {
+                colY[ox] = -1;
+                colUV[ox] = -1;
+                continue;
+            }
+            int rx = cropX + Math.min(cropWidth - 1, (int) ((cx + 0.5f) / scale));
+            if (flip) rx = rw - 1 - rx;
+
+            // rx moves along the source x axis for 0/180 and along the y axis for 90/270
+            switch (rotation) {
+                case 0:
+                    colY[ox] = rx;
+                    colUV[ox] = (rx >> 1) * uvPixelStride;
+                    break;
+                case 90:
+                    colY[ox] = (srcHeight - 1 - rx) * yRowStride;
+                    colUV[ox] = ((srcHeight - 1 - rx) >> 1) * uvRowStride;
+                    break;
+                case 180:
+                    colY[ox] = srcWidth - 1 - rx;
+                    colUV[ox] = ((srcWidth - 1 - rx) >> 1) * uvPixelStride;
+                    break;
+                default:
+                    colY[ox] = rx * yRowStride;
+                    colUV[ox] = (rx >> 1) * uvRowStride;
+                    break;
+            }
+        }
+
+        for (int oy = 0; oy < outHeight; oy++) {
+            int cy = oy - padY;
+            if (cy < 0 || cy >= contentHeight) {
+                rowY[oy] = -1;
+                rowUV[oy] = -1;
+                continue;
+            }
+            int ry = cropY + Math.min(cropHeight - 1, (int) ((cy + 0.5f) / scale));
+
+            switch (rotation) {
+                case 0:
+                    rowY[oy] = ry * yRowStride;
+                    rowUV[oy] = (ry >> 1) * uvRowStride;
+                    break;
+                case 90:
+                    rowY[oy] = ry;
+                    rowUV[oy] = (ry >> 1) * uvPixelStride;
+                    break;
+                case 180:
+                    rowY[oy] = (srcHeight - 1 - ry) * yRowStride;
+                    rowUV[oy] = ((srcHeight - 1 - ry) >> 1) * uvRowStride;
+                    break;
+                default:
+                    rowY[oy] = (srcWidth - 1 - ry);
+                    rowUV[oy] = ((srcWidth - 1 - ry) >> 1) * uvPixelStride;
+                    break;
+            }
+        }
+
+        configured = true;
+    }
+
+    /**
+     * Writes the configured frame into outBuffer as planar R, G, B starting at outBufferOffset.
+     * Padding pixels are black, like the blank bitmaps of FaceUtils.preProcessing.
+     * The position of outBuffer is reset to 0 on return.
+     */
+    public void convert(ByteBuffer yBuffer, ByteBuffer uBuffer, ByteBuffer vBuffer,
+                        float[] normMeanRGB, float[] normStdRGB,
+                        FloatBuffer outBuffer, int outBufferOffset) {
+        if (!configured) {
+            throw new IllegalStateException("YuvConverter is not configured");
+        }
+        if (outBufferOffset + 3 * outWidth * outHeight > outBuffer.capacity()) {
+            throw new IllegalStateException("Buffer underflow");
+        }
+        normalizer.setNormalization(normMeanRGB, normStdRGB);
+
+        final int width = outWidth;
+        final int planeSize = outWidth * outHeight;
+        final int[] colY = this.colY;
+        final int[] colUV = this.colUV;
+        final float[] lutR = normalizer.getTable(0);
+        final float[] lutG = normalizer.getTable(1);
+        final float[] lutB = normalizer.getTable(2);
+        final float[] rowR = this.rowR;
+        final float[] rowG = this.rowG;
+        final float[] rowB = this.rowB;
+        final float padR = lutR[0];
+        final float padG = lutG[0];
+        final float padB = lutB[0];
+
+        for (int oy = 0; oy < outHeight; oy++) {
+            final int yRow = rowY[oy];
+            final int uvRow = rowUV[oy];
+
+            if (yRow < 0) {
+                for (int ox = 0; ox < width; ox++) {
+                    rowR[ox] = padR;
+                    rowG[ox] = padG;
+                    rowB[ox] = padB;
+                }
+            } else {
+                for (int ox = 0; ox < width; ox++) {
+                    final int yOff = colY[ox];
+                    if (yOff < 0) {
+                        rowR[ox] = padR;
+                        rowG[ox] = padG;
+                        rowB[ox] = padB;
+                        continue;
+                    }
+                    final int uvOff = uvRow + colUV[ox];
+                    final int y = yBuffer.get(yRow + yOff) & 0xff;
+                    final int u = (uBuffer.get(uvOff) & 0xff) - 128;
+                    final int v = (vBuffer.get(uvOff) & 0xff) - 128;
+
+                    // full range BT.601, the same matrix used by the JPEG path
+                    int r = y + ((91881 * v) >> 16);
+                    int g = y - ((22554 * u + 46802 * v) >> 16);
+                    int b = y + ((116130 * u) >> 16);
+                    r = r < 0 ? 0 : (r > 255 ? 255 : r);
+                    g = g < 0 ? 0 : (g > 255 ? 255 : g);
+                    b = b < 0 ? 0 : (b > 255 ? 255 : b);
+
+                    rowR[ox] = lutR[r];
+                    rowG[ox] = lutG[g];
+                    rowB[ox] = lutB[b];
+                }
+            }
+
+            final int base = outBufferOffset + oy * width;
+            outBuffer.position(base);
+            outBuffer.put(rowR, 0, width);
+            outBuffer.position(base + planeSize);
+            outBuffer.put(rowG, 0, width);
+            outBuffer.position(base + 2 * planeSize);
+            outBuffer.put(rowB, 0, width);
+        }
+        outBuffer.position(0);
+    }
+
+    public int getOutWidth() {
+        return outWidth;
+    }
+
+    public int getOutHeight() {
+        return outHeight;
+    }
+
+    /** Scale from rotated source pixels to output pixels. */
+    public float getScale() {
+        return scale;
+    }
+
+    public int getPadX() {
+        return padX;
+    }
+
+    public int getPadY() {
+        return padY;
+    }
+
+    public int getContentWidth() {
+        return contentWidth;
+    }
+
+    public int getContentHeight() {
+        return contentHeight;
+    }
+
+    /** Copies the mapping between the rotated frame and the output into letterbox. */
+    public Letterbox getLetterbox(Letterbox letterbox) {
+        letterbox.set(rotatedWidth, rotatedHeight, scale, padX, padY, cropX, cropY, cropWidth, cropHeight);
+        return letterbox;
+    }
+}
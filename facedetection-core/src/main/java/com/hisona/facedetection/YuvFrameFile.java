@@ -0,0 +1,181 @@
+package com.hisona.facedetection;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Recorded YUV_420_888 camera frames, memory-mapped for replay.
+ *
+ * The file starts with the magic "FDY1" and the frame count. Each frame is a header of sensor
+ * width and height, Y row stride, UV row stride, UV pixel stride, rotation, flip, timestamp and
+ * the byte length of each plane, followed by the Y, U and V planes as the camera delivered them,
+ * stride padding included. Numbers are big endian.
+ *
+ * The planes of a loaded file are views of the mapping, nothing is copied.
+ */
+public class YuvFrameFile {
+
+    private static final int MAGIC = 0x46445931; // "FDY1"
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int FRAME_HEADER_SIZE = 7 * 4 + 8 + 3 * 4;
+
+    /** One recorded frame, in the terms of {@link YuvConverter#configure}. */
+    public static class Frame {
+        public int width;
+        public int height;
+        public int yRowStride;
+        public int uvRowStride;
+        public int uvPixelStride;
+        /** Clockwise rotation to upright, one of 0, 90, 180, 270. */
+        public int rotation;
+        /** Mirrored after rotation, front camera. */
+        public boolean flip;
+        public long timestampNanos;
+        public ByteBuffer y;
+        public ByteBuffer u;
+        public ByteBuffer v;
+    }
+
+    private final File file;
+    private final Frame[] frames;
+
+    private YuvFrameFile(File file, Frame[] frames) {
+        this.file = file;
+        this.frames = frames;
+    }
+
+    /** Maps a file written by {@link Writer}. */
+    public static YuvFrameFile open(File file) throws IOException {
+        MappedByteBuffer map;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Recording larger than 2 GB: " + file);
+            }
+            // the mapping stays valid once the channel is closed
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (map.remaining() < FILE_HEADER_SIZE || map.getInt(0) != MAGIC) {
+            throw new IOException("Not a YUV frame recording: " + file);
+        }
+        Frame[] frames = new Frame[map.getInt(4)];
+        int offset = FILE_HEADER_SIZE;
+        for (int i = 0; i < frames.length; i++) {
+            if (offset + FRAME_HEADER_SIZE > map.limit()) {
+                throw new IOException("Truncated recording, frame " + i + " of " + frames.length);
+            }
+            Frame frame = new Frame();
+            frame.width = map.getInt(offset);
+            frame.height = map.getInt(offset + 4);
+            frame.yRowStride = map.getInt(offset + 8);
+            frame.uvRowStride = map.getInt(offset + 12);
+            frame.uvPixelStride = map.getInt(offset + 16);
+            frame.rotation = map.getInt(offset + 20);
+            frame.flip = map.getInt(offset + 24) != 0;
+            frame.timestampNanos = map.getLong(offset + 28);
+            final int yLength = map.getInt(offset + 36);
+            final int uLength = map.getInt(offset + 40);
+            final int vLength = map.getInt(offset + 44);
+            offset += FRAME_HEADER_SIZE;
+            if ((long) offset + yLength + uLength + vLength > map.limit()) {
+                throw new IOException("Truncated recording, frame " + i + " of " + frames.length);
+            }
+            frame.y = slice(map, offset, yLength);
+            frame.u = slice(map, offset + yLength, uLength);
+            frame.v = slice(map, offset + yLength + uLength, vLength);
+            offset += yLength + uLength + vLength;
+            frames[i] = frame;
+        }
+        return new YuvFrameFile(file, frames);
+    }
+
+    private static ByteBuffer slice(ByteBuffer map, int offset, int length) {
+        ByteBuffer view = map.duplicate();
+        view.limit(offset + length);
+        view.position(offset);
+        return view.slice();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getFrameCount() {
+        return frames.length;
+    }
+
+    public Frame getFrame(int index) {
+        return frames[index];
+    }
+
+    /** Appends frames to a new recording. The frame count is written on close. */
+    public static class Writer implements Closeable {
+        private final RandomAccessFile raf;
+        private final FileChannel channel;
+        private final ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+        private int count;
+
+        public Writer(File file) throws IOException {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(0);
+            channel = raf.getChannel();
+            ByteBuffer start = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            start.putInt(MAGIC).putInt(0).flip();
+            writeFully(start);
+        }
+
+        /**
+         * Appends a frame. The planes are written from position 0 to their limit, their
+         * positions are left untouched.
+         */
+        public void write(int width, int height, int yRowStride, int uvRowStride, int uvPixelStride,
+                          int rotation, boolean flip, long timestampNanos,
+                          ByteBuffer y, ByteBuffer u, ByteBuffer v) throws IOException {
+            header.clear();
+            header.putInt(width).putInt(height)
+                    .putInt(yRowStride).putInt(uvRowStride).putInt(uvPixelStride)
+                    .putInt(rotation).putInt(flip ? 1 : 0)
+                    .putLong(timestampNanos)
+                    .putInt(y.limit()).putInt(u.limit()).putInt(v.limit());
+            header.flip();
+            writeFully(header);
+            writeFully(rewound(y));
+            writeFully(rewound(u));
+            writeFully(rewound(v));
+            count++;
+        }
+
+        public int getFrameCount() {
+            return count;
+        }
+
+        private static ByteBuffer rewound(ByteBuffer plane) {
+            ByteBuffer view = plane.duplicate();
+            view.position(0);
+            return view;
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                ByteBuffer countBuffer = ByteBuffer.allocate(4);
+                countBuffer.putInt(count).flip();
+                channel.write(countBuffer, 4);
+            } finally {
+                raf.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.hisona.facedetection;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AnchorTableTest {
+
+    @Test
+    public void defaultConfig_at640_has4200Anchors() {
+        AnchorTable table = AnchorTable.build(640, 640, AnchorConfig.DEFAULT);
+
+        assertEquals(4200, table.size);
+        assertEquals(3, table.getLevelCount());
+        assertEquals(0, table.getLevelStart(0));
+        assertEquals(2 * 40 * 40, table.getLevelStart(1));
+        assertEquals(2 * 40 * 40 + 2 * 20 * 20, table.getLevelStart(2));
+    }
+
+    @Test
+    public void anchors_matchPriorBoxLayout() {
+        AnchorTable table = AnchorTable.build(640, 640, AnchorConfig.DEFAULT);
+
+        // first cell of the stride 16 level, sizes 16 and 32
+        assertEquals((float) (0.5 * 16 / 640.0), table.cx[0], 0.0f);
+        assertEquals((float) (16.0 / 640.0), table.w[0], 0.0f);
+        assertEquals((float) (32.0 / 640.0), table.w[1], 0.0f);
+        // second cell moves along x
+        assertEquals((float) (1.5 * 16 / 640.0), table.cx[2], 0.0f);
+        assertEquals((float) (0.5 * 16 / 640.0), table.cy[2], 0.0f);
+        // last anchor, stride 64 and size 512
+        int last = table.size - 1;
+        assertEquals((float) (9.5 * 64 / 640.0), table.cx[last], 0.0f);
+        assertEquals((float) (9.5 * 64 / 640.0), table.cy[last], 0.0f);
+        assertEquals((float) (512.0 / 640.0), table.h[last], 0.0f);
+    }
+
+    @Test
+    public void nonSquareInput_roundsFeatureMapsUp() {
+        AnchorTable table = AnchorTable.build(480, 360, AnchorConfig.DEFAULT);
+
+        int expected = 2 * (30 * 23) + 2 * (15 * 12) + 2 * (8 * 6);
+        assertEquals(expected, table.size);
+        assertEquals(expected, AnchorConfig.DEFAULT.getAnchorCount(480, 360));
+    }
+
+    @Test
+    public void get_returnsCachedTable() {
+        AnchorConfig config = new AnchorConfig(new int[]{16, 32, 64},
+                new int[][]{{16, 32}, {64, 128}, {256, 512}});
+
+        AnchorTable table = AnchorTable.get(320, 320, AnchorConfig.DEFAULT);
+        assertSame(table, AnchorTable.get(320, 320, config));
+        assertNotSame(table, AnchorTable.get(640, 640, config));
+    }
+}
@@ -0,0 +1,217 @@
+package com.hisona.facedetection;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BatchDetectorTest {
+
+    private static final int SIZE = 64;
+
+    /** Backend giving image i a face on anchor i, where i is the value the loader wrote. */
+    private static class IndexBackend implements BatchInferenceBackend {
+        final int anchorCount = AnchorConfig.DEFAULT.getAnchorCount(SIZE, SIZE);
+        final List<Integer> batchSizes = new ArrayList<>();
+
+        @Override
+        public void forward(FloatBuffer input, int width, int height, ModelOutputs outputs) {
+            outputs.loc = new float[4 * anchorCount];
+            outputs.cls = new float[2 * anchorCount];
+            outputs.ldm = null;
+            outputs.cls[2 * (int) input.get(0) + 1] = 0.9f;
+        }
+
+        @Override
+        public void forwardBatch(FloatBuffer input, int batchSize, int width, int height, ModelOutputs[] outputs) {
+            batchSizes.add(batchSize);
+            for (int i = 0; i < batchSize; i++) {
+                FloatBuffer image = input.duplicate();
+                image.position(i * 3 * width * height);
+                forward(image.slice(), width, height, outputs[i]);
+            }
+        }
+    }
+
+    /** Writes the item into the first input value, fails on negative items. */
+    private static class IndexLoader implements BatchDetector.Loader<Integer> {
+        @Override
+        public void load(Integer item, int width, int height, FloatBuffer out, Letterbox letterbox)
+                throws IOException {
+            if (item < 0) {
+                throw new IOException("Bad image " + item);
+            }
+            out.put(0, item);
+            letterbox.set(width, height, 1.0f, 0, 0);
+        }
+    }
+
+    /** IndexLoader taking a while per image and counting the loads in progress. */
+    private static class SlowLoader extends IndexLoader {
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger started = new AtomicInteger();
+
+        @Override
+        public void load(Integer item, int width, int height, FloatBuffer out, Letterbox letterbox)
+                throws IOException {
+            active.incrementAndGet();
+            started.incrementAndGet();
+            try {
+                Thread.sleep(20);
+                super.load(item, width, height, out, letterbox);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+    }
+
+    private static List<Integer> range(int count) {
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            items.add(i);
+        }
+        return items;
+    }
+
+    private static class Collector implements BatchDetector.Listener<Integer> {
+        final List<Integer> items = new ArrayList<>();
+        final List<Float> x1 = new ArrayList<>();
+        final List<Long> sequences = new ArrayList<>();
+        final List<Integer> errors = new ArrayList<>();
+
+        @Override
+        public void onResult(Integer item, DetectionResult result) {
+            items.add(item);
+            assertEquals(1, result.count);
+            x1.add(result.boxes[0]);
+            sequences.add(result.sequence);
+        }
+
+        @Override
+        public void onError(Integer item, Exception e) {
+            errors.add(item);
+        }
+    }
+
+    @Test
+    public void batchSize_fitsTheMemoryLimit() {
+        int anchors = AnchorConfig.DEFAULT.getAnchorCount(640, 640);
+        // 2 * 4.9 MB of input and 2 * 269 KB of outputs per 640x640 image
+        assertEquals(8, BatchDetector.batchSize(640, 640, anchors, 8, 1L << 30));
+        assertEquals(4, BatchDetector.batchSize(640, 640, anchors, 8, 48L << 20));
+        assertEquals(1, BatchDetector.batchSize(640, 640, anchors, 8, 1024));
+    }
+
+    @Test
+    public void run_deliversEveryImageInOrder() throws Exception {
+        IndexBackend backend = new IndexBackend();
+        BatchDetector<Integer> detector = new BatchDetector<>(new FaceDetector(backend), new IndexLoader(),
+                SIZE, SIZE, 4, Long.MAX_VALUE, 3);
+        Collector collector = new Collector();
+
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            items.add(2 * i);
+        }
+        detector.run(items, collector);
+        detector.shutdown();
+
+        assertEquals(items, collector.items);
+        assertEquals(Arrays.asList(4, 4, 2), backend.batchSizes);
+        AnchorTable anchors = AnchorTable.get(SIZE, SIZE, AnchorConfig.DEFAULT);
+        for (int i = 0; i < items.size(); i++) {
+            assertEquals(Long.valueOf(i), collector.sequences.get(i));
+            int anchor = items.get(i);
+            assertEquals((anchors.cx[anchor] - anchors.w[anchor] / 2) * SIZE, collector.x1.get(i), 1e-3f);
+        }
+    }
+
+    @Test
+    public void run_reportsFailedImagesAndKeepsGoing() throws Exception {
+        BatchDetector<Integer> detector = new BatchDetector<>(new FaceDetector(new IndexBackend()),
+                new IndexLoader(), SIZE, SIZE, 2, Long.MAX_VALUE, 2);
+        Collector collector = new Collector();
+
+        detector.run(Arrays.asList(1, -1, 3, -2, 5), collector);
+        detector.shutdown();
+
+        assertEquals(Arrays.asList(1, 3, 5), collector.items);
+        assertEquals(Arrays.asList(-1, -2), collector.errors);
+        assertEquals(Arrays.asList(0L, 2L, 4L), collector.sequences);
+    }
+
+    @Test
+    public void run_worksWithBackendsWithoutBatchSupport() throws Exception {
+        final IndexBackend indexBackend = new IndexBackend();
+        InferenceBackend single = new InferenceBackend() {
+            @Override
+            public void forward(FloatBuffer input, int width, int height, ModelOutputs outputs) {
+                indexBackend.forward(input, width, height, outputs);
+            }
+        };
+        BatchDetector<Integer> detector = new BatchDetector<>(new FaceDetector(single), new IndexLoader(),
+                SIZE, SIZE, 3, Long.MAX_VALUE, 2);
+        Collector collector = new Collector();
+
+        detector.run(Arrays.asList(4, 6, 8, 10), collector);
+        detector.shutdown();
+
+        assertEquals(Arrays.asList(4, 6, 8, 10), collector.items);
+    }
+
+    @Test
+    public void run_stopsLoadsWhenListenerThrows() throws Exception {
+        SlowLoader loader = new SlowLoader();
+        BatchDetector<Integer> detector = new BatchDetector<>(new FaceDetector(new IndexBackend()), loader,
+                SIZE, SIZE, 2, Long.MAX_VALUE, 2);
+        BatchDetector.Listener<Integer> failing = new Collector() {
+            @Override
+            public void onResult(Integer item, DetectionResult result) {
+                throw new IllegalStateException("listener failed");
+            }
+        };
+
+        try {
+            detector.run(range(10), failing);
+            fail("run did not rethrow");
+        } catch (IllegalStateException e) {
+            assertEquals("listener failed", e.getMessage());
+        }
+        // the loads of the following batch ended before run returned, no other one starts
+        assertEquals(0, loader.active.get());
+        int started = loader.started.get();
+        Thread.sleep(60);
+        assertEquals(started, loader.started.get());
+
+        // the buffers are free for the next run
+        Collector collector = new Collector();
+        detector.run(range(5), collector);
+        detector.shutdown();
+        assertEquals(range(5), collector.items);
+    }
+
+    @Test
+    public void run_stopsLoadsWhenInterrupted() throws Exception {
+        SlowLoader loader = new SlowLoader();
+        BatchDetector<Integer> detector = new BatchDetector<>(new FaceDetector(new IndexBackend()), loader,
+                SIZE, SIZE, 4, Long.MAX_VALUE, 2);
+
+        Thread.currentThread().interrupt();
+        try {
+            detector.run(range(8), new Collector());
+            fail("run was not interrupted");
+        } catch (InterruptedException e) {
+            // expected
+        }
+        assertEquals(0, loader.active.get());
+        detector.shutdown();
+    }
+}
@@ -0,0 +1,84 @@
+package com.hisona.facedetection;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BoxDecoderTest {
+
+    private static final AnchorTable ANCHORS = AnchorTable.build(640, 640, AnchorConfig.DEFAULT);
+
+    private static float[] scores(int... faces) {
+        float[] cls = new float[2 * ANCHORS.size];
+        for (int i = 0; i < ANCHORS.size; i++) {
+            cls[2 * i] = 0.99f;
+            cls[2 * i + 1] = 0.01f;
+        }
+        for (int i : faces) {
+            cls[2 * i] = 0.1f;
+            cls[2 * i + 1] = 0.9f;
+        }
+        return cls;
+    }
+
+    @Test
+    public void filter_keepsOnlyAnchorsAboveThreshold() {
+        FaceBoxes boxes = new FaceBoxes();
+        int n = BoxDecoder.filter(scores(5, 100, 4199), ANCHORS.size, 0.2f, boxes);
+
+        assertEquals(3, n);
+        assertArrayEquals(new int[]{5, 100, 4199}, java.util.Arrays.copyOf(boxes.anchor, n));
+        assertEquals(0.9f, boxes.score[1], 0.0f);
+    }
+
+    @Test
+    public void decode_zeroOffsetsGiveTheAnchorBox() {
+        FaceBoxes boxes = new FaceBoxes();
+        BoxDecoder.decode(new float[4 * ANCHORS.size], scores(1), ANCHORS, 0.2f, boxes);
+
+        // anchor 1: centre (8, 8), size 32
+        assertEquals(1, boxes.count);
+        assertEquals(-8.0f, boxes.x1[0], 1e-4f);
+        assertEquals(-8.0f, boxes.y1[0], 1e-4f);
+        assertEquals(24.0f, boxes.x2[0], 1e-4f);
+        assertEquals(24.0f, boxes.y2[0], 1e-4f);
+    }
+
+    @Test
+    public void decode_appliesOffsetsToEveryFace() {
+        int last = ANCHORS.size - 1;
+        float[] loc = new float[4 * ANCHORS.size];
+        loc[4] = 1.0f;                                  // anchor 1 moves right by 0.1 * 32
+        loc[4 * last + 2] = (float) (Math.log(0.5) / 0.2); // last anchor halves its width
+        loc[4 * last + 3] = (float) (Math.log(0.5) / 0.2);
+
+        FaceBoxes boxes = new FaceBoxes();
+        BoxDecoder.decode(loc, scores(1, last), ANCHORS, 0.2f, boxes);
+
+        assertEquals(2, boxes.count);
+        assertEquals(-8.0f + 3.2f, boxes.x1[0], 1e-3f);
+        assertEquals(24.0f + 3.2f, boxes.x2[0], 1e-3f);
+        // centre (608, 608), size 256
+        assertEquals(480.0f, boxes.x1[1], 1e-2f);
+        assertEquals(736.0f, boxes.y2[1], 1e-2f);
+    }
+
+    @Test
+    public void decodeLandmarks_offsetsFromAnchorCentre() {
+        float[] ldm = new float[2 * LandMark.COUNT * ANCHORS.size];
+        ldm[2 * LandMark.COUNT] = -1.0f;       // anchor 1, left eye x
+        ldm[2 * LandMark.COUNT + 9] = 2.0f;    // anchor 1, right mouth y
+
+        FaceBoxes boxes = new FaceBoxes();
+        BoxDecoder.decode(new float[4 * ANCHORS.size], scores(1), ANCHORS, 0.2f, boxes);
+        BoxDecoder.decodeLandmarks(ldm, ANCHORS, boxes);
+
+        LandMark point = new LandMark();
+        boxes.getLandMark(0, 0, point);
+        assertEquals(8.0f - 3.2f, point.x, 1e-4f);
+        assertEquals(8.0f, point.y, 1e-4f);
+        boxes.getLandMark(0, 4, point);
+        assertEquals(8.0f, point.x, 1e-4f);
+        assertEquals(8.0f + 6.4f, point.y, 1e-4f);
+    }
+}
@@ -0,0 +1,89 @@
+package com.hisona.facedetection;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+public class ChunkRunnerTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /** Counts the visits of every item and the chunks that ran. */
+    private static class CountingTask implements ChunkRunner.Task {
+        final AtomicIntegerArray visits;
+        final AtomicInteger chunks = new AtomicInteger();
+
+        CountingTask(int count) {
+            visits = new AtomicIntegerArray(count);
+        }
+
+        @Override
+        public void run(int chunk, int from, int to) {
+            chunks.incrementAndGet();
+            for (int i = from; i < to; i++) {
+                visits.incrementAndGet(i);
+            }
+        }
+    }
+
+    @Test
+    public void run_visitsEveryItemOnce() {
+        ChunkRunner runner = new ChunkRunner(executor, 4);
+        for (int count : new int[]{1, 3, 4, 1001}) {
+            CountingTask task = new CountingTask(count);
+            runner.run(task, count, Math.min(4, count));
+            assertEquals(Math.min(4, count), task.chunks.get());
+            for (int i = 0; i < count; i++) {
+                assertEquals(1, task.visits.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void rejectedChunks_runOnTheCallingThread() {
+        executor.shutdown();
+        CountingTask task = new CountingTask(100);
+        new ChunkRunner(executor, 4).run(task, 100, 4);
+        assertEquals(4, task.chunks.get());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(1, task.visits.get(i));
+        }
+    }
+
+    @Test
+    public void failure_isRethrownOnceEveryChunkIsDone() {
+        final AtomicInteger done = new AtomicInteger();
+        ChunkRunner runner = new ChunkRunner(executor, 4);
+        try {
+            runner.run(new ChunkRunner.Task() {
+                @Override
+                public void run(int chunk, int from, int to) {
+                    if (chunk == 2) {
+                        throw new IllegalStateException("chunk failed");
+                    }
+                    done.incrementAndGet();
+                }
+            }, 100, 4);
+            fail("failure not rethrown");
+        } catch (IllegalStateException e) {
+            assertEquals("chunk failed", e.getMessage());
+        }
+        assertEquals(3, done.get());
+
+        // the next run starts clean
+        CountingTask task = new CountingTask(10);
+        runner.run(task, 10, 2);
+        assertEquals(2, task.chunks.get());
+    }
+}
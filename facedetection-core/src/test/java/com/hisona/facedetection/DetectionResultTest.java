@@ -0,0 +1,56 @@
+package com.hisona.facedetection;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DetectionResultTest {
+
+    @Test
+    public void set_mapsBoxesAndLandmarksToSource() {
+        FaceBoxes faces = new FaceBoxes(1);
+        faces.count = 1;
+        faces.score[0] = 0.9f;
+        faces.x1[0] = 100;
+        faces.y1[0] = 80;
+        faces.x2[0] = 300;
+        faces.y2[0] = 280;
+        faces.landmarks[0] = 150;
+        faces.landmarks[1] = 130;
+
+        // 480x640 portrait frame letterboxed into 640x640: scale 1, 80 px bars left and right
+        Letterbox letterbox = new Letterbox();
+        letterbox.set(480, 640, 1.0f, 80, 0);
+
+        DetectionResult result = new DetectionResult();
+        result.set(faces, true, 640, 640, letterbox);
+
+        assertEquals(1, result.count);
+        assertEquals(0.9f, result.getTopScore(), 0.0f);
+        assertEquals(100.0f, result.boxes[0], 0.0f);
+        assertEquals(20.0f, result.sourceBoxes[0], 0.0f);
+        assertEquals(80.0f, result.sourceBoxes[1], 0.0f);
+        assertEquals(220.0f, result.sourceBoxes[2], 0.0f);
+        assertEquals(70.0f, result.sourceLandmarks[0], 0.0f);
+        assertEquals(130.0f, result.sourceLandmarks[1], 0.0f);
+        assertEquals(480, result.sourceWidth);
+    }
+
+    @Test
+    public void pool_reusesRecycledResults() {
+        DetectionResult.Pool pool = new DetectionResult.Pool(2, 8);
+
+        DetectionResult first = pool.acquire();
+        DetectionResult second = pool.acquire();
+        pool.recycle(first);
+        pool.recycle(second);
+
+        for (int i = 0; i < 100; i++) {
+            DetectionResult result = pool.acquire();
+            result.count = 3;
+            pool.recycle(result);
+        }
+        assertEquals(2, pool.getAllocations());
+        assertEquals(0, pool.acquire().count);
+    }
+}
@@ -0,0 +1,350 @@
+package com.hisona.facedetection;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DetectionServiceTest {
+
+    private static final int SIZE = 64;
+
+    /**
+     * Backend returning empty outputs after a fixed delay, optionally holding its first forward
+     * until released. Records the size of every batch.
+     */
+    private static class TestBackend implements BatchInferenceBackend {
+        final long delayMillis;
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release;
+        final List<Integer> batches = new ArrayList<>();
+
+        TestBackend(long delayMillis, boolean hold) {
+            this.delayMillis = delayMillis;
+            this.release = new CountDownLatch(hold ? 1 : 0);
+        }
+
+        @Override
+        public void forward(FloatBuffer input, int width, int height, ModelOutputs outputs) {
+            forwardBatch(input, 1, width, height, new ModelOutputs[] {outputs});
+        }
+
+        @Override
+        public void forwardBatch(FloatBuffer input, int batchSize, int width, int height, ModelOutputs[] outputs) {
+            assertEquals(batchSize * 3 * width * height, input.remaining());
+            entered.countDown();
+            try {
+                release.await();
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            final int anchorCount = AnchorConfig.DEFAULT.getAnchorCount(width, height);
+            for (int i = 0; i < batchSize; i++) {
+                outputs[i].loc = new float[4 * anchorCount];
+                outputs[i].cls = new float[2 * anchorCount];
+                outputs[i].ldm = new float[10 * anchorCount];
+            }
+            synchronized (batches) {
+                batches.add(batchSize);
+            }
+        }
+    }
+
+    /** Backend whose first forward passes throw. */
+    private static class FailingBackend extends TestBackend {
+        int failures;
+
+        FailingBackend(int failures) {
+            super(0, false);
+            this.failures = failures;
+        }
+
+        @Override
+        public void forwardBatch(FloatBuffer input, int batchSize, int width, int height, ModelOutputs[] outputs) {
+            if (failures > 0) {
+                failures--;
+                throw new IllegalStateException("forward failed");
+            }
+            super.forwardBatch(input, batchSize, width, height, outputs);
+        }
+    }
+
+    /** Records the sequences delivered to each stream. */
+    private static class Recorder implements DetectionService.Listener {
+        final DetectionResult.Pool pool;
+        final List<Long> sequences = new ArrayList<>();
+        volatile boolean ordered = true;
+
+        Recorder(DetectionResult.Pool pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public void onResult(DetectionService.Stream stream, DetectionResult result) {
+            synchronized (sequences) {
+                if (!sequences.isEmpty() && sequences.get(sequences.size() - 1) >= result.sequence) {
+                    ordered = false;
+                }
+                sequences.add(result.sequence);
+            }
+            pool.recycle(result);
+        }
+
+        List<Long> get() {
+            synchronized (sequences) {
+                return new ArrayList<>(sequences);
+            }
+        }
+    }
+
+    /** Submits frames of one stream in a loop until stopped. */
+    private static class Producer extends Thread {
+        final DetectionService.Stream stream;
+        final int size;
+        volatile boolean stopped;
+
+        Producer(DetectionService.Stream stream, int size) {
+            this.stream = stream;
+            this.size = size;
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                FramePipeline.Frame frame = stream.acquireFrame();
+                if (frame != null) {
+                    frame.ensureInput(size, size);
+                    stream.submit(frame);
+                }
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void submit(DetectionService.Stream stream, int size) {
+        FramePipeline.Frame frame = stream.acquireFrame();
+        assertNotNull(frame);
+        frame.ensureInput(size, size);
+        stream.submit(frame);
+    }
+
+    private static void awaitFailed(DetectionService.Stream stream, long frames) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (stream.getFailedFrames() < frames && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(frames, stream.getFailedFrames());
+    }
+
+    private static void awaitCompleted(DetectionService.Stream stream, long frames) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (stream.getCompletedFrames() < frames && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(frames, stream.getCompletedFrames());
+    }
+
+    @Test
+    public void pendingFrame_isReplacedByTheLatestOne() throws Exception {
+        DetectionResult.Pool pool = new DetectionResult.Pool(8, 4);
+        TestBackend backend = new TestBackend(0, true);
+        DetectionService service = new DetectionService(new FaceDetector(backend), 1, pool);
+        Recorder recorder = new Recorder(pool);
+        DetectionService.Stream stream = service.register("cam0", 1, recorder);
+
+        submit(stream, SIZE);
+        assertTrue(backend.entered.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 3; i++) {
+            submit(stream, SIZE);
+        }
+        backend.release.countDown();
+        awaitCompleted(stream, 2);
+
+        assertEquals(Arrays.asList(0L, 3L), recorder.get());
+        assertEquals(4, stream.getSubmittedFrames());
+        assertEquals(2, stream.getCoalescedFrames());
+        service.shutdown();
+        service.awaitTermination();
+    }
+
+    @Test
+    public void sameSizeFramesOfDifferentStreams_shareOneForward() throws Exception {
+        DetectionResult.Pool pool = new DetectionResult.Pool(8, 4);
+        TestBackend backend = new TestBackend(0, true);
+        DetectionService service = new DetectionService(new FaceDetector(backend), 4, pool);
+        DetectionService.Stream first = service.register("first", 1, new Recorder(pool));
+        List<DetectionService.Stream> streams = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            streams.add(service.register("cam" + i, 1, new Recorder(pool)));
+        }
+        DetectionService.Stream small = service.register("small", 1, new Recorder(pool));
+
+        submit(first, SIZE);
+        assertTrue(backend.entered.await(5, TimeUnit.SECONDS));
+        for (DetectionService.Stream stream : streams) {
+            submit(stream, SIZE);
+        }
+        submit(small, SIZE / 2);
+        backend.release.countDown();
+        awaitCompleted(small, 1);
+        for (DetectionService.Stream stream : streams) {
+            awaitCompleted(stream, 1);
+        }
+
+        synchronized (backend.batches) {
+            assertEquals(3, backend.batches.size());
+            assertTrue(backend.batches.contains(3));
+        }
+        assertEquals(5.0f / 3, service.getAverageBatchSize(), 1e-6f);
+        service.shutdown();
+        service.awaitTermination();
+    }
+
+    @Test
+    public void saturatedStreams_shareInferencesByPriority() throws Exception {
+        DetectionResult.Pool pool = new DetectionResult.Pool(8, 4);
+        DetectionService service = new DetectionService(new FaceDetector(new TestBackend(3, false)), 1, pool);
+        DetectionService.Stream low = service.register("low", 1, new Recorder(pool));
+        DetectionService.Stream high = service.register("high", 3, new Recorder(pool));
+        Producer[] producers = {new Producer(low, SIZE), new Producer(high, SIZE)};
+        for (Producer producer : producers) {
+            producer.start();
+        }
+        Thread.sleep(600);
+        for (Producer producer : producers) {
+            producer.stopped = true;
+            producer.join();
+        }
+        service.shutdown();
+        service.awaitTermination();
+
+        final float ratio = (float) high.getCompletedFrames() / low.getCompletedFrames();
+        assertTrue("ratio " + ratio, ratio > 2.0f && ratio < 4.0f);
+        assertTrue(low.getCoalescedFrames() > 0);
+    }
+
+    @Test
+    public void manyProducers_everyStreamProgressesInOrder() throws Exception {
+        DetectionResult.Pool pool = new DetectionResult.Pool(16, 4);
+        List<FaceDetector> detectors = Arrays.asList(
+                new FaceDetector(new TestBackend(2, false)), new FaceDetector(new TestBackend(2, false)));
+        DetectionService service = new DetectionService(detectors, 4, DetectionService.DEFAULT_STARVATION_NANOS, pool);
+
+        final int streamCount = 6;
+        Recorder[] recorders = new Recorder[streamCount];
+        Producer[] producers = new Producer[streamCount];
+        for (int i = 0; i < streamCount; i++) {
+            recorders[i] = new Recorder(pool);
+            DetectionService.Stream stream = service.register("cam" + i, 1 + i % 2, recorders[i]);
+            producers[i] = new Producer(stream, i < 4 ? SIZE : SIZE / 2);
+            producers[i].start();
+        }
+        Thread.sleep(400);
+        for (Producer producer : producers) {
+            producer.stopped = true;
+            producer.join();
+        }
+        service.shutdown();
+        service.awaitTermination();
+
+        for (int i = 0; i < streamCount; i++) {
+            DetectionService.Stream stream = producers[i].stream;
+            assertTrue(stream.getName(), recorders[i].ordered);
+            assertTrue(stream.getName(), stream.getCompletedFrames() > 0);
+            assertEquals(stream.getCompletedFrames(), recorders[i].get().size());
+            assertTrue(stream.getSubmittedFrames() >= stream.getCompletedFrames() + stream.getCoalescedFrames());
+            assertEquals(stream.getCompletedFrames(), stream.getLatency().getCount());
+        }
+        String report = service.format(new StringBuilder()).toString();
+        for (int i = 0; i < streamCount; i++) {
+            assertTrue(report, report.contains("cam" + i + " (priority " + (1 + i % 2) + ")"));
+        }
+    }
+
+    @Test
+    public void unregisteredStream_dropsItsPendingFrame() throws Exception {
+        DetectionResult.Pool pool = new DetectionResult.Pool(8, 4);
+        TestBackend backend = new TestBackend(0, true);
+        DetectionService service = new DetectionService(new FaceDetector(backend), 1, pool);
+        DetectionService.Stream busy = service.register("busy", 1, new Recorder(pool));
+        DetectionService.Stream gone = service.register("gone", 1, new Recorder(pool));
+
+        submit(busy, SIZE);
+        assertTrue(backend.entered.await(5, TimeUnit.SECONDS));
+        submit(gone, SIZE);
+        service.unregister(gone);
+        assertNull(gone.acquireFrame());
+        backend.release.countDown();
+        awaitCompleted(busy, 1);
+        service.shutdown();
+        service.awaitTermination();
+
+        assertEquals(0, gone.getCompletedFrames());
+        assertEquals(1, service.getStreams().size());
+    }
+
+    @Test
+    public void failedForward_releasesTheFrameAndTheStreamKeepsRunning() throws Exception {
+        DetectionResult.Pool pool = new DetectionResult.Pool(8, 4);
+        DetectionService service = new DetectionService(new FaceDetector(new FailingBackend(1)), 1, pool);
+        Recorder recorder = new Recorder(pool);
+        DetectionService.Stream stream = service.register("cam0", 1, recorder);
+
+        submit(stream, SIZE);
+        awaitFailed(stream, 1);
+        assertEquals("forward failed", stream.getLastError().getMessage());
+        for (int i = 0; i < 5; i++) {
+            submit(stream, SIZE);
+            awaitCompleted(stream, i + 1);
+        }
+        service.shutdown();
+        service.awaitTermination();
+
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), recorder.get());
+        assertEquals(1, stream.getFailedFrames());
+        assertTrue(service.format(new StringBuilder()).toString().contains(", 1 failed\n"));
+    }
+
+    @Test
+    public void throwingListener_doesNotStopTheInferenceThread() throws Exception {
+        final DetectionResult.Pool pool = new DetectionResult.Pool(8, 4);
+        DetectionService service = new DetectionService(new FaceDetector(new TestBackend(0, false)), 1, pool);
+        Recorder recorder = new Recorder(pool) {
+            boolean thrown;
+
+            @Override
+            public void onResult(DetectionService.Stream stream, DetectionResult result) {
+                if (!thrown) {
+                    thrown = true;
+                    pool.recycle(result);
+                    throw new IllegalStateException("listener failed");
+                }
+                super.onResult(stream, result);
+            }
+        };
+        DetectionService.Stream stream = service.register("cam0", 1, recorder);
+
+        submit(stream, SIZE);
+        awaitFailed(stream, 1);
+        for (int i = 0; i < 3; i++) {
+            submit(stream, SIZE);
+            awaitCompleted(stream, i + 2);
+        }
+        service.shutdown();
+        service.awaitTermination();
+
+        assertEquals(Arrays.asList(1L, 2L, 3L), recorder.get());
+        assertEquals("listener failed", stream.getLastError().getMessage());
+    }
+}
@@ -0,0 +1,98 @@
+package com.hisona.facedetection;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ExecutionManagerTest {
+
+    private static FramePipeline pipeline() {
+        InferenceBackend backend = new InferenceBackend() {
+            @Override
+            public void forward(FloatBuffer input, int width, int height, ModelOutputs outputs) {
+            }
+        };
+        return new FramePipeline(new FaceDetector(backend), 2, new DetectionResult.Pool(4, 4),
+                new FramePipeline.Listener() {
+                    @Override
+                    public void onResult(DetectionResult result) {
+                    }
+                });
+    }
+
+    @Test
+    public void analyzer_isOneNamedThreadReused() throws Exception {
+        ExecutionManager manager = new ExecutionManager("camera");
+        final AtomicReference<String> name = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        manager.getAnalyzerExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                name.set(Thread.currentThread().getName());
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("camera-analyzer", name.get());
+        assertSame(manager.getAnalyzerExecutor(), manager.getAnalyzerExecutor());
+
+        manager.shutdown();
+        assertTrue(manager.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void setPipeline_stopsThePreviousOne() throws Exception {
+        ExecutionManager manager = new ExecutionManager("test");
+        FramePipeline first = pipeline();
+        FramePipeline second = pipeline();
+        manager.setPipeline(first);
+        manager.setPipeline(second);
+
+        assertTrue(first.awaitTermination(5, TimeUnit.SECONDS));
+        assertFalse(second.awaitTermination(10, TimeUnit.MILLISECONDS));
+        assertSame(second, manager.getPipeline());
+
+        manager.shutdown();
+        assertTrue(manager.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shutdown_stopsEveryThread() throws Exception {
+        ExecutionManager manager = new ExecutionManager("test");
+        final CountDownLatch ticks = new CountDownLatch(2);
+        manager.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                ticks.countDown();
+            }
+        }, 5);
+        assertTrue(ticks.await(5, TimeUnit.SECONDS));
+
+        manager.setPipeline(pipeline());
+        manager.shutdown();
+        assertTrue(manager.isShutdown());
+        assertTrue(manager.awaitTermination(5, TimeUnit.SECONDS));
+
+        // a pipeline created while shutting down does not outlive the manager
+        FramePipeline late = pipeline();
+        manager.setPipeline(late);
+        assertTrue(late.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void analyzer_rejectsFramesAfterShutdown() {
+        ExecutionManager manager = new ExecutionManager("test");
+        manager.shutdown();
+        manager.getAnalyzerExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+    }
+}
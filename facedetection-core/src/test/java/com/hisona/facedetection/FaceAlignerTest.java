@@ -0,0 +1,205 @@
+package com.hisona.facedetection;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class FaceAlignerTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /** Gray frame whose luma is a pattern of the sensor pixel, with neutral chroma. */
+    private static ByteBuffer[] grayFrame(int width, int height, int rowStride) {
+        ByteBuffer y = ByteBuffer.allocateDirect(rowStride * height);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                y.put(row * rowStride + col, (byte) ((col * 7 + row * 13) & 0xff));
+            }
+        }
+        ByteBuffer uv = ByteBuffer.allocateDirect(rowStride * height / 2);
+        for (int i = 0; i < uv.capacity(); i++) {
+            uv.put(i, (byte) 128);
+        }
+        return new ByteBuffer[]{y, uv.duplicate(), uv.duplicate()};
+    }
+
+    /** Result with one face whose landmarks are the reference points moved by a similarity. */
+    private static DetectionResult face(float a, float b, float tx, float ty, int size) {
+        DetectionResult result = new DetectionResult(1);
+        result.count = 1;
+        result.hasLandmarks = true;
+        final float ratio = size / (float) FaceAligner.DEFAULT_SIZE;
+        for (int i = 0; i < LandMark.COUNT; i++) {
+            float x = FaceAligner.REFERENCE_112[2 * i] * ratio;
+            float y = FaceAligner.REFERENCE_112[2 * i + 1] * ratio;
+            result.sourceLandmarks[2 * i] = a * x - b * y + tx;
+            result.sourceLandmarks[2 * i + 1] = b * x + a * y + ty;
+        }
+        return result;
+    }
+
+    @Test
+    public void estimate_recoversASimilarity() {
+        final float angle = (float) Math.toRadians(30);
+        final float a = 2.0f * (float) Math.cos(angle);
+        final float b = 2.0f * (float) Math.sin(angle);
+        DetectionResult result = face(a, b, 150.0f, -20.0f, FaceAligner.DEFAULT_SIZE);
+
+        float[] transform = new float[4];
+        FaceAligner.estimate(result.sourceLandmarks, 0, FaceAligner.DEFAULT_SIZE, transform, 0);
+        assertEquals(a, transform[0], 1e-4f);
+        assertEquals(b, transform[1], 1e-4f);
+        assertEquals(150.0f, transform[2], 1e-2f);
+        assertEquals(-20.0f, transform[3], 1e-2f);
+    }
+
+    @Test
+    public void yuvSource_followsRotationAndFlip() {
+        final int width = 40;
+        final int height = 30;
+        final int size = 16;
+        ByteBuffer[] planes = grayFrame(width, height, 48);
+        LumaPlane luma = new LumaPlane();
+        FaceAligner.YuvSource source = new FaceAligner.YuvSource();
+        FaceAligner aligner = new FaceAligner();
+        FaceChips chips = new FaceChips(size, FaceChips.Format.UINT8);
+        // identity transform offset by (3, 5): chip pixel (x, y) is upright pixel (x + 3, y + 5)
+        DetectionResult result = face(1.0f, 0.0f, 3.0f, 5.0f, size);
+
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            for (int flip = 0; flip < 2; flip++) {
+                source.set(planes[0], planes[1], planes[2], width, height, 48, 48, 2, rotation, flip == 1);
+                luma.set(planes[0], width, height, 48, rotation, flip == 1);
+                aligner.align(result, source, chips);
+
+                assertEquals(1, chips.count);
+                for (int y = 0; y < size; y++) {
+                    for (int x = 0; x < size; x++) {
+                        int expected = luma.get(x + 3, y + 5);
+                        for (int c = 0; c < 3; c++) {
+                            int actual = chips.bytes.get(3 * (y * size + x) + c) & 0xff;
+                            assertEquals("rotation " + rotation + " flip " + flip, expected, actual, 1);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void pointsOutsideTheSource_areBlack() {
+        ByteBuffer[] planes = grayFrame(8, 8, 8);
+        FaceAligner.YuvSource source = new FaceAligner.YuvSource();
+        source.set(planes[0], planes[1], planes[2], 8, 8, 8, 8, 2, 0, false);
+        FaceChips chips = new FaceChips(4, FaceChips.Format.FLOAT);
+        new FaceAligner().align(face(1.0f, 0.0f, 6.0f, 0.0f, 4), source, chips);
+
+        // columns 2 and 3 fall on x = 8 and 9
+        final float black = -FaceAligner.RECOGNITION_MEAN[0] / FaceAligner.RECOGNITION_STD[0];
+        assertEquals(black, chips.floats.get(2), 0.0f);
+        assertEquals(black, chips.floats.get(3), 0.0f);
+        assertEquals(((6 * 7) - 127.5f) / 127.5f, chips.floats.get(0), 1e-5f);
+    }
+
+    @Test
+    public void tensorSource_mapsThroughTheLetterbox() {
+        final int width = 20;
+        final int height = 20;
+        FloatBuffer input = FloatBuffer.allocate(3 * width * height);
+        for (int c = 0; c < 3; c++) {
+            for (int i = 0; i < width * height; i++) {
+                input.put(c * width * height + i, i % width + c);
+            }
+        }
+        // source pixel x is model pixel 2 * x + 2
+        Letterbox letterbox = new Letterbox();
+        letterbox.set(9, 9, 2.0f, 2.0f, 2.0f);
+        FaceAligner.TensorSource source = new FaceAligner.TensorSource();
+        source.set(input, width, height, letterbox, new float[]{0, 0, 0}, new float[]{1, 1, 1});
+
+        FaceAligner aligner = new FaceAligner();
+        aligner.setNormalization(new float[]{0, 0, 0}, new float[]{1, 1, 1});
+        FaceChips chips = new FaceChips(4, FaceChips.Format.FLOAT);
+        aligner.align(face(1.0f, 0.0f, 0.5f, 0.0f, 4), source, chips);
+
+        for (int x = 0; x < 4; x++) {
+            float model = 2 * (x + 0.5f) + 2;
+            for (int c = 0; c < 3; c++) {
+                assertEquals(model + c, chips.floats.get(c * 16 + x), 1e-4f);
+            }
+        }
+    }
+
+    @Test
+    public void facesWithoutLandmarks_useTheSquareAroundTheBox() {
+        DetectionResult result = new DetectionResult(1);
+        result.count = 1;
+        result.sourceBoxes[0] = 10;
+        result.sourceBoxes[1] = 20;
+        result.sourceBoxes[2] = 30;
+        result.sourceBoxes[3] = 60;
+        ByteBuffer[] planes = grayFrame(64, 64, 64);
+        FaceAligner.YuvSource source = new FaceAligner.YuvSource();
+        source.set(planes[0], planes[1], planes[2], 64, 64, 64, 64, 2, 0, false);
+        FaceChips chips = new FaceChips(8, FaceChips.Format.UINT8);
+        new FaceAligner().align(result, source, chips);
+
+        // 40 pixel square centred on the box
+        assertEquals(5.0f, chips.transforms[0], 0.0f);
+        assertEquals(0.0f, chips.transforms[1], 0.0f);
+        assertEquals(0.0f, chips.transforms[2], 0.0f);
+        assertEquals(20.0f, chips.transforms[3], 0.0f);
+    }
+
+    @Test
+    public void parallelAlignment_matchesTheSerialOne() {
+        ByteBuffer[] planes = grayFrame(200, 150, 208);
+        FaceAligner.YuvSource source = new FaceAligner.YuvSource();
+        source.set(planes[0], planes[1], planes[2], 200, 150, 208, 208, 2, 90, true);
+
+        DetectionResult result = new DetectionResult(7);
+        for (int f = 0; f < 7; f++) {
+            DetectionResult one = face(0.5f + 0.1f * f, 0.05f * f - 0.1f, 10.0f * f, 5.0f * f, 112);
+            System.arraycopy(one.sourceLandmarks, 0, result.sourceLandmarks, 2 * LandMark.COUNT * f,
+                    2 * LandMark.COUNT);
+        }
+        result.count = 7;
+        result.hasLandmarks = true;
+
+        FaceChips serial = new FaceAligner().align(result, source, new FaceChips(112, FaceChips.Format.FLOAT));
+        FaceChips parallel = new FaceAligner(executor, 3).align(result, source,
+                new FaceChips(112, FaceChips.Format.FLOAT));
+
+        assertEquals(7, parallel.count);
+        assertTrue(parallel.capacity() >= 7);
+        for (int i = 0; i < 7 * serial.getChipLength(); i++) {
+            assertEquals(serial.floats.get(i), parallel.floats.get(i), 0.0f);
+        }
+        for (int i = 0; i < 7 * 4; i++) {
+            assertEquals(serial.transforms[i], parallel.transforms[i], 0.0f);
+        }
+    }
+
+    @Test
+    public void pool_reusesBatches() {
+        FaceChips.Pool pool = new FaceChips.Pool(2, 112, FaceChips.Format.UINT8);
+        FaceChips chips = pool.acquire();
+        chips.count = 3;
+        pool.recycle(chips);
+        FaceChips again = pool.acquire();
+        assertSame(chips, again);
+        assertEquals(0, again.count);
+        assertEquals(1, pool.getAllocations());
+    }
+}
@@ -0,0 +1,158 @@
+package com.hisona.facedetection;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FaceTrackerTest {
+
+    private static final int SIZE = 640;
+
+    private static Letterbox identity() {
+        Letterbox letterbox = new Letterbox();
+        letterbox.set(SIZE, SIZE, 1.0f, 0, 0);
+        return letterbox;
+    }
+
+    private static DetectionResult detection(float score, float... boxes) {
+        FaceBoxes faces = new FaceBoxes(boxes.length / 4);
+        for (int i = 0; i < boxes.length / 4; i++) {
+            faces.score[i] = score;
+            faces.x1[i] = boxes[4 * i];
+            faces.y1[i] = boxes[4 * i + 1];
+            faces.x2[i] = boxes[4 * i + 2];
+            faces.y2[i] = boxes[4 * i + 3];
+        }
+        faces.count = boxes.length / 4;
+        DetectionResult result = new DetectionResult();
+        result.set(faces, false, SIZE, SIZE, identity());
+        return result;
+    }
+
+    @Test
+    public void startFrame_detectsEveryIntervalFrames() {
+        FaceTracker tracker = new FaceTracker(5, 0.0f, 0.3f, 1, false);
+        DetectionResult out = new DetectionResult();
+
+        assertTrue(tracker.startFrame());
+        tracker.update(detection(0.9f, 100, 100, 200, 200));
+        tracker.track(null, identity(), SIZE, SIZE, out);
+
+        for (int frame = 1; frame < 5; frame++) {
+            assertFalse(tracker.startFrame());
+            tracker.track(null, identity(), SIZE, SIZE, out);
+        }
+        assertTrue(tracker.startFrame());
+        assertEquals(6, tracker.getFrameCount());
+        assertEquals(2, tracker.getDetectionCount());
+        assertEquals(1.0f / 3, tracker.getDetectionRate(), 1e-6f);
+    }
+
+    @Test
+    public void startFrame_detectsWhenConfidenceDrops() {
+        FaceTracker tracker = new FaceTracker(100, 0.85f, 0.3f, 1, false);
+        DetectionResult out = new DetectionResult();
+
+        assertTrue(tracker.startFrame());
+        tracker.update(detection(0.9f, 100, 100, 200, 200));
+
+        int frames = 0;
+        while (!tracker.startFrame()) {
+            tracker.track(null, identity(), SIZE, SIZE, out);
+            frames++;
+        }
+        // 0.9 decays below 0.85 after two frames
+        assertTrue(frames > 0 && frames < 5);
+    }
+
+    @Test
+    public void update_keepsIdsOfMovingFaces() {
+        FaceTracker tracker = new FaceTracker(1, 0.0f, 0.3f, 1, false);
+        DetectionResult out = new DetectionResult();
+
+        tracker.startFrame();
+        DetectionResult first = detection(0.9f, 100, 100, 200, 200, 400, 100, 500, 200);
+        tracker.update(first);
+        assertEquals(2, tracker.getTrackCount());
+
+        tracker.startFrame();
+        tracker.track(null, identity(), SIZE, SIZE, out);
+        DetectionResult second = detection(0.9f, 410, 105, 510, 205, 105, 100, 205, 200);
+        tracker.update(second);
+
+        assertEquals(first.trackIds[0], second.trackIds[1]);
+        assertEquals(first.trackIds[1], second.trackIds[0]);
+        assertTrue(first.trackIds[0] != first.trackIds[1]);
+    }
+
+    /**
+     * Follows a face moving 8 pixels right per frame with immediate detections, then feeds one
+     * detection of frame 20 on frame 24 and returns the tracked left edge on frame 25.
+     */
+    private static float trackLateDetection(boolean recordSequence) {
+        FaceTracker tracker = new FaceTracker(1, 0.0f, 0.3f, 1, false);
+        DetectionResult out = new DetectionResult();
+        for (int frame = 0; frame < 20; frame++) {
+            tracker.startFrame();
+            tracker.track(null, identity(), SIZE, SIZE, out);
+            tracker.update(detection(0.9f, 100 + 8 * frame, 100, 200 + 8 * frame, 200));
+        }
+        tracker.startFrame();
+        tracker.track(null, identity(), SIZE, SIZE, out);
+        if (recordSequence) {
+            tracker.submitted(20);
+        }
+        DetectionResult late = detection(0.9f, 100 + 8 * 20, 100, 200 + 8 * 20, 200);
+        late.sequence = 20;
+        for (int frame = 21; frame <= 24; frame++) {
+            tracker.startFrame();
+            tracker.track(null, identity(), SIZE, SIZE, out);
+        }
+        tracker.update(late);
+        assertEquals(0, late.trackIds[0]);
+        tracker.startFrame();
+        tracker.track(null, identity(), SIZE, SIZE, out);
+        return out.sourceBoxes[0];
+    }
+
+    @Test
+    public void update_compensatesDetectionLatency() {
+        final float truth = 100 + 8 * 25;
+        float compensated = trackLateDetection(true);
+        float stale = trackLateDetection(false);
+        assertEquals(truth, compensated, 2.0f);
+        // treated as current, the old measurement pulls the track backwards
+        assertTrue(Math.abs(stale - truth) > 3 * Math.abs(compensated - truth));
+    }
+
+    @Test
+    public void track_predictsBetweenDetections() {
+        FaceTracker tracker = new FaceTracker(10, 0.0f, 0.3f, 1, false);
+        DetectionResult out = new DetectionResult();
+
+        tracker.startFrame();
+        tracker.update(detection(0.9f, 100, 100, 200, 200));
+
+        tracker.startFrame();
+        tracker.track(null, identity(), SIZE, SIZE, out);
+        assertEquals(1, out.count);
+        assertEquals(100.0f, out.sourceBoxes[0], 1.0f);
+        assertEquals(200.0f, out.sourceBoxes[3], 1.0f);
+        assertTrue(out.scores[0] < 0.9f);
+        assertEquals(0, out.trackIds[0]);
+    }
+
+    @Test
+    public void update_dropsUnmatchedTracks() {
+        FaceTracker tracker = new FaceTracker(1, 0.0f, 0.3f, 1, false);
+
+        tracker.startFrame();
+        tracker.update(detection(0.9f, 100, 100, 200, 200));
+        tracker.startFrame();
+        tracker.update(detection(0.9f));
+        assertEquals(1, tracker.getTrackCount());
+        tracker.startFrame();
+        tracker.update(detection(0.9f));
+        assertEquals(0, tracker.getTrackCount());
+    }
+}
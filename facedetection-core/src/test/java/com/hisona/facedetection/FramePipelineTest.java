@@ -0,0 +1,175 @@
+package com.hisona.facedetection;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class FramePipelineTest {
+
+    private static final int SIZE = 64;
+
+    /** Backend returning empty outputs after a fixed delay. */
+    private static class SlowBackend implements InferenceBackend {
+        private final int anchorCount = AnchorConfig.DEFAULT.getAnchorCount(SIZE, SIZE);
+        private final long delayMillis;
+
+        SlowBackend(long delayMillis) {
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public void forward(FloatBuffer input, int width, int height, ModelOutputs outputs) {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            outputs.loc = new float[4 * anchorCount];
+            outputs.cls = new float[2 * anchorCount];
+            outputs.ldm = new float[10 * anchorCount];
+        }
+    }
+
+    @Test
+    public void ringBuffer_dropsOldestWhenFull() {
+        RingBuffer<Integer> ring = new RingBuffer<>(3);
+        assertEquals(4, ring.capacity());
+
+        for (int i = 0; i < 4; i++) {
+            assertNull(ring.offerDropOldest(i));
+        }
+        assertEquals(Integer.valueOf(0), ring.offerDropOldest(4));
+        assertEquals(1, ring.getDropCount());
+        assertEquals(4, ring.size());
+        assertEquals(Integer.valueOf(1), ring.poll());
+
+        RingBuffer<Integer> small = new RingBuffer<>(1);
+        assertEquals(2, small.capacity());
+        assertTrue(small.offer(1));
+        assertTrue(small.offer(2));
+        assertFalse(small.offer(3));
+        assertEquals(Integer.valueOf(1), small.poll());
+        assertEquals(Integer.valueOf(2), small.poll());
+        assertNull(small.poll());
+    }
+
+    @Test
+    public void ringBuffer_dropOldestLosesNothingUnderConcurrentPolls() throws Exception {
+        final RingBuffer<Integer> ring = new RingBuffer<>(2);
+        final int items = 1000000;
+        final boolean[] consumed = new boolean[items];
+        final boolean[] dropped = new boolean[items];
+        final AtomicBoolean done = new AtomicBoolean();
+
+        Runnable consume = new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    boolean last = done.get();
+                    Integer item = ring.poll();
+                    if (item != null) {
+                        consumed[item] = true;
+                    } else if (last) {
+                        return;
+                    }
+                }
+            }
+        };
+        Thread[] consumers = new Thread[3];
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i] = new Thread(consume);
+            consumers[i].start();
+        }
+
+        int drops = 0;
+        for (int i = 0; i < items; i++) {
+            Integer oldest = ring.offerDropOldest(i);
+            if (oldest != null) {
+                dropped[oldest] = true;
+                drops++;
+            }
+        }
+        done.set(true);
+        for (Thread consumer : consumers) {
+            consumer.join(10000);
+            assertFalse(consumer.isAlive());
+        }
+
+        // every item was either consumed or handed back to the producer, exactly once
+        for (int i = 0; i < items; i++) {
+            assertTrue("item " + i + " lost", consumed[i] || dropped[i]);
+            assertFalse("item " + i + " twice", consumed[i] && dropped[i]);
+        }
+        assertEquals(drops, ring.getDropCount());
+    }
+
+    @Test
+    public void results_arriveInOrderAndEveryFrameIsAccountedFor() throws Exception {
+        final List<Long> sequences = new ArrayList<>();
+        final DetectionResult.Pool pool = new DetectionResult.Pool(8, 4);
+
+        FramePipeline pipeline = new FramePipeline(new FaceDetector(new SlowBackend(2)), 2, pool,
+                new FramePipeline.Listener() {
+                    @Override
+                    public void onResult(DetectionResult result) {
+                        synchronized (sequences) {
+                            sequences.add(result.sequence);
+                        }
+                        pool.recycle(result);
+                    }
+                });
+
+        int acquired = 0;
+        for (int i = 0; i < 200; i++) {
+            FramePipeline.Frame frame = pipeline.acquireFrame();
+            if (frame == null) {
+                continue;
+            }
+            acquired++;
+            frame.ensureInput(SIZE, SIZE);
+            frame.letterbox.set(SIZE, SIZE, 1.0f, 0, 0);
+            pipeline.submit(frame);
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            long accounted = pipeline.getCompletedFrames() + pipeline.getInferenceDrops() + pipeline.getDecodeDrops();
+            if (accounted == acquired && pipeline.getInferenceQueueDepth() == 0
+                    && pipeline.getDecodeQueueDepth() == 0) {
+                break;
+            }
+            Thread.sleep(5);
+        }
+        pipeline.shutdown();
+        pipeline.awaitTermination();
+
+        assertEquals(acquired, pipeline.getSubmittedFrames());
+        assertEquals(200, acquired + pipeline.getExhaustedDrops());
+        assertEquals(acquired, pipeline.getCompletedFrames() + pipeline.getInferenceDrops() + pipeline.getDecodeDrops());
+        assertTrue(pipeline.getInferenceDrops() > 0);
+
+        synchronized (sequences) {
+            assertEquals(pipeline.getCompletedFrames(), sequences.size());
+            for (int i = 1; i < sequences.size(); i++) {
+                assertTrue(sequences.get(i - 1) < sequences.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void frame_keepsOneInputPerSize() {
+        FramePipeline.Frame frame = new FramePipeline.Frame();
+        FloatBuffer large = frame.ensureInput(64, 64);
+        FloatBuffer small = frame.ensureInput(32, 32);
+
+        assertEquals(3 * 32 * 32, small.capacity());
+        assertSame(large, frame.ensureInput(64, 64));
+        assertSame(small, frame.ensureInput(32, 32));
+        assertEquals(32, frame.width);
+    }
+}
@@ -0,0 +1,194 @@
+package com.hisona.facedetection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameReplayTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int SIZE = 64;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("frames", ".yuv");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    /** Records count gray frames with a padded row stride and interleaved chroma. */
+    private void record(int count) throws IOException {
+        final int yRowStride = WIDTH + 16;
+        try (YuvFrameFile.Writer writer = new YuvFrameFile.Writer(file)) {
+            for (int i = 0; i < count; i++) {
+                ByteBuffer y = ByteBuffer.allocateDirect(yRowStride * HEIGHT);
+                for (int p = 0; p < y.capacity(); p++) {
+                    y.put(p, (byte) (i * 10 + p % 7));
+                }
+                ByteBuffer uv = ByteBuffer.allocateDirect(yRowStride * HEIGHT / 2 - 1);
+                for (int p = 0; p < uv.capacity(); p++) {
+                    uv.put(p, (byte) 128);
+                }
+                writer.write(WIDTH, HEIGHT, yRowStride, yRowStride, 2, 90, i % 2 == 1, i * 33333333L,
+                        y, uv, uv.duplicate());
+            }
+            assertEquals(count, writer.getFrameCount());
+        }
+    }
+
+    /** Outputs with a face on the given anchor, or none when it is negative. */
+    private static ModelOutputs model(int anchor) {
+        AnchorTable anchors = AnchorTable.get(SIZE, SIZE, AnchorConfig.DEFAULT);
+        ModelOutputs outputs = new ModelOutputs();
+        outputs.loc = new float[4 * anchors.size];
+        outputs.cls = new float[2 * anchors.size];
+        outputs.ldm = new float[2 * LandMark.COUNT * anchors.size];
+        if (anchor >= 0) {
+            outputs.cls[2 * anchor + 1] = 0.9f;
+        }
+        return outputs;
+    }
+
+    private static FaceDetector detector() {
+        AnchorTable anchors = AnchorTable.get(SIZE, SIZE, AnchorConfig.DEFAULT);
+        ModelOutputs face = new ModelOutputs();
+        face.loc = new float[4 * anchors.size];
+        face.cls = new float[2 * anchors.size];
+        face.ldm = null;
+        face.cls[2 * 20 + 1] = 0.9f;
+        ModelOutputs none = new ModelOutputs();
+        none.loc = face.loc;
+        none.cls = new float[2 * anchors.size];
+        return new FaceDetector(new ReplayBackend(face, none));
+    }
+
+    @Test
+    public void recording_roundTripsFramesAndGeometry() throws IOException {
+        record(3);
+        YuvFrameFile recording = YuvFrameFile.open(file);
+
+        assertEquals(3, recording.getFrameCount());
+        YuvFrameFile.Frame frame = recording.getFrame(1);
+        assertEquals(WIDTH, frame.width);
+        assertEquals(HEIGHT, frame.height);
+        assertEquals(WIDTH + 16, frame.yRowStride);
+        assertEquals(2, frame.uvPixelStride);
+        assertEquals(90, frame.rotation);
+        assertTrue(frame.flip);
+        assertEquals(33333333L, frame.timestampNanos);
+        assertEquals((WIDTH + 16) * HEIGHT, frame.y.remaining());
+        assertEquals(10 + 3, frame.y.get(3));
+        assertEquals(128, frame.v.get(0) & 0xff);
+    }
+
+    @Test(expected = IOException.class)
+    public void open_rejectsOtherFiles() throws IOException {
+        Files.write(file.toPath(), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        YuvFrameFile.open(file);
+    }
+
+    @Test
+    public void run_isDeterministicAndReportsEveryFrame() throws IOException {
+        record(4);
+        YuvFrameFile recording = YuvFrameFile.open(file);
+
+        FrameReplay.Report first = new FrameReplay(detector(), SIZE).run(recording, 2);
+        FrameReplay.Report second = new FrameReplay(detector(), SIZE).run(recording, 1);
+
+        assertEquals(8, first.frames);
+        assertEquals(4, first.outputs.size());
+        assertEquals(8, first.metrics.get(PipelineMetrics.Stage.END_TO_END).getCount());
+        assertTrue(first.getThroughput() > 0);
+        assertTrue(first.outputs.get(0).startsWith("1 0.9000 "));
+        assertTrue(first.outputs.get(1).startsWith("0 in="));
+        assertEquals(first.outputs, second.outputs);
+        assertEquals(0, FrameReplay.compare(first.outputs, second.outputs, 0.0f, new StringBuilder()));
+        assertTrue(first.format(new StringBuilder()).toString().startsWith("8 frames in "));
+    }
+
+    @Test
+    public void outputs_changeWithTheConvertedInput() throws IOException {
+        record(2);
+        YuvFrameFile recording = YuvFrameFile.open(file);
+        List<String> outputs = new FrameReplay(detector(), SIZE).run(recording, 1).outputs;
+
+        // same detections, different frames: only the input checksum tells them apart
+        String a = outputs.get(0).substring(outputs.get(0).indexOf(" in="));
+        String b = outputs.get(1).substring(outputs.get(1).indexOf(" in="));
+        assertFalse(a.equals(b));
+
+        StringBuilder diffs = new StringBuilder();
+        assertEquals(1, FrameReplay.compare(Arrays.asList("0 in=00000001"),
+                Arrays.asList("0 in=00000002"), 0.5f, diffs));
+    }
+
+    @Test
+    public void recordOutputs_capturesWhatTheModelReturned() throws IOException {
+        record(3);
+        YuvFrameFile recording = YuvFrameFile.open(file);
+        File outputs = File.createTempFile("outputs", ".bin");
+        try {
+            int frames;
+            try (OutputStream out = new FileOutputStream(outputs)) {
+                frames = FrameReplay.recordOutputs(recording, new ReplayBackend(model(20), model(-1)), SIZE, out);
+            }
+            assertEquals(3, frames);
+
+            ReplayBackend replayed;
+            try (InputStream in = new FileInputStream(outputs)) {
+                replayed = ReplayBackend.read(in);
+            }
+            assertEquals(3, replayed.getFrameCount());
+            FrameReplay.Report live = new FrameReplay(new FaceDetector(
+                    new ReplayBackend(model(20), model(-1))), SIZE).run(recording, 1);
+            FrameReplay.Report replay = new FrameReplay(new FaceDetector(replayed), SIZE).run(recording, 1);
+            assertEquals(live.outputs, replay.outputs);
+        } finally {
+            outputs.delete();
+        }
+    }
+
+    @Test
+    public void fixedRate_spacesTheFrames() throws IOException {
+        record(3);
+        FrameReplay replay = new FrameReplay(detector(), SIZE);
+        replay.setRate(100);
+
+        FrameReplay.Report report = replay.run(YuvFrameFile.open(file), 1);
+
+        // the last frame starts 20 ms after the first
+        assertTrue(report.elapsedNanos >= 20000000L);
+    }
+
+    @Test
+    public void compare_toleratesSmallShiftsOnly() {
+        List<String> golden = Arrays.asList("1 0.9000 10.0 20.0 30.0 40.0", "0");
+        StringBuilder diffs = new StringBuilder();
+
+        assertEquals(0, FrameReplay.compare(golden,
+                Arrays.asList("1 0.9000 10.2 20.0 30.0 40.0", "0"), 0.5f, diffs));
+        assertEquals(1, FrameReplay.compare(golden,
+                Arrays.asList("1 0.9000 12.0 20.0 30.0 40.0", "0"), 0.5f, diffs));
+        assertEquals(2, FrameReplay.compare(golden, Arrays.asList("0"), 0.5f, diffs));
+        assertTrue(diffs.toString().contains("frame 1: expected 0, got <missing>"));
+    }
+}
@@ -0,0 +1,48 @@
+package com.hisona.facedetection;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets_coverTheRangeWithoutGaps() {
+        long expected = 0;
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            assertEquals(i, LatencyHistogram.bucketOf(expected));
+            long upper = LatencyHistogram.upperBoundOf(i);
+            assertEquals(i, LatencyHistogram.bucketOf(upper));
+            // within 12.5% of the bucket's lower bound
+            assertTrue(upper - expected <= Math.max(0, expected / 8));
+            expected = upper + 1;
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentiles_followTheRecordedValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int ms = 1; ms <= 100; ms++) {
+            histogram.record(ms * 1000000L);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(100000, histogram.getMaxMicros());
+        assertEquals(50500.0, histogram.getMeanMicros(), 0.0);
+        assertEquals(50000.0, histogram.getPercentileMicros(0.50), 50000.0 / 8);
+        assertEquals(95000.0, histogram.getPercentileMicros(0.95), 95000.0 / 8);
+        assertEquals(100000, histogram.getPercentileMicros(1.0));
+    }
+
+    @Test
+    public void reset_clearsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5000);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMicros(0.5));
+        assertEquals(0, histogram.getMaxMicros());
+    }
+}
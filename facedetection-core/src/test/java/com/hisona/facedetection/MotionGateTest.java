@@ -0,0 +1,124 @@
+package com.hisona.facedetection;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MotionGateTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int ROW_STRIDE = 704;
+    private static final long FRAME = 33333333L;
+
+    /** Textured frame with a little sensor noise. */
+    private static ByteBuffer frame(long seed) {
+        Random noise = new Random(seed);
+        ByteBuffer y = ByteBuffer.allocateDirect(ROW_STRIDE * HEIGHT);
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                int value = 64 + (col * 7 + row * 3) % 128 + noise.nextInt(5) - 2;
+                y.put(row * ROW_STRIDE + col, (byte) value);
+            }
+        }
+        return y;
+    }
+
+    /** Paints a bright square of size pixels at (x, y), like a face entering the scene. */
+    private static void paint(ByteBuffer y, int x, int top, int size) {
+        for (int row = top; row < top + size; row++) {
+            for (int col = x; col < x + size; col++) {
+                y.put(row * ROW_STRIDE + col, (byte) 250);
+            }
+        }
+    }
+
+    @Test
+    public void staticScene_isSkippedAfterTheFirstFrame() {
+        MotionGate gate = new MotionGate();
+        long timestamp = 0;
+        assertTrue(gate.check(frame(0), WIDTH, HEIGHT, ROW_STRIDE, timestamp));
+        for (int i = 1; i < 20; i++) {
+            timestamp += FRAME;
+            assertFalse(gate.check(frame(i), WIDTH, HEIGHT, ROW_STRIDE, timestamp));
+        }
+        assertEquals(20, gate.getFrames());
+        assertEquals(19, gate.getSkippedFrames());
+        assertEquals(0.95f, gate.getHitRate(), 1e-6f);
+        assertTrue(gate.getLastChange() < MotionGate.DEFAULT_THRESHOLD);
+    }
+
+    @Test
+    public void smallMovingObject_needsDetection() {
+        MotionGate gate = new MotionGate();
+        assertTrue(gate.check(frame(0), WIDTH, HEIGHT, ROW_STRIDE, 0));
+
+        // a 24 px square covers about one and a half blocks of 16x12 px
+        ByteBuffer moved = frame(1);
+        paint(moved, 300, 200, 24);
+        assertTrue(gate.check(moved, WIDTH, HEIGHT, ROW_STRIDE, FRAME));
+
+        // the moved frame is the new reference
+        ByteBuffer still = frame(2);
+        paint(still, 300, 200, 24);
+        assertFalse(gate.check(still, WIDTH, HEIGHT, ROW_STRIDE, 2 * FRAME));
+    }
+
+    @Test
+    public void maxInterval_forcesARefresh() {
+        MotionGate gate = new MotionGate(MotionGate.DEFAULT_GRID, MotionGate.DEFAULT_THRESHOLD, 10 * FRAME);
+        int detected = 0;
+        for (int i = 0; i < 30; i++) {
+            if (gate.check(frame(i), WIDTH, HEIGHT, ROW_STRIDE, i * FRAME)) {
+                detected++;
+            }
+        }
+        // frames 0, 10 and 20
+        assertEquals(3, detected);
+    }
+
+    @Test
+    public void geometryChangeAndInvalidate_needDetection() {
+        MotionGate gate = new MotionGate();
+        assertTrue(gate.check(frame(0), WIDTH, HEIGHT, ROW_STRIDE, 0));
+        assertFalse(gate.check(frame(1), WIDTH, HEIGHT, ROW_STRIDE, FRAME));
+
+        gate.invalidate();
+        assertTrue(gate.check(frame(2), WIDTH, HEIGHT, ROW_STRIDE, 2 * FRAME));
+
+        assertTrue(gate.check(frame(3), 480, 360, ROW_STRIDE, 3 * FRAME));
+        assertFalse(gate.check(frame(4), 480, 360, ROW_STRIDE, 4 * FRAME));
+    }
+
+    @Test
+    public void invalidate_fromAnotherThreadAppliesToTheNextCheckOnce() throws Exception {
+        final MotionGate gate = new MotionGate();
+        assertTrue(gate.check(frame(0), WIDTH, HEIGHT, ROW_STRIDE, 0));
+
+        Thread ui = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                gate.invalidate();
+            }
+        });
+        ui.start();
+        ui.join();
+
+        assertTrue(gate.check(frame(1), WIDTH, HEIGHT, ROW_STRIDE, FRAME));
+        assertFalse(gate.check(frame(2), WIDTH, HEIGHT, ROW_STRIDE, 2 * FRAME));
+    }
+
+    @Test
+    public void savedTime_followsTheDetectionTime() {
+        MotionGate gate = new MotionGate();
+        gate.recordDetection(40000000L);
+        gate.check(frame(0), WIDTH, HEIGHT, ROW_STRIDE, 0);
+        gate.check(frame(1), WIDTH, HEIGHT, ROW_STRIDE, FRAME);
+        gate.check(frame(2), WIDTH, HEIGHT, ROW_STRIDE, 2 * FRAME);
+
+        assertEquals(80000000L, gate.getSavedNanos());
+    }
+}
@@ -0,0 +1,129 @@
+package com.hisona.facedetection;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class NonMaxSuppressionTest {
+
+    private static FaceBoxes boxes(float[]... rows) {
+        FaceBoxes boxes = new FaceBoxes(rows.length);
+        for (int i = 0; i < rows.length; i++) {
+            boxes.score[i] = rows[i][0];
+            boxes.x1[i] = rows[i][1];
+            boxes.y1[i] = rows[i][2];
+            boxes.x2[i] = rows[i][3];
+            boxes.y2[i] = rows[i][4];
+            boxes.anchor[i] = i;
+        }
+        boxes.count = rows.length;
+        return boxes;
+    }
+
+    @Test
+    public void iou_takesCornerCoordinates() {
+        assertEquals(1.0f, NonMaxSuppression.iou(10, 10, 20, 20, 10, 10, 20, 20), 0.0f);
+        // half of each box overlaps: 50 / (100 + 100 - 50)
+        assertEquals(1.0f / 3.0f, NonMaxSuppression.iou(0, 0, 10, 10, 5, 0, 15, 10), 1e-6f);
+        // containment: 25 / 100
+        assertEquals(0.25f, NonMaxSuppression.iou(0, 0, 10, 10, 2, 2, 7, 7), 1e-6f);
+        // argument order of the two boxes does not matter
+        assertEquals(NonMaxSuppression.iou(0, 0, 10, 10, 3, 4, 12, 9),
+                NonMaxSuppression.iou(3, 4, 12, 9, 0, 0, 10, 10), 0.0f);
+    }
+
+    @Test
+    public void iou_isZeroForDisjointTouchingOrEmptyBoxes() {
+        assertEquals(0.0f, NonMaxSuppression.iou(0, 0, 10, 10, 20, 20, 30, 30), 0.0f);
+        assertEquals(0.0f, NonMaxSuppression.iou(0, 0, 10, 10, 10, 0, 20, 10), 0.0f);
+        assertEquals(0.0f, NonMaxSuppression.iou(5, 5, 5, 5, 5, 5, 5, 5), 0.0f);
+        // a box far away but with x2/y2 larger than the other box's, the old int helper's trap
+        assertEquals(0.0f, NonMaxSuppression.iou(0, 0, 10, 10, 100, 100, 110, 110), 0.0f);
+    }
+
+    @Test
+    public void greedy_keepsOneBoxPerFace() {
+        FaceBoxes in = boxes(
+                new float[]{0.9f, 0, 0, 100, 100},
+                new float[]{0.8f, 300, 300, 400, 400},
+                new float[]{0.7f, 5, 5, 105, 105},
+                new float[]{0.6f, 305, 295, 405, 395});
+        FaceBoxes out = new FaceBoxes();
+
+        assertEquals(2, new NonMaxSuppression().apply(in, out));
+        assertEquals(0.9f, out.score[0], 0.0f);
+        assertEquals(0.8f, out.score[1], 0.0f);
+        assertEquals(1, out.anchor[1]);
+    }
+
+    @Test
+    public void greedy_stopsAtMaxDetections() {
+        FaceBoxes in = boxes(
+                new float[]{0.9f, 0, 0, 10, 10},
+                new float[]{0.8f, 20, 0, 30, 10},
+                new float[]{0.7f, 40, 0, 50, 10});
+        FaceBoxes out = new FaceBoxes();
+
+        NonMaxSuppression nms = new NonMaxSuppression(NonMaxSuppression.Method.GREEDY, 0.4f, 2);
+        assertEquals(2, nms.apply(in, out));
+    }
+
+    @Test
+    public void softLinear_decaysOverlappingScores() {
+        FaceBoxes in = boxes(
+                new float[]{0.9f, 0, 0, 10, 10},
+                new float[]{0.8f, 0, 0, 10, 5});
+        FaceBoxes out = new FaceBoxes();
+
+        NonMaxSuppression nms = new NonMaxSuppression(NonMaxSuppression.Method.SOFT_LINEAR, 0.4f, 10, 0.5f, 0.1f);
+        assertEquals(2, nms.apply(in, out));
+        // IoU 0.5, score 0.8 * (1 - 0.5)
+        assertEquals(0.4f, out.score[1], 1e-6f);
+    }
+
+    @Test
+    public void softGaussian_dropsBoxesDecayedBelowMinScore() {
+        FaceBoxes in = boxes(
+                new float[]{0.9f, 0, 0, 10, 10},
+                new float[]{0.3f, 0, 0, 10, 10},
+                new float[]{0.5f, 50, 50, 60, 60});
+        FaceBoxes out = new FaceBoxes();
+
+        NonMaxSuppression nms = new NonMaxSuppression(NonMaxSuppression.Method.SOFT_GAUSSIAN, 0.4f, 10, 0.5f, 0.2f);
+        assertEquals(2, nms.apply(in, out));
+        assertEquals(0.5f, out.score[1], 0.0f);
+    }
+
+    @Test
+    public void grid_matchesGreedy() {
+        Random random = new Random(42);
+        for (int trial = 0; trial < 20; trial++) {
+            int n = 300;
+            FaceBoxes in = new FaceBoxes(n);
+            for (int i = 0; i < n; i++) {
+                float size = 8 + random.nextFloat() * 60;
+                float x = random.nextFloat() * 640;
+                float y = random.nextFloat() * 640;
+                in.score[i] = 1.0f - i / (float) n;
+                in.anchor[i] = i;
+                in.x1[i] = x;
+                in.y1[i] = y;
+                in.x2[i] = x + size;
+                in.y2[i] = y + size * (0.8f + random.nextFloat() * 0.4f);
+            }
+            in.count = n;
+
+            FaceBoxes greedy = new FaceBoxes();
+            FaceBoxes grid = new FaceBoxes();
+            new NonMaxSuppression(NonMaxSuppression.Method.GREEDY, 0.3f, 1000).apply(in, greedy);
+            new NonMaxSuppression(NonMaxSuppression.Method.GRID, 0.3f, 1000).apply(in, grid);
+
+            assertEquals(greedy.count, grid.count);
+            for (int i = 0; i < greedy.count; i++) {
+                assertEquals(greedy.anchor[i], grid.anchor[i]);
+            }
+        }
+    }
+}
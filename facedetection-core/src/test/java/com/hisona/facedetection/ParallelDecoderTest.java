@@ -0,0 +1,100 @@
+package com.hisona.facedetection;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class ParallelDecoderTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /** Random outputs with coarse scores, so many candidates tie across chunk boundaries. */
+    private static float[][] outputs(AnchorTable anchors, long seed) {
+        Random random = new Random(seed);
+        float[] loc = new float[4 * anchors.size];
+        float[] cls = new float[2 * anchors.size];
+        for (int i = 0; i < loc.length; i++) {
+            loc[i] = (random.nextFloat() - 0.5f) * 2.0f;
+        }
+        for (int i = 0; i < anchors.size; i++) {
+            cls[2 * i + 1] = random.nextInt(20) / 20.0f;
+        }
+        return new float[][]{loc, cls};
+    }
+
+    private static void assertSameBoxes(FaceBoxes expected, FaceBoxes actual) {
+        assertEquals(expected.count, actual.count);
+        for (int i = 0; i < expected.count; i++) {
+            assertEquals(expected.anchor[i], actual.anchor[i]);
+            assertEquals(expected.score[i], actual.score[i], 0.0f);
+            assertEquals(expected.x1[i], actual.x1[i], 0.0f);
+            assertEquals(expected.y1[i], actual.y1[i], 0.0f);
+            assertEquals(expected.x2[i], actual.x2[i], 0.0f);
+            assertEquals(expected.y2[i], actual.y2[i], 0.0f);
+        }
+    }
+
+    @Test
+    public void decode_matchesTheSerialPath() {
+        AnchorTable anchors = AnchorTable.get(1280, 1280, AnchorConfig.DEFAULT);
+        assertEquals(16800, anchors.size);
+        ParallelDecoder decoder = new ParallelDecoder(executor, 4, ParallelDecoder.DEFAULT_MIN_ANCHORS);
+        assertTrue(decoder.isParallel(anchors.size));
+
+        for (int k : new int[]{1, 50, 750, 20000}) {
+            float[][] out = outputs(anchors, k);
+            FaceBoxes expected = new FaceBoxes();
+            new TopKSelector(k).select(out[1], anchors.size, 0.5f, expected);
+            BoxDecoder.decode(out[0], anchors, expected);
+
+            FaceBoxes actual = new FaceBoxes();
+            assertEquals(expected.count, decoder.decode(out[0], out[1], anchors, 0.5f, k, actual));
+            assertSameBoxes(expected, actual);
+        }
+    }
+
+    @Test
+    public void postProcessor_givesTheSameFacesInParallel() {
+        AnchorTable anchors = AnchorTable.get(1280, 1280, AnchorConfig.DEFAULT);
+        float[][] out = outputs(anchors, 7);
+        PostProcessor serial = new PostProcessor();
+        PostProcessor parallel = new PostProcessor(PostProcessor.DEFAULT_SCORE_THRESHOLD, PostProcessor.DEFAULT_TOP_K,
+                new NonMaxSuppression(), new ParallelDecoder(executor, 3, ParallelDecoder.DEFAULT_MIN_ANCHORS));
+
+        FaceBoxes expected = serial.process(out[0], out[1], null, anchors);
+        for (int i = 0; i < 3; i++) {
+            assertSameBoxes(expected, parallel.process(out[0], out[1], null, anchors));
+        }
+    }
+
+    @Test
+    public void smallInputs_stayOnTheCallingThread() {
+        ParallelDecoder decoder = new ParallelDecoder(executor, 4, ParallelDecoder.DEFAULT_MIN_ANCHORS);
+        assertFalse(decoder.isParallel(AnchorConfig.DEFAULT.getAnchorCount(640, 640)));
+        assertFalse(new ParallelDecoder(executor, 1, 0).isParallel(100000));
+    }
+
+    @Test
+    public void rejectedChunks_runOnTheCallingThread() {
+        executor.shutdown();
+        AnchorTable anchors = AnchorTable.get(1280, 1280, AnchorConfig.DEFAULT);
+        float[][] out = outputs(anchors, 3);
+        FaceBoxes expected = new FaceBoxes();
+        new TopKSelector(100).select(out[1], anchors.size, 0.5f, expected);
+        BoxDecoder.decode(out[0], anchors, expected);
+
+        FaceBoxes actual = new FaceBoxes();
+        new ParallelDecoder(executor, 4, 0).decode(out[0], out[1], anchors, 0.5f, 100, actual);
+        assertSameBoxes(expected, actual);
+    }
+}
@@ -0,0 +1,115 @@
+package com.hisona.facedetection;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class PipelineMetricsTest {
+
+    private static final long FRAME = 33333333L;
+
+    @Test
+    public void onCameraFrame_countsTimestampGapsAsDrops() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        long timestamp = 0;
+        for (int i = 0; i < 10; i++) {
+            metrics.onCameraFrame(timestamp);
+            timestamp += FRAME;
+        }
+        // two frames replaced by the camera
+        timestamp += 2 * FRAME;
+        metrics.onCameraFrame(timestamp);
+
+        assertEquals(11, metrics.getCameraFrames());
+        assertEquals(2, metrics.getCameraDrops());
+    }
+
+    @Test
+    public void onResultShown_measuresThroughputAndUiLatency() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        DetectionResult result = new DetectionResult();
+        result.totalNanos = 30000000L;
+
+        long now = 0;
+        for (int i = 0; i <= 20; i++) {
+            result.postedNanos = now + 1000;
+            now += 50000000L;
+            metrics.onResultShown(result, now);
+        }
+
+        assertEquals(20.0f, metrics.getThroughput(), 0.01f);
+        assertEquals(21, metrics.get(PipelineMetrics.Stage.UI_POST).getCount());
+        assertEquals(79999, metrics.get(PipelineMetrics.Stage.END_TO_END).getMaxMicros());
+    }
+
+    @Test
+    public void recordResult_splitsTheFrameIntoStages() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        DetectionResult result = new DetectionResult();
+        result.convertNanos = 4000000L;
+        result.forwardNanos = 20000000L;
+        result.decodeNanos = 2000000L;
+        result.nmsNanos = 500000L;
+        result.totalNanos = 30000000L;
+        metrics.recordResult(result);
+
+        assertEquals(20000, metrics.get(PipelineMetrics.Stage.FORWARD).getMaxMicros());
+        assertEquals(4000, metrics.get(PipelineMetrics.Stage.QUEUE).getMaxMicros());
+
+        String report = metrics.format(new StringBuilder()).toString();
+        assertTrue(report.contains("forward"));
+        assertFalse(report.contains("track"));
+    }
+
+    @Test
+    public void format_reportsTheMotionGate() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        assertFalse(metrics.format(new StringBuilder()).toString().contains("gate"));
+
+        MotionGate gate = new MotionGate();
+        ByteBuffer y = ByteBuffer.allocateDirect(64 * 48);
+        for (int i = 0; i < 4; i++) {
+            gate.check(y, 64, 48, 64, i);
+        }
+        metrics.attach(gate);
+
+        assertTrue(metrics.format(new StringBuilder()).toString().contains("gate 75% skipped"));
+    }
+
+    @Test
+    public void format_reportsTheInferenceThreads() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        assertFalse(metrics.format(new StringBuilder()).toString().contains("inference threads"));
+
+        metrics.setInferenceThreads(4);
+        assertTrue(metrics.format(new StringBuilder()).toString().contains(", 4 inference threads\n"));
+    }
+
+    @Test
+    public void fileExporter_rotatesPastMaxBytes() throws IOException {
+        File file = File.createTempFile("metrics", ".txt");
+        File previous = new File(file.getPath() + ".1");
+        try {
+            FileMetricsExporter exporter = new FileMetricsExporter(file, 200);
+            PipelineMetrics metrics = new PipelineMetrics();
+            for (int i = 0; i < 50; i++) {
+                exporter.export(metrics);
+            }
+            assertNull(exporter.getLastError());
+            assertTrue(previous.exists());
+            // each file stops growing at the first report past the limit
+            // "# " and the time line, then the report
+            long report = 2 + 14 + metrics.format(new StringBuilder()).length();
+            assertTrue(file.length() < 200 + report);
+            assertTrue(previous.length() >= 200);
+            assertTrue(previous.length() < 200 + report);
+        } finally {
+            file.delete();
+            previous.delete();
+        }
+    }
+}
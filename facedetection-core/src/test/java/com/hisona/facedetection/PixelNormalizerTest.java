@@ -0,0 +1,129 @@
+package com.hisona.facedetection;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PixelNormalizerTest {
+
+    private static final float[] MEAN = new float[]{123.675f, 116.28f, 103.53f};
+    private static final float[] STD = new float[]{58.395f, 57.12f, 57.375f};
+
+    private static int[] randomPixels(int count, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[count];
+        for (int i = 0; i < count; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+
+    /** The per pixel formula the tables replace, as a planar result. */
+    private static float[] reference(int[] pixels, int count, float[] mean, float[] std) {
+        float[] out = new float[3 * count];
+        for (int i = 0; i < count; i++) {
+            final int c = pixels[i];
+            final float r = ((c >> 16) & 0xff) / 1.0f;
+            final float g = ((c >> 8) & 0xff) / 1.0f;
+            final float b = ((c) & 0xff) / 1.0f;
+            out[i] = (r - mean[0]) / std[0];
+            out[count + i] = (g - mean[1]) / std[1];
+            out[2 * count + i] = (b - mean[2]) / std[2];
+        }
+        return out;
+    }
+
+    private static float[] normalize(PixelNormalizer normalizer, int[] pixels, int count,
+                                     PixelNormalizer.Layout layout, int offset) {
+        FloatBuffer out = ByteBuffer.allocateDirect(4 * (offset + 3 * count)).asFloatBuffer();
+        normalizer.normalize(pixels, count, layout, out, offset);
+        assertEquals(0, out.position());
+        float[] result = new float[3 * count];
+        out.position(offset);
+        out.get(result);
+        return result;
+    }
+
+    private static void assertBitIdentical(float[] expected, float[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("value " + i, Float.floatToRawIntBits(expected[i]), Float.floatToRawIntBits(actual[i]));
+        }
+    }
+
+    @Test
+    public void everyChannelValueMatchesFormula() {
+        int[] pixels = new int[256];
+        for (int i = 0; i < 256; i++) {
+            pixels[i] = 0xff000000 | (i << 16) | ((255 - i) << 8) | (i ^ 0x5a);
+        }
+        assertBitIdentical(reference(pixels, 256, PixelNormalizer.FACE_MEAN, PixelNormalizer.FACE_STD),
+                normalize(new PixelNormalizer(), pixels, 256, PixelNormalizer.Layout.NCHW, 0));
+        assertBitIdentical(reference(pixels, 256, MEAN, STD),
+                normalize(new PixelNormalizer(MEAN, STD), pixels, 256, PixelNormalizer.Layout.NCHW, 0));
+    }
+
+    @Test
+    public void planarMatchesFormulaAcrossChunks() {
+        // not a multiple of the chunk size, written at an offset
+        final int count = 1500;
+        int[] pixels = randomPixels(count, 1);
+        assertBitIdentical(reference(pixels, count, MEAN, STD),
+                normalize(new PixelNormalizer(MEAN, STD), pixels, count, PixelNormalizer.Layout.NCHW, 7));
+    }
+
+    @Test
+    public void channelsLastInterleavesPlanarValues() {
+        final int count = 1100;
+        int[] pixels = randomPixels(count, 2);
+        float[] planar = reference(pixels, count, MEAN, STD);
+        float[] interleaved = normalize(new PixelNormalizer(MEAN, STD), pixels, count, PixelNormalizer.Layout.NHWC, 3);
+        for (int i = 0; i < count; i++) {
+            for (int c = 0; c < 3; c++) {
+                assertEquals(Float.floatToRawIntBits(planar[c * count + i]),
+                        Float.floatToRawIntBits(interleaved[3 * i + c]));
+            }
+        }
+    }
+
+    @Test
+    public void setNormalizationRebuildsTables() {
+        final int count = 600;
+        int[] pixels = randomPixels(count, 3);
+        PixelNormalizer normalizer = new PixelNormalizer();
+        normalizer.setNormalization(MEAN, STD);
+        assertArrayEquals(MEAN, normalizer.getMean(), 0.0f);
+        assertArrayEquals(STD, normalizer.getStd(), 0.0f);
+        assertBitIdentical(reference(pixels, count, MEAN, STD),
+                normalize(normalizer, pixels, count, PixelNormalizer.Layout.NCHW, 0));
+    }
+
+    @Test
+    public void bytesKeepRawChannels() {
+        final int count = 700;
+        int[] pixels = randomPixels(count, 4);
+        PixelNormalizer normalizer = new PixelNormalizer();
+        ByteBuffer planar = ByteBuffer.allocateDirect(3 * count + 5);
+        ByteBuffer interleaved = ByteBuffer.allocateDirect(3 * count);
+        normalizer.toBytes(pixels, count, PixelNormalizer.Layout.NCHW, planar, 5);
+        normalizer.toBytes(pixels, count, PixelNormalizer.Layout.NHWC, interleaved, 0);
+        assertEquals(0, planar.position());
+        for (int i = 0; i < count; i++) {
+            final int c = pixels[i];
+            final int[] rgb = new int[]{(c >> 16) & 0xff, (c >> 8) & 0xff, c & 0xff};
+            for (int k = 0; k < 3; k++) {
+                assertEquals(rgb[k], planar.get(5 + k * count + i) & 0xff);
+                assertEquals(rgb[k], interleaved.get(3 * i + k) & 0xff);
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsSmallBuffer() {
+        new PixelNormalizer().normalize(new int[10], 10, FloatBuffer.allocate(29), 0);
+    }
+}
@@ -0,0 +1,93 @@
+package com.hisona.facedetection;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ReplayBackendTest {
+
+    private static final int SIZE = 64;
+
+    /** Outputs with a face on exactly the box of anchor, zero offsets everywhere. */
+    private static ModelOutputs frame(AnchorTable anchors, int anchor, boolean withLandmarks) {
+        ModelOutputs outputs = new ModelOutputs();
+        outputs.loc = new float[4 * anchors.size];
+        outputs.cls = new float[2 * anchors.size];
+        outputs.ldm = withLandmarks ? new float[2 * LandMark.COUNT * anchors.size] : null;
+        if (anchor >= 0) {
+            outputs.cls[2 * anchor + 1] = 0.9f;
+        }
+        return outputs;
+    }
+
+    @Test
+    public void forward_replaysFramesInOrderAndLoops() {
+        AnchorTable anchors = AnchorTable.get(SIZE, SIZE, AnchorConfig.DEFAULT);
+        ModelOutputs first = frame(anchors, 3, true);
+        ModelOutputs second = frame(anchors, -1, false);
+        ReplayBackend backend = new ReplayBackend(first, second);
+        ModelOutputs outputs = new ModelOutputs();
+
+        backend.forward(null, SIZE, SIZE, outputs);
+        assertSame(first.cls, outputs.cls);
+        backend.forward(null, SIZE, SIZE, outputs);
+        assertSame(second.cls, outputs.cls);
+        assertNull(outputs.ldm);
+        backend.forward(null, SIZE, SIZE, outputs);
+        assertSame(first.cls, outputs.cls);
+
+        backend.rewind();
+        backend.forward(null, SIZE, SIZE, outputs);
+        assertSame(first.cls, outputs.cls);
+    }
+
+    @Test
+    public void detector_findsTheRecordedFace() {
+        AnchorTable anchors = AnchorTable.get(SIZE, SIZE, AnchorConfig.DEFAULT);
+        FaceDetector detector = new FaceDetector(new ReplayBackend(frame(anchors, 0, true)));
+        Letterbox letterbox = new Letterbox();
+        letterbox.set(SIZE, SIZE, 1.0f, 0, 0);
+
+        DetectionResult result = detector.detect(null, SIZE, SIZE, letterbox, new DetectionResult());
+
+        // anchor 0 is the 16 px box centred on the first 16 px cell
+        assertEquals(1, result.count);
+        assertEquals(0.9f, result.scores[0], 0.0f);
+        assertEquals(0.0f, result.boxes[0], 1e-4f);
+        assertEquals(0.0f, result.boxes[1], 1e-4f);
+        assertEquals(16.0f, result.boxes[2], 1e-4f);
+        assertEquals(16.0f, result.boxes[3], 1e-4f);
+    }
+
+    @Test
+    public void writeThenRead_restoresFrames() throws IOException {
+        AnchorTable anchors = AnchorTable.get(SIZE, SIZE, AnchorConfig.DEFAULT);
+        ModelOutputs first = frame(anchors, 5, true);
+        first.loc[7] = -1.5f;
+        ModelOutputs second = frame(anchors, 2, false);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ReplayBackend.write(bytes, Arrays.asList(first, second));
+        ReplayBackend backend = ReplayBackend.read(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assertEquals(2, backend.getFrameCount());
+        ModelOutputs outputs = new ModelOutputs();
+        backend.forward(null, SIZE, SIZE, outputs);
+        assertArrayEquals(first.loc, outputs.loc, 0.0f);
+        assertArrayEquals(first.cls, outputs.cls, 0.0f);
+        assertArrayEquals(first.ldm, outputs.ldm, 0.0f);
+        backend.forward(null, SIZE, SIZE, outputs);
+        assertArrayEquals(second.cls, outputs.cls, 0.0f);
+        assertNull(outputs.ldm);
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsOtherData() throws IOException {
+        ReplayBackend.read(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 0, 0, 0, 0}));
+    }
+}
@@ -0,0 +1,67 @@
+package com.hisona.facedetection;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ResolutionControllerTest {
+
+    private static final long MS = 1000000L;
+
+    private static void feed(ResolutionController controller, int frames, long nanosAt640) {
+        for (int i = 0; i < frames; i++) {
+            int size = controller.getSize();
+            // forward time grows with the pixel count
+            controller.record(size, nanosAt640 * size * size / (640 * 640));
+        }
+    }
+
+    @Test
+    public void record_stepsDownOverBudget() {
+        ResolutionController controller = new ResolutionController(50 * MS);
+        assertEquals(640, controller.getSize());
+
+        feed(controller, 100, 120 * MS);
+
+        // 480 costs 67 ms, 320 costs 30 ms
+        assertEquals(320, controller.getSize());
+    }
+
+    @Test
+    public void record_stepsUpWhenTheLargerSizeFits() {
+        ResolutionController controller = new ResolutionController(ResolutionController.DEFAULT_SIZES,
+                50 * MS, 320);
+
+        feed(controller, 100, 30 * MS);
+
+        assertEquals(640, controller.getSize());
+    }
+
+    @Test
+    public void record_doesNotOscillateNearTheBudget() {
+        ResolutionController controller = new ResolutionController(50 * MS);
+
+        // 640 costs 56 ms, 480 costs 31.5 ms which would predict 56 ms for 640 again
+        feed(controller, 500, 56 * MS);
+
+        assertEquals(480, controller.getSize());
+        assertEquals(1, controller.getSwitchCount());
+    }
+
+    @Test
+    public void record_ignoresFramesOfThePreviousSize() {
+        ResolutionController controller = new ResolutionController(50 * MS);
+
+        for (int i = 0; i < 100; i++) {
+            controller.record(320, 500 * MS);
+        }
+
+        assertEquals(640, controller.getSize());
+        assertEquals(0, controller.getSwitchCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsUnalignedSizes() {
+        new ResolutionController(new int[]{320, 500}, 50 * MS, 320);
+    }
+}
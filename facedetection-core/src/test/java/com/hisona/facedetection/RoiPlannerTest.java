@@ -0,0 +1,98 @@
+package com.hisona.facedetection;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RoiPlannerTest {
+
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 640;
+
+    private static DetectionResult result(boolean cropped, float... boxes) {
+        DetectionResult result = new DetectionResult(boxes.length / 4);
+        result.count = boxes.length / 4;
+        System.arraycopy(boxes, 0, result.sourceBoxes, 0, boxes.length);
+        result.cropped = cropped;
+        return result;
+    }
+
+    @Test
+    public void plan_scansTheFrameUntilAFaceIsFound() {
+        RoiPlanner planner = new RoiPlanner();
+        assertFalse(planner.plan(WIDTH, HEIGHT));
+
+        planner.update(result(false));
+        assertFalse(planner.plan(WIDTH, HEIGHT));
+        assertEquals(2, planner.getFullScans());
+    }
+
+    @Test
+    public void plan_cropsAnExpandedSquareAroundTheFaces() {
+        RoiPlanner planner = new RoiPlanner(2.0f, 320, 10);
+        planner.plan(WIDTH, HEIGHT);
+        planner.update(result(false, 200, 300, 260, 380));
+
+        assertTrue(planner.plan(WIDTH, HEIGHT));
+        assertEquals(160, planner.getWidth());
+        assertEquals(160, planner.getHeight());
+        assertEquals(150, planner.getX());
+        assertEquals(260, planner.getY());
+    }
+
+    @Test
+    public void plan_keepsTheRegionInsideTheFrame() {
+        RoiPlanner planner = new RoiPlanner(2.0f, 320, 10);
+        planner.plan(WIDTH, HEIGHT);
+        planner.update(result(false, 0, 600, 60, 640));
+
+        assertTrue(planner.plan(WIDTH, HEIGHT));
+        assertEquals(0, planner.getX());
+        assertEquals(HEIGHT - 120, planner.getY());
+    }
+
+    @Test
+    public void plan_fallsBackWhenTheRegionLosesAFace() {
+        RoiPlanner planner = new RoiPlanner();
+        planner.plan(WIDTH, HEIGHT);
+        planner.update(result(false, 200, 300, 260, 380));
+        assertTrue(planner.plan(WIDTH, HEIGHT));
+
+        planner.update(result(true));
+        assertFalse(planner.plan(WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void plan_scansTheFramePeriodically() {
+        RoiPlanner planner = new RoiPlanner(2.0f, 320, 3);
+        planner.plan(WIDTH, HEIGHT);
+        planner.update(result(false, 200, 300, 260, 380));
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(planner.plan(WIDTH, HEIGHT));
+            planner.update(result(true, 200, 300, 260, 380));
+        }
+        assertFalse(planner.plan(WIDTH, HEIGHT));
+        assertEquals(3, planner.getRoiRuns());
+    }
+
+    @Test
+    public void plan_scansTheFrameForLargeFaces() {
+        RoiPlanner planner = new RoiPlanner();
+        planner.plan(WIDTH, HEIGHT);
+        planner.update(result(false, 100, 150, 380, 450));
+
+        assertFalse(planner.plan(WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void letterbox_mapsCropBackToTheFrame() {
+        Letterbox letterbox = new Letterbox();
+        letterbox.set(WIDTH, HEIGHT, 2.0f, 0, 0, 150, 260, 160, 160);
+
+        assertTrue(letterbox.isCropped());
+        assertEquals(150.0f, letterbox.toSourceX(0), 0.0f);
+        assertEquals(420.0f, letterbox.toSourceY(320), 0.0f);
+        assertEquals(100.0f, letterbox.toModelX(200), 0.0f);
+    }
+}
@@ -0,0 +1,66 @@
+package com.hisona.facedetection;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ThreadTunerTest {
+
+    /**
+     * Trial reporting fixed durations per thread count: ten times that for the untimed run,
+     * three times that for the first timed run, then the duration itself.
+     */
+    private static class SyntheticTrial implements ThreadTuner.Trial {
+        final long[] nanos;
+        final int[] calls;
+
+        SyntheticTrial(long... nanos) {
+            this.nanos = nanos;
+            this.calls = new int[nanos.length];
+        }
+
+        @Override
+        public long run(int threads) {
+            final int call = ++calls[threads - 1];
+            final long duration = nanos[threads - 1];
+            return call == 1 ? 10 * duration : (call == 2 ? 3 * duration : duration);
+        }
+    }
+
+    @Test
+    public void tune_picksTheFewestThreadsNearTheFastest() {
+        // 4 threads are 3% faster than 3, 5 contend
+        SyntheticTrial trial = new SyntheticTrial(40000000L, 24000000L, 15000000L, 14550000L, 20000000L);
+        ThreadTuner.Result result = new ThreadTuner(5).tune(trial);
+
+        assertEquals(3, result.threads);
+        // the median ignores the untimed run and the slow first timed one
+        assertTrue(result.toString(), Arrays.equals(trial.nanos, result.medianNanos));
+        for (int calls : trial.calls) {
+            // one untimed run, then the timed ones
+            assertEquals(1 + ThreadTuner.DEFAULT_RUNS, calls);
+        }
+        assertTrue(result.toString(), result.toString().startsWith("3 threads (1: 40.0 ms, 2: 24.0 ms"));
+    }
+
+    @Test
+    public void tune_picksMoreThreadsPastTheTolerance() {
+        // 4 threads are 6% faster than 3
+        SyntheticTrial trial = new SyntheticTrial(40000000L, 24000000L, 15000000L, 14150000L, 20000000L);
+        assertEquals(4, new ThreadTuner(5).tune(trial).threads);
+    }
+
+    @Test
+    public void tune_withOneThread_onlyTriesOne() {
+        SyntheticTrial trial = new SyntheticTrial(1000000L);
+        assertEquals(1, new ThreadTuner(1, 2, 0.0f).tune(trial).threads);
+        assertEquals(3, trial.calls[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsZeroThreads() {
+        new ThreadTuner(0);
+    }
+}
@@ -0,0 +1,81 @@
+package com.hisona.facedetection;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TopKSelectorTest {
+
+    /** Reference: stable descending sort of every anchor above the threshold. */
+    private static int[] sortedAnchors(float[] cls, int anchorCount, float threshold) {
+        int n = 0;
+        int[] idx = new int[anchorCount];
+        for (int i = 0; i < anchorCount; i++) {
+            if (cls[2 * i + 1] > threshold) idx[n++] = i;
+        }
+        int[] result = java.util.Arrays.copyOf(idx, n);
+        for (int k = 0; k < n; k++) {
+            for (int j = 0; j < n - k - 1; j++) {
+                if (cls[2 * result[j] + 1] < cls[2 * result[j + 1] + 1]) {
+                    int tmp = result[j];
+                    result[j] = result[j + 1];
+                    result[j + 1] = tmp;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static float[] randomScores(int anchorCount, long seed) {
+        Random random = new Random(seed);
+        float[] cls = new float[2 * anchorCount];
+        for (int i = 0; i < anchorCount; i++) {
+            // coarse scores so that ties are common
+            float s = random.nextInt(50) / 50.0f;
+            cls[2 * i] = 1.0f - s;
+            cls[2 * i + 1] = s;
+        }
+        return cls;
+    }
+
+    @Test
+    public void select_matchesStableSortPrefix() {
+        for (int k : new int[]{1, 5, 100, 5000}) {
+            float[] cls = randomScores(4200, k);
+            int[] expected = sortedAnchors(cls, 4200, 0.2f);
+
+            TopKSelector selector = new TopKSelector(k);
+            FaceBoxes out = new FaceBoxes();
+            int n = selector.select(cls, 4200, 0.2f, out);
+
+            assertEquals(Math.min(k, expected.length), n);
+            for (int i = 0; i < n; i++) {
+                assertEquals(expected[i], out.anchor[i]);
+                assertEquals(cls[2 * expected[i] + 1], out.score[i], 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void select_returnsNothingBelowThreshold() {
+        float[] cls = new float[2 * 10];
+        FaceBoxes out = new FaceBoxes();
+
+        assertEquals(0, new TopKSelector(5).select(cls, 10, 0.2f, out));
+        assertEquals(0, out.count);
+    }
+
+    @Test
+    public void select_honoursAnchorRange() {
+        float[] scores = new float[]{0.9f, 0.8f, 0.7f, 0.6f, 0.5f};
+        FaceBoxes out = new FaceBoxes();
+
+        int n = new TopKSelector(2).select(scores, 1, 0, 2, 5, 0.0f, out);
+
+        assertEquals(2, n);
+        assertEquals(2, out.anchor[0]);
+        assertEquals(3, out.anchor[1]);
+    }
+}
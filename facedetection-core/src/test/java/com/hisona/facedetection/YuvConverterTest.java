@@ -0,0 +1,149 @@
+package com.hisona.facedetection;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+public class YuvConverterTest {
+
+    private static final float[] MEAN = new float[]{0.0f, 0.0f, 0.0f};
+    private static final float[] STD = new float[]{1.0f, 1.0f, 1.0f};
+
+    /** Gray frame whose luma encodes the column, with a padded row stride and interleaved chroma. */
+    private static ByteBuffer[] grayFrame(int width, int height, int yRowStride, int uvRowStride) {
+        ByteBuffer y = ByteBuffer.allocateDirect(yRowStride * height);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                y.put(row * yRowStride + col, (byte) (col * 10 + row));
+            }
+        }
+        // pixel stride 2, U and V share memory like NV21/NV12 devices
+        ByteBuffer uv = ByteBuffer.allocateDirect(uvRowStride * height / 2);
+        for (int i = 0; i < uv.capacity(); i++) {
+            uv.put(i, (byte) 128);
+        }
+        return new ByteBuffer[]{y, uv.duplicate(), uv.duplicate()};
+    }
+
+    private static float[] convert(YuvConverter converter, ByteBuffer[] planes) {
+        int size = 3 * converter.getOutWidth() * converter.getOutHeight();
+        FloatBuffer out = ByteBuffer.allocateDirect(4 * size).asFloatBuffer();
+        converter.convert(planes[0], planes[1], planes[2], MEAN, STD, out, 0);
+        float[] result = new float[size];
+        out.get(result);
+        return result;
+    }
+
+    @Test
+    public void identity_copiesLumaAsGray() {
+        YuvConverter converter = new YuvConverter();
+        converter.configure(4, 4, 8, 8, 2, 0, false, 4, 4);
+        float[] out = convert(converter, grayFrame(4, 4, 8, 8));
+
+        for (int row = 0; row < 4; row++) {
+            for (int col = 0; col < 4; col++) {
+                float expected = col * 10 + row;
+                assertEquals(expected, out[row * 4 + col], 0.0f);
+                assertEquals(expected, out[16 + row * 4 + col], 0.0f);
+                assertEquals(expected, out[32 + row * 4 + col], 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void rotation90_matchesClockwiseRotation() {
+        YuvConverter converter = new YuvConverter();
+        converter.configure(4, 2, 4, 4, 2, 90, false, 2, 4);
+        float[] out = convert(converter, grayFrame(4, 2, 4, 4));
+
+        // rotated(x, y) = source(y, height - 1 - x)
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 2; x++) {
+                assertEquals(y * 10 + (1 - x), out[y * 2 + x], 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void flip_mirrorsAfterRotation() {
+        YuvConverter converter = new YuvConverter();
+        converter.configure(4, 2, 4, 4, 2, 90, true, 2, 4);
+        float[] out = convert(converter, grayFrame(4, 2, 4, 4));
+
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 2; x++) {
+                assertEquals(y * 10 + x, out[y * 2 + x], 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void letterbox_padsShortSideWithBlack() {
+        YuvConverter converter = new YuvConverter();
+        converter.configure(4, 2, 4, 4, 2, 0, false, 8, 8);
+        float[] mean = new float[]{116.0f, 117.0f, 111.0f};
+        FloatBuffer out = ByteBuffer.allocateDirect(4 * 3 * 64).asFloatBuffer();
+        ByteBuffer[] planes = grayFrame(4, 2, 4, 4);
+        converter.convert(planes[0], planes[1], planes[2], mean, STD, out, 0);
+
+        assertEquals(2.0f, converter.getScale(), 0.0f);
+        assertEquals(0, converter.getPadX());
+        assertEquals(2, converter.getPadY());
+        assertEquals(-116.0f, out.get(0), 0.0f);
+        assertEquals(-117.0f, out.get(64), 0.0f);
+        assertEquals(-111.0f, out.get(128 + 7 * 8 + 7), 0.0f);
+        // first content row, nearest neighbour of source (0, 0) and (3, 0)
+        assertEquals(-116.0f, out.get(2 * 8), 0.0f);
+        assertEquals(30.0f - 116.0f, out.get(2 * 8 + 7), 0.0f);
+    }
+
+    @Test
+    public void chroma_convertsToRgb() {
+        YuvConverter converter = new YuvConverter();
+        converter.configure(2, 2, 2, 2, 1, 0, false, 2, 2);
+        ByteBuffer y = ByteBuffer.allocateDirect(4);
+        ByteBuffer u = ByteBuffer.allocateDirect(1);
+        ByteBuffer v = ByteBuffer.allocateDirect(1);
+        for (int i = 0; i < 4; i++) y.put(i, (byte) 128);
+        u.put(0, (byte) 128);
+        v.put(0, (byte) 228);
+        float[] out = convert(converter, new ByteBuffer[]{y, u, v});
+
+        // V = +100: R = 128 + 140, clamped, G = 128 - 71, B = 128
+        assertEquals(255.0f, out[0], 0.0f);
+        assertEquals(56.0f, out[4], 1.0f);
+        assertEquals(128.0f, out[8], 0.0f);
+    }
+
+    @Test
+    public void crop_convertsTheWindowOnly() {
+        YuvConverter converter = new YuvConverter();
+        converter.configure(4, 4, 8, 8, 2, 0, false, 1, 2, 2, 2, 4, 4);
+        float[] out = convert(converter, grayFrame(4, 4, 8, 8));
+
+        assertEquals(2.0f, converter.getScale(), 0.0f);
+        // output (0, 0) and (3, 3) sample source (1, 2) and (2, 3)
+        assertEquals(12.0f, out[0], 0.0f);
+        assertEquals(23.0f, out[15], 0.0f);
+
+        Letterbox letterbox = converter.getLetterbox(new Letterbox());
+        assertTrue(letterbox.isCropped());
+        assertEquals(1.0f, letterbox.toSourceX(0), 0.0f);
+        assertEquals(4.0f, letterbox.toSourceY(4), 0.0f);
+    }
+
+    @Test
+    public void crop_isTakenFromTheMirroredFrame() {
+        YuvConverter converter = new YuvConverter();
+        converter.configure(4, 4, 8, 8, 2, 0, true, 0, 0, 1, 4, 1, 4);
+        float[] out = convert(converter, grayFrame(4, 4, 8, 8));
+
+        // the left column of the mirrored frame is the right column of the sensor
+        for (int row = 0; row < 4; row++) {
+            assertEquals(30 + row, out[row], 0.0f);
+        }
+    }
+}